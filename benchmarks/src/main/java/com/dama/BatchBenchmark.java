@@ -0,0 +1,62 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch of requests with random start points and budgets over one shared catalogue.
+ * Multiply the reported throughput by batchSize to get requests/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class BatchBenchmark extends InstanceState {
+
+    @Param({"64"})
+    int batchSize;
+
+    // 0 uses one thread per available processor
+    @Param({"0"})
+    int threadCount;
+
+    @Param({"10"})
+    int maxAlgLoop;
+
+    @Param({"10"})
+    int maxLSLoop;
+
+    ArrayList<SolveRequest> requests;
+
+    @Setup(Level.Trial)
+    public void setUpBatch() {
+        Random random = new Random(SEED);
+        this.requests = new ArrayList<SolveRequest>(this.batchSize);
+        for (int i = 0; i < this.batchSize; i++) {
+            double startLat = SyntheticInstance.START_LAT + (random.nextDouble() * 2 - 1) * SyntheticInstance.LAT_SPREAD;
+            double startLng = SyntheticInstance.START_LNG + (random.nextDouble() * 2 - 1) * SyntheticInstance.LNG_SPREAD;
+            double availableBudget = this.availableBudget * (0.5 + random.nextDouble());
+            this.requests.add(new SolveRequest(this.routeCount, availableBudget, startLat, startLng, startLat, startLng,
+                                               this.maxAlgLoop, this.maxLSLoop));
+        }
+    }
+
+    @Benchmark
+    public ArrayList<SolveResult> solveAll() throws InterruptedException {
+        // Created here, as JMH does not order this setup after the catalogue's
+        BatchSolver batchSolver = this.threadCount == 0 ? new BatchSolver(this.catalogue)
+                                                        : new BatchSolver(this.catalogue, this.threadCount);
+        return batchSolver.solveAll(this.requests);
+    }
+}
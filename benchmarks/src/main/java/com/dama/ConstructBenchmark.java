@@ -0,0 +1,36 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Regret insertion construction of the initial solution on a freshly created solver.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class ConstructBenchmark extends InstanceState {
+
+    TopSolver topSolver;
+
+    @Setup(Level.Invocation)
+    public void setUpSolver() {
+        this.topSolver = newSolver();
+    }
+
+    @Benchmark
+    public ArrayList<Route> construct() {
+        this.topSolver.construct();
+        return this.topSolver.routes;
+    }
+}
@@ -0,0 +1,75 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decomposed solve of one request over a catalogue far too large for a single distance matrix. Unlike the other
+ * benchmarks no catalogue is built, the request only ever builds matrices of its clusters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecompositionBenchmark {
+
+    @Param({"20000", "100000"})
+    int poiCount;
+
+    @Param({"2000"})
+    int maxClusterSize;
+
+    // 0 uses one thread per available processor
+    @Param({"0"})
+    int threadCount;
+
+    @Param({"4"})
+    int routeCount;
+
+    @Param({"300"})
+    double availableBudget;
+
+    @Param({"10"})
+    int maxAlgLoop;
+
+    @Param({"10"})
+    int maxLSLoop;
+
+    ArrayList<Poi> pois;
+
+    @Setup(Level.Trial)
+    public void setUpPois() {
+        this.pois = SyntheticInstance.generatePois(this.poiCount, InstanceState.SEED);
+    }
+
+    @Benchmark
+    public SolveResult solve(SolutionQuality quality) throws InterruptedException {
+        DecompositionSolver decompositionSolver = this.threadCount == 0
+                ? new DecompositionSolver(this.pois, SyntheticInstance.WALKING_SPEED)
+                : new DecompositionSolver(this.pois, SyntheticInstance.WALKING_SPEED, this.threadCount);
+        decompositionSolver.setMaxClusterSize(this.maxClusterSize);
+        SolveResult solveResult = decompositionSolver.solve(new SolveRequest(this.routeCount, this.availableBudget,
+                                                                             SyntheticInstance.START_LAT,
+                                                                             SyntheticInstance.START_LNG,
+                                                                             SyntheticInstance.START_LAT,
+                                                                             SyntheticInstance.START_LNG,
+                                                                             this.maxAlgLoop, this.maxLSLoop));
+        quality.solutionScore = solveResult.solutionScore;
+        return solveResult;
+    }
+}
@@ -0,0 +1,67 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+
+/**
+ * Synthetic instance shared by all benchmarks. The catalogue is built once per trial,
+ * so creating a solver only costs the START/FINISH rows.
+ */
+@State(Scope.Thread)
+public class InstanceState {
+
+    static final long SEED = 42L;
+
+    @Param({"50", "500", "5000", "20000"})
+    int poiCount;
+
+    @Param({"4"})
+    int routeCount;
+
+    @Param({"300"})
+    double availableBudget;
+
+    @Param({"FIRST_IMPROVEMENT"})
+    SwapEngine.Mode swapMode;
+
+    // 0 searches exhaustively, otherwise insert, replace and move only look at the k nearest neighbours
+    @Param({"0"})
+    int neighborCount;
+
+    // classic: Route.tsp() 2-opt, or-opt: 2-opt with don't-look bits and Or-opt, 3-opt: additionally 3-opt
+    @Param({"classic"})
+    String routeOptimizer;
+
+    PoiCatalogue catalogue;
+
+    @Setup(Level.Trial)
+    public void setUpInstance() {
+        ArrayList<Poi> pois = SyntheticInstance.generatePois(this.poiCount, SEED);
+        this.catalogue = new PoiCatalogue(pois, SyntheticInstance.WALKING_SPEED);
+    }
+
+    TopSolver newSolver() {
+        TopSolver topSolver = new TopSolver(this.routeCount,
+                                            this.availableBudget,
+                                            this.catalogue,
+                                            SyntheticInstance.START_LAT,
+                                            SyntheticInstance.START_LNG,
+                                            SyntheticInstance.START_LAT,
+                                            SyntheticInstance.START_LNG);
+        topSolver.setSwapMode(this.swapMode);
+        topSolver.setNeighborCount(this.neighborCount);
+        if (this.routeOptimizer.equals("or-opt")) {
+            topSolver.setRouteOptimizer(new LocalSearchRouteOptimizer(false));
+        } else if (this.routeOptimizer.equals("3-opt")) {
+            topSolver.setRouteOptimizer(new LocalSearchRouteOptimizer(true));
+        } else if (!this.routeOptimizer.equals("classic")) {
+            throw new IllegalArgumentException("Unknown route optimizer " + this.routeOptimizer);
+        }
+        return topSolver;
+    }
+}
@@ -0,0 +1,74 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single local-search operator calls, each starting from the same constructed solution.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class OperatorBenchmark extends InstanceState {
+
+    TopSolver topSolver;
+    SolverSnapshot constructed;
+
+    @Setup(Level.Trial)
+    public void setUpSolver() {
+        this.topSolver = newSolver();
+        this.topSolver.construct();
+        this.constructed = new SolverSnapshot(this.topSolver);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreSolution() {
+        this.constructed.restore(this.topSolver);
+    }
+
+    @Benchmark
+    public ArrayList<Route> swap() {
+        this.topSolver.swap();
+        return this.topSolver.routes;
+    }
+
+    @Benchmark
+    public ArrayList<Route> tsp() {
+        this.topSolver.tsp();
+        return this.topSolver.routes;
+    }
+
+    @Benchmark
+    public ArrayList<Route> move() {
+        this.topSolver.move();
+        return this.topSolver.routes;
+    }
+
+    @Benchmark
+    public ArrayList<Route> insert() {
+        this.topSolver.insert();
+        return this.topSolver.routes;
+    }
+
+    @Benchmark
+    public ArrayList<Route> replace() {
+        this.topSolver.replace();
+        return this.topSolver.routes;
+    }
+
+    @Benchmark
+    public ArrayList<Route> disturb() {
+        this.topSolver.disturb(0.7, false);
+        return this.topSolver.routes;
+    }
+}
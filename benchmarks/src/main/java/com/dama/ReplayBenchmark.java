@@ -0,0 +1,60 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full solve of a recorded solve trace, e.g. a captured production instance, with its recorded configuration.
+ * Run with -p trace=path/to/file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+
+    @Param({""})
+    String trace;
+
+    SolveTrace solveTrace;
+    PoiCatalogue catalogue;
+    TopSolver topSolver;
+
+    @Setup(Level.Trial)
+    public void setUpTrace() throws IOException {
+        if (this.trace.isEmpty()) {
+            throw new IllegalArgumentException("No solve trace given, run with -p trace=path/to/file");
+        }
+        this.solveTrace = SolveTrace.read(new File(this.trace));
+        this.catalogue = this.solveTrace.newCatalogue(null);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpSolver() {
+        this.topSolver = this.solveTrace.newSolver(this.catalogue);
+    }
+
+    @Benchmark
+    public ArrayList<ArrayList<String>> solve(SolutionQuality quality) throws InterruptedException {
+        ArrayList<ArrayList<String>> routes = this.solveTrace.config.solve(this.topSolver);
+        quality.solutionScore = this.topSolver.solutionScore;
+        return routes;
+    }
+}
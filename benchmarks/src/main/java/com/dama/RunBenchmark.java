@@ -0,0 +1,46 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Complete solve: construction followed by the iterated local search.
+ * The solution score is reported as an extra metric, so speed/quality tradeoffs can be compared directly,
+ * e.g. candidate restriction with -p neighborCount=0,5,10,20.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class RunBenchmark extends InstanceState {
+
+    @Param({"10"})
+    int maxAlgLoop;
+
+    @Param({"10"})
+    int maxLSLoop;
+
+    TopSolver topSolver;
+
+    @Setup(Level.Invocation)
+    public void setUpSolver() {
+        this.topSolver = newSolver();
+    }
+
+    @Benchmark
+    public ArrayList<ArrayList<String>> run(SolutionQuality solutionQuality) {
+        ArrayList<ArrayList<String>> solutionRoutes = this.topSolver.run(this.maxAlgLoop, this.maxLSLoop);
+        solutionQuality.solutionScore = this.topSolver.solutionScore;
+        return solutionRoutes;
+    }
+}
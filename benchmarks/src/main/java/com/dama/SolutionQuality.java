@@ -0,0 +1,22 @@
+package com.dama;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports the score of the last solution found in an iteration next to the timing results.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class SolutionQuality {
+
+    public double solutionScore;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        this.solutionScore = 0.0;
+    }
+}
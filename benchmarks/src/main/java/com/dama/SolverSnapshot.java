@@ -0,0 +1,41 @@
+package com.dama;
+
+import java.util.ArrayList;
+
+/**
+ * Copy of a solver's routes and POI lists that can be restored before every benchmark invocation,
+ * so that mutating operators always start from the same solution.
+ */
+public class SolverSnapshot {
+
+    ArrayList<ArrayList<Poi>> routePois;
+    ArrayList<Poi> availablePois;
+    ArrayList<Poi> assignedPois;
+
+    SolverSnapshot(TopSolver topSolver) {
+        this.routePois = new ArrayList<ArrayList<Poi>>();
+        for (Route route : topSolver.routes) {
+            this.routePois.add(route.getPois());
+        }
+        this.availablePois = new ArrayList<Poi>(topSolver.availablePois);
+        this.assignedPois = new ArrayList<Poi>(topSolver.assignedPois);
+    }
+
+    void restore(TopSolver topSolver) {
+        topSolver.routes.clear();
+        for (ArrayList<Poi> pois : this.routePois) {
+            Route route = new Route(topSolver);
+            for (int i = 1; i < pois.size() - 1; i++) {
+                route.insertPoi(pois.get(i), i);
+            }
+            route.routeId = Integer.toString(topSolver.routes.size());
+            topSolver.routes.add(route);
+        }
+        for (Poi availablePoi : this.availablePois) {
+            topSolver.poiRoutes[availablePoi.index] = null;
+        }
+        topSolver.availablePois = new ArrayList<Poi>(this.availablePois);
+        topSolver.assignedPois = new ArrayList<Poi>(this.assignedPois);
+        topSolver.resetAvailability();
+    }
+}
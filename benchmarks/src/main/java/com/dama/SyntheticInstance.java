@@ -0,0 +1,29 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates reproducible random POI sets spread over central Barcelona.
+ */
+public class SyntheticInstance {
+
+    static final double START_LAT = 41.375128;
+    static final double START_LNG = 2.16835;
+    static final double LAT_SPREAD = 0.05;
+    static final double LNG_SPREAD = 0.07;
+    static final double WALKING_SPEED = 65.0;
+
+    static ArrayList<Poi> generatePois(int poiCount, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Poi> pois = new ArrayList<Poi>(poiCount);
+        for (int i = 0; i < poiCount; i++) {
+            double lat = START_LAT + (random.nextDouble() * 2 - 1) * LAT_SPREAD;
+            double lng = START_LNG + (random.nextDouble() * 2 - 1) * LNG_SPREAD;
+            double score = random.nextDouble();
+            double consumingBudget = 20 + random.nextInt(41);
+            pois.add(new Poi(Integer.toString(i), lat, lng, score, consumingBudget));
+        }
+        return pois;
+    }
+}
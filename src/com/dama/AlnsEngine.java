@@ -0,0 +1,378 @@
+package com.dama;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Adaptive large neighbourhood search over the routes of a TopSolver, an alternative to the fixed disturb schedule
+ * of the iterated local search. Every iteration removes POIs with a destroy operator, reinserts available POIs with
+ * a repair operator and reorders the routes; the result replaces the current solution by a simulated annealing
+ * criterion on the score. Operators are drawn by roulette wheel, with weights adapted after every segment to the
+ * score they gained per CPU millisecond, or per million evaluated moves if the solver must be deterministic.
+ */
+public class AlnsEngine {
+
+    public enum Destroy {
+        // Uniformly chosen POIs
+        RANDOM,
+        // POIs with the lowest score per budget their removal frees
+        WORST_RATIO,
+        // A POI and the assigned POIs closest to it by travel time, from any route
+        RELATED,
+        // All POIs of one route
+        ROUTE
+    }
+
+    public enum Repair {
+        // Highest score per insertion cost first
+        GREEDY,
+        // Largest loss of score per cost if the POI does not get its best route, over the best 2 or 3 routes
+        REGRET_2,
+        REGRET_3
+    }
+
+    // Iterations between two weight updates
+    static final int SEGMENT_LENGTH = 50;
+    // Share of a new weight that comes from the last segment
+    static final double REACTION = 0.3;
+    // Every operator keeps at least this share of the average weight, so none is starved for good
+    static final double MIN_WEIGHT_SHARE = 0.05;
+    // Range of the share of assigned POIs removed per iteration
+    static final double MIN_REMOVE_SHARE = 0.1;
+    static final double MAX_REMOVE_SHARE = 0.4;
+    // Worst-ratio and related removals pick list entry size*y^p for uniform y, so higher powers stay closer to the top
+    static final double SELECTION_POWER = 3.0;
+    // A solution this share worse than the first one is accepted with probability 1/2 at the start
+    static final double START_TEMPERATURE_SHARE = 0.05;
+    // The temperature falls geometrically to this share of the start temperature over the run
+    static final double FINAL_TEMPERATURE_SHARE = 0.001;
+    // Insertion costs are floored, so POIs that cost nothing to visit still get a finite ratio
+    static final double MIN_INSERTION_COST = 1e-9;
+
+    static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    static final boolean CPU_TIME_SUPPORTED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+
+    TopSolver topSolver;
+    Random random;
+    double[] destroyWeights;
+    double[] repairWeights;
+    // Score gained and CPU time or evaluations spent per operator in the current segment
+    double[] destroySegmentGains;
+    long[] destroySegmentCosts;
+    double[] repairSegmentGains;
+    long[] repairSegmentCosts;
+    AlnsStats stats;
+
+    // Sort keys of the worst-ratio and related removals, by matrix index
+    double[] removalKeys;
+    // Cheapest insertion per (repair candidate, route), cost Double.MAX_VALUE if the POI does not fit
+    double[] insertionCosts;
+    int[] insertionPositions;
+
+    AlnsEngine(TopSolver topSolver, Random random) {
+        this.topSolver = topSolver;
+        this.random = random;
+        int destroyCount = Destroy.values().length;
+        int repairCount = Repair.values().length;
+        this.destroyWeights = new double[destroyCount];
+        this.repairWeights = new double[repairCount];
+        Arrays.fill(this.destroyWeights, 1.0);
+        Arrays.fill(this.repairWeights, 1.0);
+        this.destroySegmentGains = new double[destroyCount];
+        this.destroySegmentCosts = new long[destroyCount];
+        this.repairSegmentGains = new double[repairCount];
+        this.repairSegmentCosts = new long[repairCount];
+        this.removalKeys = new double[topSolver.distanceMatrix.getSize()];
+        this.insertionCosts = new double[0];
+        this.insertionPositions = new int[0];
+        this.stats = new AlnsStats();
+    }
+
+    // Searches from the current routes, which must also be the best solution of the solver so far
+    void run(int maxIterations) {
+        TopSolver topSolver = this.topSolver;
+        int[][] currentStops = topSolver.snapshotStops();
+        double currentScore = topSolver.computeSolutionScore();
+        double startTemperature = Math.max(START_TEMPERATURE_SHARE * currentScore / Math.log(2.0), Double.MIN_NORMAL);
+
+        for (int iteration = 0; iteration < maxIterations && !topSolver.deadlineReached(); iteration++) {
+            long started = cpuTime();
+            long evaluations = topSolver.evaluationCount;
+            Destroy destroy = Destroy.values()[select(this.destroyWeights)];
+            Repair repair = Repair.values()[select(this.repairWeights)];
+            destroy(destroy);
+            repair(repair);
+            topSolver.runOperator(SolverStats.Operator.TSP);
+
+            double score = topSolver.computeSolutionScore();
+            double temperature = startTemperature * Math.pow(FINAL_TEMPERATURE_SHARE, progress(iteration, maxIterations));
+            boolean accepted = score >= currentScore ||
+                               this.random.nextDouble() < Math.exp((score - currentScore) / temperature);
+            double gain = Math.max(score - currentScore, 0.0);
+            boolean newBest = false;
+            if (accepted) {
+                currentScore = score;
+                currentStops = topSolver.snapshotStops();
+                if (score > topSolver.solutionScore) {
+                    topSolver.keepSolution(score, currentStops);
+                    topSolver.reportSolution(score, currentStops);
+                    newBest = true;
+                }
+            } else {
+                topSolver.restoreStops(currentStops);
+            }
+
+            long nanos = cpuTime() - started;
+            long cost = Math.max(topSolver.deterministic ? topSolver.evaluationCount - evaluations : nanos, 1L);
+            this.destroySegmentGains[destroy.ordinal()] += gain;
+            this.destroySegmentCosts[destroy.ordinal()] += cost;
+            this.repairSegmentGains[repair.ordinal()] += gain;
+            this.repairSegmentCosts[repair.ordinal()] += cost;
+            this.stats.stepFinished(destroy, repair, nanos, gain, accepted, newBest);
+            if (topSolver.stats != null) {
+                topSolver.stats.traceScore(iteration + 1, 0, System.nanoTime() - topSolver.runStart, currentScore);
+            }
+            if ((iteration + 1) % SEGMENT_LENGTH == 0) {
+                updateWeights(this.destroyWeights, this.destroySegmentGains, this.destroySegmentCosts);
+                updateWeights(this.repairWeights, this.repairSegmentGains, this.repairSegmentCosts);
+            }
+        }
+
+        System.arraycopy(this.destroyWeights, 0, this.stats.destroyWeights, 0, this.destroyWeights.length);
+        System.arraycopy(this.repairWeights, 0, this.stats.repairWeights, 0, this.repairWeights.length);
+    }
+
+    // Share of the run that has passed, by iterations or by the time limit, whichever is further
+    private double progress(int iteration, int maxIterations) {
+        double progress = (double) iteration / maxIterations;
+        if (this.topSolver.hasDeadline) {
+            progress = Math.max(progress, (double) (System.nanoTime() - this.topSolver.runStart) /
+                                          this.topSolver.timeLimitNanos);
+        }
+        return Math.min(progress, 1.0);
+    }
+
+    private static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    // Roulette wheel selection, uniform if no operator has any weight left
+    private int select(double[] weights) {
+        double total = 0.0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        if (!(total > 0.0)) {
+            return this.random.nextInt(weights.length);
+        }
+        double target = this.random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            target -= weights[i];
+            if (target < 0.0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    // Moves the weight of every operator used in the segment towards its score gain per CPU millisecond, or per
+    // million evaluations
+    private static void updateWeights(double[] weights, double[] segmentGains, long[] segmentCosts) {
+        double total = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            if (segmentCosts[i] > 0) {
+                double gainRate = segmentGains[i] / (segmentCosts[i] / 1e6);
+                weights[i] = (1.0 - REACTION) * weights[i] + REACTION * gainRate;
+            }
+            segmentGains[i] = 0.0;
+            segmentCosts[i] = 0L;
+            total += weights[i];
+        }
+        double minWeight = MIN_WEIGHT_SHARE * total / weights.length;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = Math.max(weights[i], minWeight);
+        }
+    }
+
+    private void destroy(Destroy destroy) {
+        ArrayList<Poi> assignedPois = this.topSolver.assignedPois;
+        if (assignedPois.isEmpty()) {
+            return;
+        }
+        int minCount = Math.max(1, (int) (MIN_REMOVE_SHARE * assignedPois.size()));
+        int maxCount = Math.max(minCount, (int) (MAX_REMOVE_SHARE * assignedPois.size()));
+        int removeCount = minCount + this.random.nextInt(maxCount - minCount + 1);
+
+        switch (destroy) {
+            case RANDOM:
+                for (int removed = 0; removed < removeCount; removed++) {
+                    remove(assignedPois.get(this.random.nextInt(assignedPois.size())));
+                }
+                break;
+            case WORST_RATIO:
+                for (Poi poi : assignedPois) {
+                    Route route = this.topSolver.poiRoutes[poi.index];
+                    double gain = route.getDelitionGain(poi);
+                    this.removalKeys[poi.index] = gain > 0.0 ? poi.score / gain : Double.MAX_VALUE;
+                }
+                removeSorted(removeCount);
+                break;
+            case RELATED:
+                Poi seedPoi = assignedPois.get(this.random.nextInt(assignedPois.size()));
+                DistanceMatrix distanceMatrix = this.topSolver.distanceMatrix;
+                for (Poi poi : assignedPois) {
+                    this.removalKeys[poi.index] = distanceMatrix.get(seedPoi.index, poi.index) +
+                                                  distanceMatrix.get(poi.index, seedPoi.index);
+                }
+                removeSorted(removeCount);
+                break;
+            case ROUTE:
+                ArrayList<Route> visitingRoutes = new ArrayList<Route>();
+                for (Route route : this.topSolver.routes) {
+                    if (route.size() > 2) {
+                        visitingRoutes.add(route);
+                    }
+                }
+                Route route = visitingRoutes.get(this.random.nextInt(visitingRoutes.size()));
+                while (route.size() > 2) {
+                    remove(route.getPoi(1));
+                }
+                break;
+        }
+
+        for (Route route : this.topSolver.routes) {
+            if (!route.isTimeFeasible()) {
+                // Removals can delay later visits past their opening hours
+                for (Poi latePoi : route.removeLateVisits()) {
+                    this.topSolver.releasePoi(latePoi);
+                }
+            }
+        }
+    }
+
+    // Removes removeCount POIs from the assigned ones ordered by removalKeys, preferring those with low keys
+    private void removeSorted(int removeCount) {
+        ArrayList<Poi> sortedPois = new ArrayList<Poi>(this.topSolver.assignedPois);
+        Collections.sort(sortedPois, new Comparator<Poi>() {
+            @Override
+            public int compare(Poi o1, Poi o2) {
+                return Double.compare(removalKeys[o1.index], removalKeys[o2.index]);
+            }
+        });
+        for (int removed = 0; removed < removeCount && !sortedPois.isEmpty(); removed++) {
+            int pick = (int) (Math.pow(this.random.nextDouble(), SELECTION_POWER) * sortedPois.size());
+            remove(sortedPois.remove(pick));
+        }
+    }
+
+    private void remove(Poi poi) {
+        this.topSolver.poiRoutes[poi.index].removePoi(poi);
+        this.topSolver.releasePoi(poi);
+    }
+
+    // Inserts available POIs one at a time, the one with the highest priority first, until none fits any more.
+    // After an insertion only the candidates' insertions into the changed route are recomputed.
+    private void repair(Repair repair) {
+        int regret = repair == Repair.GREEDY ? 1 : (repair == Repair.REGRET_2 ? 2 : 3);
+        ArrayList<Poi> candidates = new ArrayList<Poi>(this.topSolver.availablePois);
+        ArrayList<Route> routes = this.topSolver.routes;
+        int routeCount = routes.size();
+        int entries = candidates.size() * routeCount;
+        if (this.insertionCosts.length < entries) {
+            this.insertionCosts = new double[entries];
+            this.insertionPositions = new int[entries];
+        }
+        boolean[] inserted = new boolean[candidates.size()];
+        for (int r = 0; r < routeCount; r++) {
+            computeInsertions(candidates, inserted, r);
+        }
+
+        while (true) {
+            int bestCandidate = -1;
+            int bestRoute = -1;
+            double bestPriority = Double.NEGATIVE_INFINITY;
+            double bestRatio = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < candidates.size(); c++) {
+                if (inserted[c]) {
+                    continue;
+                }
+                double score = candidates.get(c).score;
+                // Best three score per cost ratios over the routes, 0 where the POI does not fit
+                double ratio1 = 0.0;
+                double ratio2 = 0.0;
+                double ratio3 = 0.0;
+                int route1 = -1;
+                for (int r = 0; r < routeCount; r++) {
+                    double cost = this.insertionCosts[c * routeCount + r];
+                    if (cost == Double.MAX_VALUE) {
+                        continue;
+                    }
+                    double ratio = score / Math.max(cost, MIN_INSERTION_COST);
+                    if (route1 < 0 || ratio > ratio1) {
+                        ratio3 = ratio2;
+                        ratio2 = ratio1;
+                        ratio1 = ratio;
+                        route1 = r;
+                    } else if (ratio > ratio2) {
+                        ratio3 = ratio2;
+                        ratio2 = ratio;
+                    } else if (ratio > ratio3) {
+                        ratio3 = ratio;
+                    }
+                }
+                if (route1 < 0) {
+                    continue;
+                }
+                double priority = ratio1;
+                if (regret >= 2) {
+                    priority = ratio1 - ratio2;
+                    if (regret >= 3) {
+                        priority += ratio1 - ratio3;
+                    }
+                }
+                if (priority > bestPriority || (priority == bestPriority && ratio1 > bestRatio)) {
+                    bestPriority = priority;
+                    bestRatio = ratio1;
+                    bestCandidate = c;
+                    bestRoute = route1;
+                }
+            }
+            if (bestCandidate < 0) {
+                return;
+            }
+
+            int entry = bestCandidate * routeCount + bestRoute;
+            Poi insertPoi = candidates.get(bestCandidate);
+            routes.get(bestRoute).insertPoi(insertPoi, this.insertionPositions[entry], this.insertionCosts[entry]);
+            this.topSolver.assignPoi(insertPoi);
+            this.topSolver.acceptanceCount++;
+            inserted[bestCandidate] = true;
+            computeInsertions(candidates, inserted, bestRoute);
+        }
+    }
+
+    private void computeInsertions(ArrayList<Poi> candidates, boolean[] inserted, int r) {
+        Route route = this.topSolver.routes.get(r);
+        int routeCount = this.topSolver.routes.size();
+        double availableBudget = this.topSolver.availableBudget;
+        for (int c = 0; c < candidates.size(); c++) {
+            if (inserted[c]) {
+                continue;
+            }
+            route.findCheapestInsertion(candidates.get(c));
+            this.topSolver.evaluationCount++;
+            int entry = c * routeCount + r;
+            if (route.consumedBudget + route.insertCost <= availableBudget) {
+                this.insertionCosts[entry] = route.insertCost;
+                this.insertionPositions[entry] = route.insertPosition;
+            } else {
+                this.insertionCosts[entry] = Double.MAX_VALUE;
+            }
+        }
+    }
+}
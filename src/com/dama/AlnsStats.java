@@ -0,0 +1,155 @@
+package com.dama;
+
+/**
+ * Per-operator statistics of an ALNS run: how often each destroy and repair operator was chosen, how many of its
+ * steps were accepted, improved the current solution or found a new best one, the CPU time of its steps, the score
+ * it gained and its final selection weight. A step is credited to both its destroy and its repair operator.
+ */
+public class AlnsStats {
+
+    long iterations;
+    long[] destroyCalls;
+    long[] destroyAcceptances;
+    long[] destroyImprovements;
+    long[] destroyNewBests;
+    long[] destroyNanos;
+    double[] destroyGains;
+    double[] destroyWeights;
+    long[] repairCalls;
+    long[] repairAcceptances;
+    long[] repairImprovements;
+    long[] repairNewBests;
+    long[] repairNanos;
+    double[] repairGains;
+    double[] repairWeights;
+
+    AlnsStats() {
+        int destroyCount = AlnsEngine.Destroy.values().length;
+        int repairCount = AlnsEngine.Repair.values().length;
+        this.destroyCalls = new long[destroyCount];
+        this.destroyAcceptances = new long[destroyCount];
+        this.destroyImprovements = new long[destroyCount];
+        this.destroyNewBests = new long[destroyCount];
+        this.destroyNanos = new long[destroyCount];
+        this.destroyGains = new double[destroyCount];
+        this.destroyWeights = new double[destroyCount];
+        this.repairCalls = new long[repairCount];
+        this.repairAcceptances = new long[repairCount];
+        this.repairImprovements = new long[repairCount];
+        this.repairNewBests = new long[repairCount];
+        this.repairNanos = new long[repairCount];
+        this.repairGains = new double[repairCount];
+        this.repairWeights = new double[repairCount];
+    }
+
+    void stepFinished(AlnsEngine.Destroy destroy, AlnsEngine.Repair repair, long nanos, double gain,
+                      boolean accepted, boolean newBest) {
+        int d = destroy.ordinal();
+        int r = repair.ordinal();
+        this.iterations++;
+        this.destroyCalls[d]++;
+        this.repairCalls[r]++;
+        this.destroyNanos[d] += nanos;
+        this.repairNanos[r] += nanos;
+        if (accepted) {
+            this.destroyAcceptances[d]++;
+            this.repairAcceptances[r]++;
+        }
+        if (gain > 0.0) {
+            this.destroyImprovements[d]++;
+            this.repairImprovements[r]++;
+            this.destroyGains[d] += gain;
+            this.repairGains[r] += gain;
+        }
+        if (newBest) {
+            this.destroyNewBests[d]++;
+            this.repairNewBests[r]++;
+        }
+    }
+
+    public long getIterations() {
+        return this.iterations;
+    }
+
+    public long getCalls(AlnsEngine.Destroy destroy) {
+        return this.destroyCalls[destroy.ordinal()];
+    }
+
+    public long getAcceptances(AlnsEngine.Destroy destroy) {
+        return this.destroyAcceptances[destroy.ordinal()];
+    }
+
+    public long getImprovements(AlnsEngine.Destroy destroy) {
+        return this.destroyImprovements[destroy.ordinal()];
+    }
+
+    public long getNewBests(AlnsEngine.Destroy destroy) {
+        return this.destroyNewBests[destroy.ordinal()];
+    }
+
+    public long getNanos(AlnsEngine.Destroy destroy) {
+        return this.destroyNanos[destroy.ordinal()];
+    }
+
+    public double getGain(AlnsEngine.Destroy destroy) {
+        return this.destroyGains[destroy.ordinal()];
+    }
+
+    public double getWeight(AlnsEngine.Destroy destroy) {
+        return this.destroyWeights[destroy.ordinal()];
+    }
+
+    public long getCalls(AlnsEngine.Repair repair) {
+        return this.repairCalls[repair.ordinal()];
+    }
+
+    public long getAcceptances(AlnsEngine.Repair repair) {
+        return this.repairAcceptances[repair.ordinal()];
+    }
+
+    public long getImprovements(AlnsEngine.Repair repair) {
+        return this.repairImprovements[repair.ordinal()];
+    }
+
+    public long getNewBests(AlnsEngine.Repair repair) {
+        return this.repairNewBests[repair.ordinal()];
+    }
+
+    public long getNanos(AlnsEngine.Repair repair) {
+        return this.repairNanos[repair.ordinal()];
+    }
+
+    public double getGain(AlnsEngine.Repair repair) {
+        return this.repairGains[repair.ordinal()];
+    }
+
+    public double getWeight(AlnsEngine.Repair repair) {
+        return this.repairWeights[repair.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("ALNS %d iterations", this.iterations));
+        for (AlnsEngine.Destroy destroy : AlnsEngine.Destroy.values()) {
+            int d = destroy.ordinal();
+            appendRow(builder, "destroy " + destroy.name().toLowerCase(), this.destroyCalls[d], this.destroyAcceptances[d],
+                      this.destroyImprovements[d], this.destroyNewBests[d], this.destroyNanos[d], this.destroyGains[d],
+                      this.destroyWeights[d]);
+        }
+        for (AlnsEngine.Repair repair : AlnsEngine.Repair.values()) {
+            int r = repair.ordinal();
+            appendRow(builder, "repair " + repair.name().toLowerCase(), this.repairCalls[r], this.repairAcceptances[r],
+                      this.repairImprovements[r], this.repairNewBests[r], this.repairNanos[r], this.repairGains[r],
+                      this.repairWeights[r]);
+        }
+        return builder.toString();
+    }
+
+    private static void appendRow(StringBuilder builder, String name, long calls, long acceptances, long improvements,
+                                  long newBests, long nanos, double gain, double weight) {
+        builder.append(String.format("%n  %-20s %7d calls %7d accepted %6d improved %5d best %9.1f ms %9.3f gain " +
+                                     "%8.4f weight", name, calls, acceptances, improvements, newBests, nanos / 1e6,
+                                     gain, weight));
+    }
+}
@@ -0,0 +1,110 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Solves many requests over one shared catalogue in parallel. The catalogue distance matrix and spatial index
+ * are built once; every request only adds its START/FINISH distance vectors and its own solver state.
+ */
+public class BatchSolver {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchSolver.class.getName());
+
+    // Requests waiting for a thread, per thread; beyond that the submitting thread solves requests itself
+    static final int QUEUED_REQUESTS_PER_THREAD = 2;
+
+    PoiCatalogue catalogue;
+    int threadCount;
+    boolean collectStats;
+    double requestsPerSecond;
+
+    BatchSolver(PoiCatalogue catalogue) {
+        this(catalogue, Runtime.getRuntime().availableProcessors());
+    }
+
+    BatchSolver(PoiCatalogue catalogue, int threadCount) {
+        this.catalogue = catalogue;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    // Instruments every solve, see TopSolver.setCollectStats()
+    public void setCollectStats(boolean collectStats) {
+        this.collectStats = collectStats;
+    }
+
+    public ArrayList<SolveResult> solveAll(List<SolveRequest> requests) throws InterruptedException {
+        // Bounded queue with caller-runs back pressure, so large batches never pile up unbounded tasks
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(this.threadCount, this.threadCount,
+                                                             0L, TimeUnit.MILLISECONDS,
+                                                             new ArrayBlockingQueue<Runnable>(QUEUED_REQUESTS_PER_THREAD * this.threadCount),
+                                                             new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            return solveAll(requests, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Solves all requests on the executor and returns their results in submission order
+    public ArrayList<SolveResult> solveAll(List<SolveRequest> requests, ExecutorService executor)
+            throws InterruptedException {
+        long startTime = System.nanoTime();
+        ArrayList<Future<SolveResult>> futures = new ArrayList<Future<SolveResult>>(requests.size());
+        ArrayList<SolveResult> results = new ArrayList<SolveResult>(requests.size());
+        try {
+            for (final SolveRequest request : requests) {
+                futures.add(executor.submit(new Callable<SolveResult>() {
+                    @Override
+                    public SolveResult call() {
+                        return solve(request);
+                    }
+                }));
+            }
+            for (Future<SolveResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Request failed", e.getCause());
+        } finally {
+            for (Future<SolveResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        this.requestsPerSecond = requests.size() / seconds;
+        LOGGER.info(String.format("Solved %d requests over %d POIs in %.3f s (%.1f requests/sec)",
+                                  requests.size(), this.catalogue.size(), seconds, this.requestsPerSecond));
+        return results;
+    }
+
+    public SolveResult solve(SolveRequest request) {
+        TopSolver topSolver = new TopSolver(request.routeCount,
+                                            request.availableBudget,
+                                            this.catalogue,
+                                            request.startLat,
+                                            request.startLng,
+                                            request.finishLat,
+                                            request.finishLng);
+        topSolver.setCollectStats(this.collectStats);
+        ArrayList<ArrayList<String>> solutionRoutes = topSolver.run(request.maxAlgLoop, request.maxLSLoop);
+        return new SolveResult(request, topSolver.solutionScore, solutionRoutes, topSolver.getStats());
+    }
+
+    // Throughput of the last solveAll() call
+    public double getRequestsPerSecond() {
+        return this.requestsPerSecond;
+    }
+}
@@ -0,0 +1,109 @@
+package com.dama;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache in front of a provider that computes travel times lazily, e.g. by querying a router, so that
+ * pairs asked for again by later catalogues or requests are not computed twice. Pairs are keyed by POI id and
+ * coordinates, because START and FINISH POIs share their ids across requests. Lookups are synchronized, while the
+ * delegate runs outside the lock, so concurrent misses on the same pair may both compute it.
+ */
+public class CachingTravelTimeProvider implements TravelTimeProvider {
+
+    TravelTimeProvider delegate;
+    int capacity;
+    LinkedHashMap<PoiPair, Double> travelTimes;
+    long hits;
+    long misses;
+
+    static class PoiPair {
+        String fromPoiId;
+        double fromLat;
+        double fromLng;
+        String toPoiId;
+        double toLat;
+        double toLng;
+
+        PoiPair(Poi fromPoi, Poi toPoi) {
+            this.fromPoiId = fromPoi.poiId;
+            this.fromLat = fromPoi.lat;
+            this.fromLng = fromPoi.lng;
+            this.toPoiId = toPoi.poiId;
+            this.toLat = toPoi.lat;
+            this.toLng = toPoi.lng;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PoiPair)) {
+                return false;
+            }
+            PoiPair pair = (PoiPair) o;
+            return this.fromPoiId.equals(pair.fromPoiId) && this.toPoiId.equals(pair.toPoiId) &&
+                   Double.compare(this.fromLat, pair.fromLat) == 0 && Double.compare(this.fromLng, pair.fromLng) == 0 &&
+                   Double.compare(this.toLat, pair.toLat) == 0 && Double.compare(this.toLng, pair.toLng) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(this.fromLat) * 31 + Double.doubleToLongBits(this.fromLng);
+            bits = bits * 31 + Double.doubleToLongBits(this.toLat);
+            bits = bits * 31 + Double.doubleToLongBits(this.toLng);
+            return (this.fromPoiId.hashCode() * 31 + this.toPoiId.hashCode()) * 31 + (int) (bits ^ (bits >>> 32));
+        }
+    }
+
+    CachingTravelTimeProvider(TravelTimeProvider delegate, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Travel-time cache capacity must be positive, got " + capacity);
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        // Access order turns the map into an LRU list
+        this.travelTimes = new LinkedHashMap<PoiPair, Double>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PoiPair, Double> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public double travelTime(Poi fromPoi, Poi toPoi) {
+        // Symmetric travel times share one entry for both directions
+        PoiPair pair = this.delegate.isSymmetric() && fromPoi.poiId.compareTo(toPoi.poiId) > 0 ?
+                       new PoiPair(toPoi, fromPoi) : new PoiPair(fromPoi, toPoi);
+        synchronized (this) {
+            Double travelTime = this.travelTimes.get(pair);
+            if (travelTime != null) {
+                this.hits++;
+                return travelTime;
+            }
+            this.misses++;
+        }
+
+        double travelTime = this.delegate.travelTime(fromPoi, toPoi);
+        synchronized (this) {
+            this.travelTimes.put(pair, travelTime);
+        }
+        return travelTime;
+    }
+
+    @Override
+    public boolean isSymmetric() {
+        return this.delegate.isSymmetric();
+    }
+
+    public synchronized int size() {
+        return this.travelTimes.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+}
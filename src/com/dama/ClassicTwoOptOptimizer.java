@@ -0,0 +1,13 @@
+package com.dama;
+
+/**
+ * The original first-improvement 2-opt of Route.tsp().
+ */
+public class ClassicTwoOptOptimizer implements RouteOptimizer {
+
+    @Override
+    public void optimize(Route route) {
+        route.tsp();
+    }
+
+}
@@ -0,0 +1,336 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Solves requests over catalogues too large for one distance matrix, e.g. region-wide catalogues of 100k POIs.
+ * Only the POIs that the request can reach, those inside the START/FINISH ellipse of the budget, are considered.
+ * They are split into clusters of at most maxClusterSize POIs by recursive median bisection of their coordinates,
+ * and every cluster is solved as a request of its own, in parallel. The best cluster routes are stitched into one
+ * solution, which a warm-started solve then refines over the POIs of all cluster solutions and the nearest
+ * neighbours of the stitched routes across cluster borders.
+ *
+ * No distance matrix covers more than maxClusterSize POIs, so memory is bounded by that of threadCount cluster
+ * matrices, however large the catalogue. The catalogue POIs are only read; every solve works on copies.
+ */
+public class DecompositionSolver {
+
+    private static final Logger LOGGER = Logger.getLogger(DecompositionSolver.class.getName());
+
+    static final int DEFAULT_MAX_CLUSTER_SIZE = 2000;
+    static final int DEFAULT_BORDER_NEIGHBOR_COUNT = 8;
+
+    ArrayList<Poi> pois;
+    double walkingSpeed;
+    int threadCount;
+    int maxClusterSize;
+    int borderNeighborCount;
+    double startTime;
+    boolean collectStats;
+
+    // Last solve
+    int reachableCount;
+    int clusterCount;
+    double stitchedScore;
+    int refinementSize;
+
+    // Route of a cluster solution, over the reachable POIs
+    static class ClusterRoute {
+        ArrayList<Poi> pois;
+        double score;
+
+        ClusterRoute() {
+            this.pois = new ArrayList<Poi>();
+        }
+    }
+
+    DecompositionSolver(ArrayList<Poi> pois, double walkingSpeed) {
+        this(pois, walkingSpeed, Runtime.getRuntime().availableProcessors());
+    }
+
+    DecompositionSolver(ArrayList<Poi> pois, double walkingSpeed, int threadCount) {
+        this.pois = pois;
+        this.walkingSpeed = walkingSpeed;
+        this.threadCount = Math.max(1, threadCount);
+        this.maxClusterSize = DEFAULT_MAX_CLUSTER_SIZE;
+        this.borderNeighborCount = DEFAULT_BORDER_NEIGHBOR_COUNT;
+    }
+
+    // Largest number of POIs in a cluster and in the refinement, and so the size of the largest distance matrix
+    public void setMaxClusterSize(int maxClusterSize) {
+        if (maxClusterSize < 1) {
+            throw new IllegalArgumentException("Cluster size must be positive, got " + maxClusterSize);
+        }
+        this.maxClusterSize = maxClusterSize;
+    }
+
+    // Nearest POIs of every stitched POI that join the refinement, whichever cluster they belong to
+    public void setBorderNeighborCount(int borderNeighborCount) {
+        if (borderNeighborCount < 0) {
+            throw new IllegalArgumentException("Border neighbour count must not be negative, got " +
+                                               borderNeighborCount);
+        }
+        this.borderNeighborCount = borderNeighborCount;
+    }
+
+    // See TopSolver.setStartTime()
+    public void setStartTime(double startTime) {
+        this.startTime = startTime;
+    }
+
+    // Instruments the refinement, see TopSolver.setCollectStats()
+    public void setCollectStats(boolean collectStats) {
+        this.collectStats = collectStats;
+    }
+
+    public SolveResult solve(SolveRequest request) throws InterruptedException {
+        long startTime = System.nanoTime();
+        ReachabilityFilter reachabilityFilter = new ReachabilityFilter(request.startLat, request.startLng,
+                                                                       request.finishLat, request.finishLng,
+                                                                       request.availableBudget, this.walkingSpeed);
+        ArrayList<Poi> reachablePois = reachabilityFilter.filter(this.pois);
+        this.reachableCount = reachablePois.size();
+        if (reachablePois.size() <= this.maxClusterSize) {
+            // Small enough for a single solve
+            this.clusterCount = 1;
+            this.stitchedScore = 0.0;
+            this.refinementSize = reachablePois.size();
+            TopSolver topSolver = newSolver(reachablePois, request);
+            ArrayList<ArrayList<String>> solutionRoutes = topSolver.run(request.maxAlgLoop, request.maxLSLoop);
+            return new SolveResult(request, topSolver.solutionScore, solutionRoutes, topSolver.getStats());
+        }
+
+        ArrayList<ArrayList<Poi>> clusters = new ArrayList<ArrayList<Poi>>();
+        bisect(new ArrayList<Poi>(reachablePois), 0, reachablePois.size(), clusters);
+        this.clusterCount = clusters.size();
+        long clusterStart = System.nanoTime();
+        ArrayList<ClusterRoute> clusterRoutes = solveClusters(clusters, request);
+        long stitchStart = System.nanoTime();
+
+        // Clusters are disjoint and every route fits the request on its own, so any routeCount of them do together
+        Collections.sort(clusterRoutes, new Comparator<ClusterRoute>() {
+            @Override
+            public int compare(ClusterRoute a, ClusterRoute b) {
+                return Double.compare(b.score, a.score);
+            }
+        });
+        ArrayList<ArrayList<String>> stitchedRoutes = new ArrayList<ArrayList<String>>();
+        this.stitchedScore = 0.0;
+        for (int r = 0; r < request.routeCount && r < clusterRoutes.size(); r++) {
+            ArrayList<String> stitchedRoute = new ArrayList<String>();
+            for (Poi poi : clusterRoutes.get(r).pois) {
+                stitchedRoute.add(poi.poiId);
+            }
+            stitchedRoutes.add(stitchedRoute);
+            this.stitchedScore += clusterRoutes.get(r).score;
+        }
+
+        ArrayList<Poi> refinementPois = selectRefinementPois(reachablePois, clusterRoutes, request.routeCount);
+        this.refinementSize = refinementPois.size();
+        TopSolver topSolver = newSolver(refinementPois, request);
+        ArrayList<ArrayList<String>> solutionRoutes = topSolver.resolve(stitchedRoutes, new SolutionUpdate(),
+                                                                        request.maxAlgLoop, request.maxLSLoop);
+        long endTime = System.nanoTime();
+
+        LOGGER.info(String.format("Decomposed %d reachable of %d POIs into %d clusters in %.1f ms, solved them in " +
+                                  "%.1f ms, refined the stitched score %.3f to %.3f over %d POIs in %.1f ms",
+                                  reachablePois.size(), this.pois.size(), clusters.size(),
+                                  (clusterStart - startTime) / 1e6, (stitchStart - clusterStart) / 1e6,
+                                  this.stitchedScore, topSolver.solutionScore, refinementPois.size(),
+                                  (endTime - stitchStart) / 1e6));
+        return new SolveResult(request, topSolver.solutionScore, solutionRoutes, topSolver.getStats());
+    }
+
+    // Splits pois[from, to) at the median of its wider side until no part exceeds maxClusterSize
+    private void bisect(ArrayList<Poi> pois, int from, int to, ArrayList<ArrayList<Poi>> clusters) {
+        if (to - from <= this.maxClusterSize) {
+            clusters.add(new ArrayList<Poi>(pois.subList(from, to)));
+            return;
+        }
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLng = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            Poi poi = pois.get(i);
+            minLat = Math.min(minLat, poi.lat);
+            maxLat = Math.max(maxLat, poi.lat);
+            minLng = Math.min(minLng, poi.lng);
+            maxLng = Math.max(maxLng, poi.lng);
+        }
+        // A degree of longitude shrinks with the cosine of the latitude
+        double lngScale = Math.cos(Poi.toRadians((minLat + maxLat) / 2));
+        final boolean byLat = maxLat - minLat >= (maxLng - minLng) * lngScale;
+        // Stable, so that equal coordinates keep the catalogue order
+        Collections.sort(pois.subList(from, to), new Comparator<Poi>() {
+            @Override
+            public int compare(Poi a, Poi b) {
+                return byLat ? Double.compare(a.lat, b.lat) : Double.compare(a.lng, b.lng);
+            }
+        });
+        int middle = (from + to) >>> 1;
+        bisect(pois, from, middle, clusters);
+        bisect(pois, middle, to, clusters);
+    }
+
+    // Solves every cluster on its own and returns the routes of all cluster solutions, in cluster order
+    private ArrayList<ClusterRoute> solveClusters(ArrayList<ArrayList<Poi>> clusters, final SolveRequest request)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threadCount, clusters.size()));
+        ArrayList<Future<ArrayList<ClusterRoute>>> futures = new ArrayList<Future<ArrayList<ClusterRoute>>>();
+        ArrayList<ClusterRoute> clusterRoutes = new ArrayList<ClusterRoute>();
+        try {
+            for (final ArrayList<Poi> cluster : clusters) {
+                futures.add(executor.submit(new Callable<ArrayList<ClusterRoute>>() {
+                    @Override
+                    public ArrayList<ClusterRoute> call() {
+                        return solveCluster(cluster, request);
+                    }
+                }));
+            }
+            for (Future<ArrayList<ClusterRoute>> future : futures) {
+                clusterRoutes.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Cluster failed", e.getCause());
+        } finally {
+            for (Future<ArrayList<ClusterRoute>> future : futures) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+        return clusterRoutes;
+    }
+
+    // The cluster's distance matrix is garbage once its routes are mapped back to the reachable POIs
+    private ArrayList<ClusterRoute> solveCluster(ArrayList<Poi> cluster, SolveRequest request) {
+        TopSolver topSolver = newSolver(cluster, request);
+        topSolver.setCollectStats(false);
+        topSolver.run(request.maxAlgLoop, request.maxLSLoop);
+
+        ArrayList<ClusterRoute> clusterRoutes = new ArrayList<ClusterRoute>();
+        for (int[] stops : topSolver.solutionStops) {
+            ClusterRoute clusterRoute = new ClusterRoute();
+            for (int stop : stops) {
+                // Catalogue indices follow the cluster order; START and FINISH come after the catalogue
+                if (stop < cluster.size()) {
+                    clusterRoute.pois.add(cluster.get(stop));
+                    clusterRoute.score += cluster.get(stop).score;
+                }
+            }
+            if (!clusterRoute.pois.isEmpty()) {
+                clusterRoutes.add(clusterRoute);
+            }
+        }
+        return clusterRoutes;
+    }
+
+    // POIs of the stitched routes, then their nearest neighbours by rank, then the POIs of the other cluster
+    // routes from the best one down, until maxClusterSize is reached; in the order of the reachable POIs
+    private ArrayList<Poi> selectRefinementPois(ArrayList<Poi> reachablePois, ArrayList<ClusterRoute> clusterRoutes,
+                                                int routeCount) {
+        // The reachable POIs are the caller's, so they are tracked by position instead of their index
+        IdentityHashMap<Poi, Integer> positions = new IdentityHashMap<Poi, Integer>();
+        for (int i = 0; i < reachablePois.size(); i++) {
+            positions.put(reachablePois.get(i), i);
+        }
+        boolean[] selected = new boolean[reachablePois.size()];
+        int selectedCount = 0;
+        ArrayList<Poi> stitchedPois = new ArrayList<Poi>();
+        for (int r = 0; r < routeCount && r < clusterRoutes.size(); r++) {
+            for (Poi poi : clusterRoutes.get(r).pois) {
+                selected[positions.get(poi)] = true;
+                selectedCount++;
+                stitchedPois.add(poi);
+            }
+        }
+
+        if (this.borderNeighborCount > 0) {
+            // The spatial index works on indexed copies, whose index is their position
+            ArrayList<Poi> indexedPois = PoiCatalogue.copyPois(reachablePois);
+            TopSolver.indexPois(indexedPois);
+            SpatialIndex spatialIndex = new SpatialIndex(indexedPois, indexedPois.size());
+            spatialIndex.reset(indexedPois);
+            int[][] neighbors = new int[stitchedPois.size()][];
+            for (int i = 0; i < stitchedPois.size(); i++) {
+                int stitchedPosition = positions.get(stitchedPois.get(i));
+                neighbors[i] = new int[this.borderNeighborCount];
+                Arrays.fill(neighbors[i], -1);
+                spatialIndex.startQuery(stitchedPois.get(i).lat, stitchedPois.get(i).lng, this.walkingSpeed);
+                int rank = 0;
+                for (Poi neighbor = spatialIndex.nextNearest(); neighbor != null && rank < neighbors[i].length;
+                     neighbor = spatialIndex.nextNearest()) {
+                    if (neighbor.index != stitchedPosition) {
+                        neighbors[i][rank++] = neighbor.index;
+                    }
+                }
+            }
+            for (int rank = 0; rank < this.borderNeighborCount; rank++) {
+                for (int i = 0; i < neighbors.length && selectedCount < this.maxClusterSize; i++) {
+                    int neighbor = neighbors[i][rank];
+                    if (neighbor >= 0 && !selected[neighbor]) {
+                        selected[neighbor] = true;
+                        selectedCount++;
+                    }
+                }
+            }
+        }
+
+        for (int r = routeCount; r < clusterRoutes.size() && selectedCount < this.maxClusterSize; r++) {
+            for (Poi poi : clusterRoutes.get(r).pois) {
+                int position = positions.get(poi);
+                if (!selected[position] && selectedCount < this.maxClusterSize) {
+                    selected[position] = true;
+                    selectedCount++;
+                }
+            }
+        }
+
+        ArrayList<Poi> refinementPois = new ArrayList<Poi>(selectedCount);
+        for (int i = 0; i < reachablePois.size(); i++) {
+            if (selected[i]) {
+                refinementPois.add(reachablePois.get(i));
+            }
+        }
+        return refinementPois;
+    }
+
+    private TopSolver newSolver(ArrayList<Poi> pois, SolveRequest request) {
+        PoiCatalogue catalogue = new PoiCatalogue(pois, this.walkingSpeed);
+        TopSolver topSolver = new TopSolver(request.routeCount, request.availableBudget, catalogue,
+                                            request.startLat, request.startLng, request.finishLat, request.finishLng);
+        topSolver.setStartTime(this.startTime);
+        topSolver.setCollectStats(this.collectStats);
+        return topSolver;
+    }
+
+    public int getReachableCount() {
+        return this.reachableCount;
+    }
+
+    public int getClusterCount() {
+        return this.clusterCount;
+    }
+
+    // Score of the stitched cluster routes before the refinement, 0 if the request was solved without clusters
+    public double getStitchedScore() {
+        return this.stitchedScore;
+    }
+
+    public int getRefinementSize() {
+        return this.refinementSize;
+    }
+}
@@ -0,0 +1,35 @@
+package com.dama;
+
+/**
+ * Heap distance matrix stored row-major in a single flat array.
+ */
+public class DenseDistanceMatrix extends DistanceMatrix {
+
+    // Largest n for which n*n still fits into a Java array
+    static final int MAX_SIZE = 46340;
+
+    double[] distances;
+
+    DenseDistanceMatrix(int size) {
+        super(size);
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Distance matrix size must be between 0 and " + MAX_SIZE + ", got " + size);
+        }
+        this.distances = new double[size * size];
+    }
+
+    @Override
+    public double get(int fromIndex, int toIndex) {
+        return this.distances[fromIndex * this.size + toIndex];
+    }
+
+    public void set(int fromIndex, int toIndex, double distance) {
+        this.distances[fromIndex * this.size + toIndex] = distance;
+    }
+
+    @Override
+    public long getMemorySize() {
+        return (long) this.distances.length * Double.BYTES;
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.dama;
+
+/**
+ * Travel times between indexed POIs.
+ */
+public abstract class DistanceMatrix {
+
+    int size;
+    // False if the travel time between two POIs may depend on the direction
+    boolean symmetric;
+
+    DistanceMatrix(int size) {
+        this.size = size;
+        this.symmetric = true;
+    }
+
+    public abstract double get(int fromIndex, int toIndex);
+
+    // Memory occupied by the matrix values in bytes
+    public abstract long getMemorySize();
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public boolean isSymmetric() {
+        return this.symmetric;
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.dama;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fills a DenseDistanceMatrix in parallel using fork-join over blocks of rows.
+ * Symmetric travel times are computed once per pair and written to both (i,j) and (j,i). The built-in haversine
+ * model runs on precomputed radians, any other TravelTimeProvider is asked for every cell.
+ */
+public class DistanceMatrixBuilder {
+
+    // Rows handled by a single task before it stops splitting
+    static final int ROW_BLOCK_SIZE = 32;
+
+    double walkingSpeed;
+    // Null for the built-in haversine model at walkingSpeed
+    TravelTimeProvider travelTimeProvider;
+    ForkJoinPool pool;
+
+    DistanceMatrixBuilder(double walkingSpeed) {
+        this(walkingSpeed, ForkJoinPool.commonPool());
+    }
+
+    DistanceMatrixBuilder(double walkingSpeed, ForkJoinPool pool) {
+        this.walkingSpeed = walkingSpeed;
+        this.pool = pool;
+    }
+
+    DistanceMatrixBuilder(TravelTimeProvider travelTimeProvider) {
+        this.pool = ForkJoinPool.commonPool();
+        if (travelTimeProvider instanceof HaversineTravelTimeProvider) {
+            this.walkingSpeed = ((HaversineTravelTimeProvider) travelTimeProvider).walkingSpeed;
+        } else {
+            this.travelTimeProvider = travelTimeProvider;
+        }
+    }
+
+    public boolean isSymmetric() {
+        return this.travelTimeProvider == null || this.travelTimeProvider.isSymmetric();
+    }
+
+    // POIs are expected to be indexed 0..n-1 in list order
+    public DenseDistanceMatrix build(List<Poi> pois) {
+        int n = pois.size();
+        DenseDistanceMatrix distanceMatrix = new DenseDistanceMatrix(n);
+        if (this.travelTimeProvider != null) {
+            distanceMatrix.symmetric = this.travelTimeProvider.isSymmetric();
+            this.pool.invoke(new RowBlockTask(distanceMatrix, pois, 0, n));
+            return distanceMatrix;
+        }
+
+        // Radians and latitude cosines are computed once per POI instead of once per pair
+        double[] radLat = new double[n];
+        double[] radLng = new double[n];
+        double[] cosLat = new double[n];
+        for (int i = 0; i < n; i++) {
+            Poi poi = pois.get(i);
+            radLat[i] = Poi.toRadians(poi.lat);
+            radLng[i] = Poi.toRadians(poi.lng);
+            cosLat[i] = Math.cos(radLat[i]);
+        }
+
+        this.pool.invoke(new RowBlockTask(distanceMatrix, radLat, radLng, cosLat, 0, n));
+        return distanceMatrix;
+    }
+
+    // Travel times from a single POI to every POI of the list, in list order
+    public double[] buildRow(List<Poi> pois, Poi fromPoi) {
+        if (this.travelTimeProvider != null) {
+            double[] row = new double[pois.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = this.travelTimeProvider.travelTime(fromPoi, pois.get(i));
+            }
+            return row;
+        }
+
+        double fromRadLat = Poi.toRadians(fromPoi.lat);
+        double fromRadLng = Poi.toRadians(fromPoi.lng);
+        double fromCosLat = Math.cos(fromRadLat);
+
+        double[] row = new double[pois.size()];
+        for (int i = 0; i < row.length; i++) {
+            Poi poi = pois.get(i);
+            double radLat = Poi.toRadians(poi.lat);
+            row[i] = Poi.travelTime(fromRadLat, fromRadLng, fromCosLat,
+                                    radLat, Poi.toRadians(poi.lng), Math.cos(radLat),
+                                    this.walkingSpeed);
+        }
+        return row;
+    }
+
+    // Travel times from every POI of the list to a single POI, in list order
+    public double[] buildColumn(List<Poi> pois, Poi toPoi) {
+        if (isSymmetric()) {
+            return buildRow(pois, toPoi);
+        }
+        double[] column = new double[pois.size()];
+        for (int i = 0; i < column.length; i++) {
+            column[i] = this.travelTimeProvider.travelTime(pois.get(i), toPoi);
+        }
+        return column;
+    }
+
+    private class RowBlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        DenseDistanceMatrix distanceMatrix;
+        // Set when the cells come from the travel-time provider, the radians are null then
+        List<Poi> pois;
+        double[] radLat;
+        double[] radLng;
+        double[] cosLat;
+        int fromRow;
+        int toRow;
+
+        RowBlockTask(DenseDistanceMatrix distanceMatrix, double[] radLat, double[] radLng, double[] cosLat,
+                     int fromRow, int toRow) {
+            this.distanceMatrix = distanceMatrix;
+            this.radLat = radLat;
+            this.radLng = radLng;
+            this.cosLat = cosLat;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        RowBlockTask(DenseDistanceMatrix distanceMatrix, List<Poi> pois, int fromRow, int toRow) {
+            this.distanceMatrix = distanceMatrix;
+            this.pois = pois;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        private RowBlockTask split(int fromRow, int toRow) {
+            if (this.pois != null) {
+                return new RowBlockTask(distanceMatrix, pois, fromRow, toRow);
+            }
+            return new RowBlockTask(distanceMatrix, radLat, radLng, cosLat, fromRow, toRow);
+        }
+
+        @Override
+        protected void compute() {
+            if (this.toRow - this.fromRow > ROW_BLOCK_SIZE) {
+                int middle = (this.fromRow + this.toRow) >>> 1;
+                invokeAll(split(this.fromRow, middle), split(middle, this.toRow));
+                return;
+            }
+            if (this.pois != null) {
+                computeProviderRows();
+                return;
+            }
+
+            // Each row only computes the upper triangle, so distinct tasks never write the same cell
+            double[] distances = this.distanceMatrix.distances;
+            int n = this.distanceMatrix.size;
+            for (int i = this.fromRow; i < this.toRow; i++) {
+                distances[i * n + i] = 0.0;
+                for (int j = i + 1; j < n; j++) {
+                    double distance = Poi.travelTime(radLat[i], radLng[i], cosLat[i],
+                                                     radLat[j], radLng[j], cosLat[j],
+                                                     walkingSpeed);
+                    distances[i * n + j] = distance;
+                    distances[j * n + i] = distance;
+                }
+            }
+        }
+
+        // Asymmetric providers fill whole rows, so again every cell is written by a single task
+        private void computeProviderRows() {
+            double[] distances = this.distanceMatrix.distances;
+            int n = this.distanceMatrix.size;
+            boolean symmetric = travelTimeProvider.isSymmetric();
+            for (int i = this.fromRow; i < this.toRow; i++) {
+                Poi fromPoi = this.pois.get(i);
+                distances[i * n + i] = 0.0;
+                for (int j = symmetric ? i + 1 : 0; j < n; j++) {
+                    if (j == i) {
+                        continue;
+                    }
+                    double distance = travelTimeProvider.travelTime(fromPoi, this.pois.get(j));
+                    distances[i * n + j] = distance;
+                    if (symmetric) {
+                        distances[j * n + i] = distance;
+                    }
+                }
+            }
+        }
+    }
+}
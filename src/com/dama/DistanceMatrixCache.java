@@ -0,0 +1,225 @@
+package com.dama;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On-disk store of catalogue distance matrices, loaded zero-copy through memory mapping.
+ *
+ * Each matrix lives in its own file named after a SHA-256 key over the POI ids, coordinates and walking speed.
+ * File layout (little endian): a 64 byte header holding magic, version, size, walking speed and the key,
+ * followed by size*size row-major doubles.
+ *
+ * A cache with a maximum file count deletes its least recently used files beyond it; loading a file counts as a
+ * use. Matrices already mapped stay readable after their file is deleted.
+ */
+public class DistanceMatrixCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DistanceMatrixCache.class.getName());
+
+    static final int MAGIC = 0x4c53444d; // "LSDM"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int KEY_LENGTH = 32;
+    static final String FILE_SUFFIX = ".dm";
+
+    File directory;
+    // 0 keeps every file
+    int maxFiles;
+
+    DistanceMatrixCache(File directory) {
+        this(directory, 0);
+    }
+
+    DistanceMatrixCache(File directory, int maxFiles) {
+        if (maxFiles < 0) {
+            throw new IllegalArgumentException("Maximum file count must not be negative, got " + maxFiles);
+        }
+        this.directory = directory;
+        this.maxFiles = maxFiles;
+    }
+
+    // Returns the cached matrix for the catalogue, building and storing it first on a miss
+    public DistanceMatrix getOrBuild(List<Poi> pois, double walkingSpeed, DistanceMatrixBuilder builder) {
+        byte[] key = computeKey(pois, walkingSpeed);
+        File file = new File(this.directory, toHex(key) + FILE_SUFFIX);
+
+        if (file.exists()) {
+            try {
+                MappedDistanceMatrix distanceMatrix = load(file, key, pois.size());
+                file.setLastModified(System.currentTimeMillis());
+                return distanceMatrix;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Discarding unreadable distance matrix cache file " + file, e);
+            }
+        }
+
+        DenseDistanceMatrix distanceMatrix = builder.build(pois);
+        try {
+            store(file, key, walkingSpeed, distanceMatrix);
+            if (this.maxFiles > 0) {
+                evict(file);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write distance matrix cache file " + file, e);
+        }
+        return distanceMatrix;
+    }
+
+    MappedDistanceMatrix load(File file, byte[] key, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] storedKey = new byte[KEY_LENGTH];
+            header.position(24);
+            header.get(storedKey);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION ||
+                    header.getInt(8) != size || !Arrays.equals(storedKey, key)) {
+                throw new IOException("Header does not match the requested catalogue");
+            }
+            long expectedLength = HEADER_SIZE + (long) size * size * Double.BYTES;
+            if (channel.size() != expectedLength) {
+                throw new IOException("Expected " + expectedLength + " bytes, found " + channel.size());
+            }
+
+            return mapRows(channel, HEADER_SIZE, size);
+        }
+    }
+
+    // Maps size*size row-major little endian doubles starting at the given file position
+    static MappedDistanceMatrix mapRows(FileChannel channel, long offset, int size) throws IOException {
+        // Split into mappings of whole rows that each stay below the 2 GB mapping limit
+        long rowBytes = Math.max(1L, (long) size * Double.BYTES);
+        int rowsPerSegment = (int) Math.max(1L, Math.min(Math.max(size, 1), Integer.MAX_VALUE / rowBytes));
+        int segmentCount = (size + rowsPerSegment - 1) / rowsPerSegment;
+        DoubleBuffer[] segments = new DoubleBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            int rows = Math.min(rowsPerSegment, size - s * rowsPerSegment);
+            long position = offset + (long) s * rowsPerSegment * rowBytes;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, position, rows * rowBytes)
+                                 .order(ByteOrder.LITTLE_ENDIAN)
+                                 .asDoubleBuffer();
+        }
+        return new MappedDistanceMatrix(size, segments, rowsPerSegment);
+    }
+
+    void store(File file, byte[] key, double walkingSpeed, DenseDistanceMatrix distanceMatrix) throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + this.directory);
+        }
+
+        // Write to a temporary file first so concurrent readers never see a partial matrix
+        File tmpFile = File.createTempFile("matrix", ".tmp", this.directory);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(distanceMatrix.size).putInt(0);
+            header.putDouble(walkingSpeed).put(key);
+            header.clear();
+            writeFully(channel, header);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+            double[] distances = distanceMatrix.distances;
+            for (int offset = 0; offset < distances.length; ) {
+                int count = Math.min(doubles.capacity(), distances.length - offset);
+                doubles.clear();
+                doubles.put(distances, offset, count);
+                buffer.clear().limit(count * Double.BYTES);
+                writeFully(channel, buffer);
+                offset += count;
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Deletes the least recently used matrix files beyond maxFiles, never the one just stored
+    synchronized void evict(File storedFile) {
+        File[] files = this.directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        ArrayList<File> matrixFiles = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX) && !file.equals(storedFile)) {
+                matrixFiles.add(file);
+            }
+        }
+        final HashMap<File, Long> lastUses = new HashMap<File, Long>();
+        for (File file : matrixFiles) {
+            lastUses.put(file, file.lastModified());
+        }
+        Collections.sort(matrixFiles, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(lastUses.get(o1), lastUses.get(o2));
+            }
+        });
+        for (int i = 0; i < matrixFiles.size() - (this.maxFiles - 1); i++) {
+            if (!matrixFiles.get(i).delete()) {
+                LOGGER.warning("Could not delete distance matrix cache file " + matrixFiles.get(i));
+            }
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static byte[] computeKey(List<Poi> pois, double walkingSpeed) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES * 2);
+        buffer.putInt(VERSION).putInt(pois.size()).putDouble(walkingSpeed);
+        digest.update(buffer.array(), 0, buffer.position());
+        for (Poi poi : pois) {
+            byte[] id = poi.poiId.getBytes(StandardCharsets.UTF_8);
+            buffer.clear();
+            buffer.putInt(id.length);
+            digest.update(buffer.array(), 0, buffer.position());
+            digest.update(id);
+            buffer.clear();
+            buffer.putDouble(poi.lat).putDouble(poi.lng);
+            digest.update(buffer.array(), 0, buffer.position());
+        }
+        return digest.digest();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
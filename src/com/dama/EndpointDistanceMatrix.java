@@ -0,0 +1,63 @@
+package com.dama;
+
+/**
+ * Overlays the START and FINISH POIs of a single request on top of a shared catalogue matrix.
+ * START and FINISH take indices size-2 and size-1, right after the catalogue POIs.
+ */
+public class EndpointDistanceMatrix extends DistanceMatrix {
+
+    DistanceMatrix catalogueMatrix;
+    int catalogueSize;
+    int startIndex;
+    int finishIndex;
+    // Travel times from START/FINISH to every POI, including START and FINISH themselves
+    double[] startDistances;
+    double[] finishDistances;
+    // Travel times from every POI to START/FINISH, the same arrays as above if travel times are symmetric
+    double[] toStartDistances;
+    double[] toFinishDistances;
+
+    EndpointDistanceMatrix(DistanceMatrix catalogueMatrix, double[] startDistances, double[] finishDistances) {
+        this(catalogueMatrix, startDistances, startDistances, finishDistances, finishDistances);
+    }
+
+    EndpointDistanceMatrix(DistanceMatrix catalogueMatrix, double[] startDistances, double[] toStartDistances,
+                           double[] finishDistances, double[] toFinishDistances) {
+        super(catalogueMatrix.getSize() + 2);
+        this.catalogueMatrix = catalogueMatrix;
+        this.catalogueSize = catalogueMatrix.getSize();
+        this.startIndex = this.catalogueSize;
+        this.finishIndex = this.catalogueSize + 1;
+        this.startDistances = startDistances;
+        this.finishDistances = finishDistances;
+        this.toStartDistances = toStartDistances;
+        this.toFinishDistances = toFinishDistances;
+        this.symmetric = catalogueMatrix.isSymmetric() &&
+                         toStartDistances == startDistances && toFinishDistances == finishDistances;
+    }
+
+    @Override
+    public double get(int fromIndex, int toIndex) {
+        if (fromIndex < this.catalogueSize && toIndex < this.catalogueSize) {
+            return this.catalogueMatrix.get(fromIndex, toIndex);
+        }
+        if (fromIndex == this.startIndex) {
+            return this.startDistances[toIndex];
+        } else if (fromIndex == this.finishIndex) {
+            return this.finishDistances[toIndex];
+        } else if (toIndex == this.startIndex) {
+            return this.toStartDistances[fromIndex];
+        } else {
+            return this.toFinishDistances[fromIndex];
+        }
+    }
+
+    @Override
+    public long getMemorySize() {
+        int vectors = 2;
+        if (this.toStartDistances != this.startDistances) vectors++;
+        if (this.toFinishDistances != this.finishDistances) vectors++;
+        return this.catalogueMatrix.getMemorySize() + (long) vectors * this.size * Double.BYTES;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.dama;
+
+/**
+ * The original travel-time model: great-circle distance, walked at the given speed up to 1500 m and covered by
+ * public transport at 200 m/min beyond that. See Poi.travelTime().
+ */
+public class HaversineTravelTimeProvider implements TravelTimeProvider {
+
+    double walkingSpeed;
+
+    HaversineTravelTimeProvider(double walkingSpeed) {
+        this.walkingSpeed = walkingSpeed;
+    }
+
+    @Override
+    public double travelTime(Poi fromPoi, Poi toPoi) {
+        double fromRadLat = Poi.toRadians(fromPoi.lat);
+        double toRadLat = Poi.toRadians(toPoi.lat);
+        return Poi.travelTime(fromRadLat, Poi.toRadians(fromPoi.lng), Math.cos(fromRadLat),
+                              toRadLat, Poi.toRadians(toPoi.lng), Math.cos(toRadLat),
+                              this.walkingSpeed);
+    }
+
+    @Override
+    public boolean isSymmetric() {
+        return true;
+    }
+}
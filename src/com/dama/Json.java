@@ -0,0 +1,250 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer for the solver service. Objects are read into LinkedHashMaps, arrays into
+ * ArrayLists, numbers into Doubles; strings, booleans and null map to their Java counterparts.
+ */
+public class Json {
+
+    // Deeper nesting is rejected rather than recursed into until the stack overflows
+    static final int MAX_DEPTH = 512;
+
+    String text;
+    int position;
+    // Objects and arrays currently open
+    int depth;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        json.skipWhitespace();
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if (json.position != text.length()) {
+            throw json.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private Object readValue() {
+        if (this.position >= this.text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = this.text.charAt(this.position);
+        if (c == '{') {
+            return readObject();
+        } else if (c == '[') {
+            return readArray();
+        } else if (c == '"') {
+            return readString();
+        } else if (this.text.startsWith("true", this.position)) {
+            this.position += 4;
+            return Boolean.TRUE;
+        } else if (this.text.startsWith("false", this.position)) {
+            this.position += 5;
+            return Boolean.FALSE;
+        } else if (this.text.startsWith("null", this.position)) {
+            this.position += 4;
+            return null;
+        }
+        return readNumber();
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        enter();
+        skipWhitespace();
+        if (peek() == '}') {
+            this.position++;
+            this.depth--;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            object.put(name, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                this.position++;
+            } else {
+                expect('}');
+                this.depth--;
+                return object;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<Object>();
+        enter();
+        skipWhitespace();
+        if (peek() == ']') {
+            this.position++;
+            this.depth--;
+            return array;
+        }
+        while (true) {
+            skipWhitespace();
+            array.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                this.position++;
+            } else {
+                expect(']');
+                this.depth--;
+                return array;
+            }
+        }
+    }
+
+    private String readString() {
+        StringBuilder builder = new StringBuilder();
+        this.position++;
+        while (true) {
+            if (this.position >= this.text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = this.text.charAt(this.position++);
+            if (c == '"') {
+                return builder.toString();
+            } else if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            char escaped = peek();
+            this.position++;
+            switch (escaped) {
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (this.position + 4 > this.text.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    this.position += 4;
+                    break;
+                default: builder.append(escaped);
+            }
+        }
+    }
+
+    private Double readNumber() {
+        int start = this.position;
+        while (this.position < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.position)) >= 0) {
+            this.position++;
+        }
+        try {
+            return Double.valueOf(this.text.substring(start, this.position));
+        } catch (NumberFormatException e) {
+            this.position = start;
+            throw error("Invalid value");
+        }
+    }
+
+    // Steps over the opening bracket of an object or array
+    private void enter() {
+        if (++this.depth > MAX_DEPTH) {
+            throw error("Nesting deeper than " + MAX_DEPTH);
+        }
+        this.position++;
+    }
+
+    private char peek() {
+        if (this.position >= this.text.length()) {
+            throw error("Unexpected end of input");
+        }
+        return this.text.charAt(this.position);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        this.position++;
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+            this.position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + this.position);
+    }
+
+    // Writes maps, iterables, strings, numbers, booleans and null
+    public static String write(Object value) {
+        StringBuilder builder = new StringBuilder();
+        write(value, builder);
+        return builder.toString();
+    }
+
+    private static void write(Object value, StringBuilder builder) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            writeString((String) value, builder);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value);
+        } else if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) builder.append(',');
+                first = false;
+                writeString(String.valueOf(entry.getKey()), builder);
+                builder.append(':');
+                write(entry.getValue(), builder);
+            }
+            builder.append('}');
+        } else if (value instanceof Iterable) {
+            builder.append('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) builder.append(',');
+                first = false;
+                write(element, builder);
+            }
+            builder.append(']');
+        } else {
+            throw new IllegalArgumentException("Cannot write " + value.getClass().getName() + " as JSON");
+        }
+    }
+
+    private static void writeString(String value, StringBuilder builder) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,241 @@
+package com.dama;
+
+import java.util.Arrays;
+
+/**
+ * Intra-route local search on a primitive copy of the route: 2-opt with don't-look bits, Or-opt moves of
+ * segments of up to three POIs and, optionally, 3-opt segment exchanges. Every move is evaluated by its
+ * delta on the travel time, and the route is only rewritten once no move improves it any more.
+ */
+public class LocalSearchRouteOptimizer implements RouteOptimizer {
+
+    static final int MAX_SEGMENT_LENGTH = 3;
+    // Moves have to save at least this much travel time, so rounding noise cannot make the search cycle
+    static final double MIN_IMPROVEMENT = 1e-9;
+
+    boolean threeOpt;
+
+    LocalSearchRouteOptimizer(boolean threeOpt) {
+        this.threeOpt = threeOpt;
+    }
+
+    @Override
+    public void optimize(Route route) {
+        int length = route.size();
+        if (length < 4) {
+            // Nothing to reorder with less than two POIs between START and FINISH
+            return;
+        }
+
+        // Tour entries are positions in the original route, matrixIndices maps them to POI indices
+        int[] tour = new int[length];
+        int[] matrixIndices = new int[length];
+        for (int i = 0; i < length; i++) {
+            tour[i] = i;
+            matrixIndices[i] = route.stops[i];
+        }
+        Tour t = new Tour(tour, matrixIndices, route.distanceMatrix);
+
+        double saving = 0.0;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            double twoOptSaving = t.twoOpt();
+            double orOptSaving = t.orOpt();
+            double threeOptSaving = this.threeOpt ? t.threeOpt() : 0.0;
+            if (twoOptSaving + orOptSaving + threeOptSaving > 0.0) {
+                saving += twoOptSaving + orOptSaving + threeOptSaving;
+                improved = true;
+            }
+        }
+
+        if (saving > 0.0) {
+            int[] optimizedStops = new int[length];
+            for (int i = 0; i < length; i++) {
+                optimizedStops[i] = matrixIndices[tour[i]];
+            }
+            // Moves only look at travel time, so a shorter order may still miss opening hours
+            if (route.isTimeFeasible(optimizedStops, length)) {
+                route.reorder(optimizedStops);
+            }
+        }
+    }
+
+    // Mutable tour of a single optimize() call
+    private static class Tour {
+        int[] tour;
+        int[] matrixIndices;
+        DistanceMatrix distanceMatrix;
+        // Reversing a segment changes its own travel time too unless travel times are symmetric
+        boolean symmetric;
+        int length;
+        boolean[] dontLookBits;
+
+        Tour(int[] tour, int[] matrixIndices, DistanceMatrix distanceMatrix) {
+            this.tour = tour;
+            this.matrixIndices = matrixIndices;
+            this.distanceMatrix = distanceMatrix;
+            this.symmetric = distanceMatrix.isSymmetric();
+            this.length = tour.length;
+            this.dontLookBits = new boolean[tour.length];
+        }
+
+        double distance(int fromPosition, int toPosition) {
+            return this.distanceMatrix.get(this.matrixIndices[this.tour[fromPosition]],
+                                           this.matrixIndices[this.tour[toPosition]]);
+        }
+
+        // 2-opt with don't-look bits: a POI is only reconsidered once one of its edges changed.
+        // Edge e connects positions e and e+1; reversing positions e+1..f replaces edges e and f.
+        double twoOpt() {
+            Arrays.fill(this.dontLookBits, false);
+            double saving = 0.0;
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int position = 1; position < this.length - 1; position++) {
+                    int poi = this.tour[position];
+                    if (this.dontLookBits[poi]) {
+                        continue;
+                    }
+                    boolean found = false;
+                    for (int e = position - 1; e <= position && !found; e++) {
+                        for (int f = 0; f < this.length - 1; f++) {
+                            if (f >= e - 1 && f <= e + 1) {
+                                continue;
+                            }
+                            int first = Math.min(e, f);
+                            int second = Math.max(e, f);
+                            double delta = distance(first, second) + distance(first + 1, second + 1) -
+                                           distance(first, first + 1) - distance(second, second + 1);
+                            if (!this.symmetric) {
+                                delta += reversalDelta(first + 1, second);
+                            }
+                            if (delta < -MIN_IMPROVEMENT) {
+                                reverse(first + 1, second);
+                                clearDontLookBits(first, first + 1, second, second + 1);
+                                saving -= delta;
+                                found = true;
+                                break;
+                            }
+                        }
+                    }
+                    if (found) {
+                        improved = true;
+                    } else {
+                        this.dontLookBits[poi] = true;
+                    }
+                }
+            }
+            return saving;
+        }
+
+        // Moves segments of 1..MAX_SEGMENT_LENGTH POIs to another edge, in either orientation
+        double orOpt() {
+            double saving = 0.0;
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int segmentLength = 1; segmentLength <= MAX_SEGMENT_LENGTH && !improved; segmentLength++) {
+                    for (int from = 1; from + segmentLength < this.length && !improved; from++) {
+                        int to = from + segmentLength - 1;
+                        double removeGain = distance(from - 1, from) + distance(to, to + 1) - distance(from - 1, to + 1);
+                        double segmentReversal = this.symmetric ? 0.0 : reversalDelta(from, to);
+                        for (int e = 0; e < this.length - 1 && !improved; e++) {
+                            if (e >= from - 1 && e <= to) {
+                                continue;
+                            }
+                            double edge = distance(e, e + 1);
+                            double forward = distance(e, from) + distance(to, e + 1) - edge;
+                            double reversed = distance(e, to) + distance(from, e + 1) - edge + segmentReversal;
+                            boolean reverse = reversed < forward;
+                            double delta = Math.min(forward, reversed) - removeGain;
+                            if (delta < -MIN_IMPROVEMENT) {
+                                moveSegment(from, to, e, reverse);
+                                saving -= delta;
+                                improved = true;
+                            }
+                        }
+                    }
+                }
+            }
+            return saving;
+        }
+
+        // 3-opt segment exchange: A B C D becomes A C B D, with the segments B and C keeping their orientation
+        double threeOpt() {
+            double saving = 0.0;
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 0; i < this.length - 3 && !improved; i++) {
+                    for (int j = i + 1; j < this.length - 2 && !improved; j++) {
+                        for (int k = j + 1; k < this.length - 1 && !improved; k++) {
+                            double delta = distance(i, j + 1) + distance(k, i + 1) + distance(j, k + 1) -
+                                           distance(i, i + 1) - distance(j, j + 1) - distance(k, k + 1);
+                            if (delta < -MIN_IMPROVEMENT) {
+                                exchangeSegments(i + 1, j, k);
+                                saving -= delta;
+                                improved = true;
+                            }
+                        }
+                    }
+                }
+            }
+            return saving;
+        }
+
+        // Change of the travel time within positions from..to when they are visited in reverse order
+        private double reversalDelta(int from, int to) {
+            double delta = 0.0;
+            for (int p = from; p < to; p++) {
+                delta += distance(p + 1, p) - distance(p, p + 1);
+            }
+            return delta;
+        }
+
+        private void clearDontLookBits(int a, int b, int c, int d) {
+            this.dontLookBits[this.tour[a]] = false;
+            this.dontLookBits[this.tour[b]] = false;
+            this.dontLookBits[this.tour[c]] = false;
+            this.dontLookBits[this.tour[d]] = false;
+        }
+
+        private void reverse(int from, int to) {
+            while (from < to) {
+                int tmp = this.tour[from];
+                this.tour[from] = this.tour[to];
+                this.tour[to] = tmp;
+                from++;
+                to--;
+            }
+        }
+
+        // Moves tour[from..to] between positions e and e+1 of the current tour
+        private void moveSegment(int from, int to, int e, boolean reverse) {
+            int segmentLength = to - from + 1;
+            int[] segment = Arrays.copyOfRange(this.tour, from, to + 1);
+            if (e > to) {
+                System.arraycopy(this.tour, to + 1, this.tour, from, e - to);
+                int target = e - segmentLength + 1;
+                writeSegment(segment, target, reverse);
+            } else {
+                System.arraycopy(this.tour, e + 1, this.tour, e + 1 + segmentLength, from - e - 1);
+                writeSegment(segment, e + 1, reverse);
+            }
+        }
+
+        private void writeSegment(int[] segment, int target, boolean reverse) {
+            for (int s = 0; s < segment.length; s++) {
+                this.tour[target + s] = reverse ? segment[segment.length - 1 - s] : segment[s];
+            }
+        }
+
+        // Swaps the adjacent segments tour[from..middle] and tour[middle+1..to]
+        private void exchangeSegments(int from, int middle, int to) {
+            reverse(from, middle);
+            reverse(middle + 1, to);
+            reverse(from, to);
+        }
+    }
+}
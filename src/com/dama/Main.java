@@ -1,12 +1,14 @@
 package com.dama;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         ArrayList<Poi> pois = new ArrayList<Poi>();
 
@@ -83,6 +85,15 @@ public class Main {
         pois.add(new Poi("1139",41.394596,2.149034,0.4868388252256201571276,45));
 
 
+        // POIs can also be loaded from a CSV, TSV or binary file given as the only argument
+        PoiLoader poiLoader = new PoiLoader();
+        poiLoader.setReachabilityFilter(41.375128,2.16835,41.375128,2.16835,300.0,65.0);
+        if (args.length > 0) {
+            pois = poiLoader.load(new File(args[0]));
+        } else {
+            pois = poiLoader.filter(pois);
+        }
+
         TopSolver topSolver = new TopSolver(4,300.0,65.0,pois,41.375128,2.16835,41.375128,2.16835);
 
         ArrayList<ArrayList<String>> solutionRoutes = topSolver.run(10,10);
@@ -0,0 +1,31 @@
+package com.dama;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Read-only distance matrix backed by memory-mapped file segments.
+ * A single mapping is limited to 2 GB, so larger matrices are split into segments of whole rows.
+ */
+public class MappedDistanceMatrix extends DistanceMatrix {
+
+    DoubleBuffer[] segments;
+    int rowsPerSegment;
+
+    MappedDistanceMatrix(int size, DoubleBuffer[] segments, int rowsPerSegment) {
+        super(size);
+        this.segments = segments;
+        this.rowsPerSegment = rowsPerSegment;
+    }
+
+    @Override
+    public double get(int fromIndex, int toIndex) {
+        DoubleBuffer segment = this.segments[fromIndex / this.rowsPerSegment];
+        return segment.get((fromIndex % this.rowsPerSegment) * this.size + toIndex);
+    }
+
+    @Override
+    public long getMemorySize() {
+        return (long) this.size * this.size * Double.BYTES;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.dama;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Travel times read from a precomputed, possibly asymmetric matrix, e.g. exported from a road network router.
+ * Rows and columns are keyed by POI id. Pairs involving a POI the matrix does not know, such as START and FINISH
+ * of a request, are passed on to a fallback provider.
+ *
+ * File layout (little endian): a 32 byte header holding magic, version, size, flags and the length of the id
+ * section, the ids as length-prefixed UTF-8 strings padded to a multiple of 8 bytes, then size*size row-major
+ * doubles in budget units where row is the origin and column the destination. The matrix is memory mapped.
+ */
+public class MatrixTravelTimeProvider implements TravelTimeProvider {
+
+    private static final Logger LOGGER = Logger.getLogger(MatrixTravelTimeProvider.class.getName());
+
+    static final int MAGIC = 0x4c535454; // "LSTT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int FLAG_SYMMETRIC = 1;
+
+    DistanceMatrix matrix;
+    HashMap<String, Integer> poiRows;
+    boolean symmetric;
+    TravelTimeProvider fallback;
+
+    MatrixTravelTimeProvider(DistanceMatrix matrix, List<String> poiIds, boolean symmetric, TravelTimeProvider fallback) {
+        if (matrix.getSize() != poiIds.size()) {
+            throw new IllegalArgumentException("Travel-time matrix covers " + matrix.getSize() +
+                                               " POIs, but " + poiIds.size() + " ids were given");
+        }
+        this.matrix = matrix;
+        this.symmetric = symmetric;
+        this.fallback = fallback;
+        this.poiRows = new HashMap<String, Integer>(poiIds.size() * 2);
+        for (int row = 0; row < poiIds.size(); row++) {
+            if (this.poiRows.put(poiIds.get(row), row) != null) {
+                throw new IllegalArgumentException("Duplicate POI id " + poiIds.get(row) + " in travel-time matrix");
+            }
+        }
+    }
+
+    @Override
+    public double travelTime(Poi fromPoi, Poi toPoi) {
+        Integer fromRow = this.poiRows.get(fromPoi.poiId);
+        Integer toRow = this.poiRows.get(toPoi.poiId);
+        if (fromRow == null || toRow == null) {
+            return this.fallback.travelTime(fromPoi, toPoi);
+        }
+        return this.matrix.get(fromRow, toRow);
+    }
+
+    @Override
+    public boolean isSymmetric() {
+        return this.symmetric && this.fallback.isSymmetric();
+    }
+
+    public int size() {
+        return this.matrix.getSize();
+    }
+
+    static MatrixTravelTimeProvider load(File file, TravelTimeProvider fallback) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a travel-time matrix of version " + VERSION);
+            }
+            int size = header.getInt(8);
+            boolean symmetric = (header.getInt(12) & FLAG_SYMMETRIC) != 0;
+            long idBytes = header.getLong(16);
+            long matrixOffset = HEADER_SIZE + align(idBytes);
+            long expectedLength = matrixOffset + (long) size * size * Double.BYTES;
+            if (size < 0 || idBytes < 0 || idBytes > Integer.MAX_VALUE || channel.size() != expectedLength) {
+                throw new IOException("Expected " + expectedLength + " bytes, found " + channel.size());
+            }
+
+            ByteBuffer ids = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, idBytes).order(ByteOrder.LITTLE_ENDIAN);
+            String[] poiIds = new String[size];
+            for (int i = 0; i < size; i++) {
+                byte[] id = new byte[ids.getInt()];
+                ids.get(id);
+                poiIds[i] = new String(id, StandardCharsets.UTF_8);
+            }
+
+            MappedDistanceMatrix matrix = DistanceMatrixCache.mapRows(channel, matrixOffset, size);
+            matrix.symmetric = symmetric;
+            LOGGER.info("Loaded " + (symmetric ? "symmetric" : "asymmetric") + " travel-time matrix of " + size +
+                        " POIs from " + file);
+            return new MatrixTravelTimeProvider(matrix, Arrays.asList(poiIds), symmetric, fallback);
+        }
+    }
+
+    // Writes the travel times between the given POI ids, e.g. when converting the output of a router
+    static void write(File file, List<String> poiIds, DistanceMatrix matrix) throws IOException {
+        int size = matrix.getSize();
+        if (size != poiIds.size()) {
+            throw new IllegalArgumentException("Travel-time matrix covers " + size +
+                                               " POIs, but " + poiIds.size() + " ids were given");
+        }
+        boolean symmetric = true;
+        for (int i = 0; i < size && symmetric; i++) {
+            for (int j = i + 1; j < size; j++) {
+                if (Double.compare(matrix.get(i, j), matrix.get(j, i)) != 0) {
+                    symmetric = false;
+                    break;
+                }
+            }
+        }
+
+        byte[][] ids = new byte[size][];
+        long idBytes = 0;
+        for (int i = 0; i < size; i++) {
+            ids[i] = poiIds.get(i).getBytes(StandardCharsets.UTF_8);
+            idBytes += Integer.BYTES + ids[i].length;
+        }
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            channel.truncate(0);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(symmetric ? FLAG_SYMMETRIC : 0).putLong(idBytes);
+            header.clear();
+            DistanceMatrixCache.writeFully(channel, header);
+
+            ByteBuffer idSection = ByteBuffer.allocate((int) align(idBytes)).order(ByteOrder.LITTLE_ENDIAN);
+            for (byte[] id : ids) {
+                idSection.putInt(id.length).put(id);
+            }
+            idSection.clear();
+            DistanceMatrixCache.writeFully(channel, idSection);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1, size) * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            DoubleBuffer row = buffer.asDoubleBuffer();
+            for (int i = 0; i < size; i++) {
+                row.clear();
+                for (int j = 0; j < size; j++) {
+                    row.put(matrix.get(i, j));
+                }
+                buffer.clear().limit(size * Double.BYTES);
+                DistanceMatrixCache.writeFully(channel, buffer);
+            }
+        }
+    }
+
+    private static long align(long bytes) {
+        return (bytes + Double.BYTES - 1) & ~(long) (Double.BYTES - 1);
+    }
+}
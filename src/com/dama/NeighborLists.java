@@ -0,0 +1,61 @@
+package com.dama;
+
+import java.util.stream.IntStream;
+
+/**
+ * The k nearest POIs of every POI by travel time, used to restrict operators to candidates close to a route.
+ */
+public class NeighborLists {
+
+    int size;
+    int neighborCount;
+    // Row-major neighbour indices, nearest first, padded with -1 when fewer POIs exist
+    int[] neighbors;
+
+    NeighborLists(final DistanceMatrix distanceMatrix, int neighborCount) {
+        if (neighborCount <= 0) {
+            throw new IllegalArgumentException("Neighbour count must be positive, got " + neighborCount);
+        }
+        this.size = distanceMatrix.getSize();
+        this.neighborCount = neighborCount;
+        this.neighbors = new int[this.size * neighborCount];
+
+        IntStream.range(0, this.size).parallel().forEach(i -> selectNearest(distanceMatrix, i));
+    }
+
+    // Bounded insertion sort of row i, ties go to the lower index
+    private void selectNearest(DistanceMatrix distanceMatrix, int i) {
+        int offset = i * this.neighborCount;
+        double[] nearestDistances = new double[this.neighborCount];
+        int found = 0;
+        for (int j = 0; j < this.size; j++) {
+            if (j == i) {
+                continue;
+            }
+            double distance = distanceMatrix.get(i, j);
+            if (found == this.neighborCount && distance >= nearestDistances[found - 1]) {
+                continue;
+            }
+            int position = found < this.neighborCount ? found++ : found - 1;
+            while (position > 0 && distance < nearestDistances[position - 1]) {
+                nearestDistances[position] = nearestDistances[position - 1];
+                this.neighbors[offset + position] = this.neighbors[offset + position - 1];
+                position--;
+            }
+            nearestDistances[position] = distance;
+            this.neighbors[offset + position] = j;
+        }
+        for (int n = found; n < this.neighborCount; n++) {
+            this.neighbors[offset + n] = -1;
+        }
+    }
+
+    public int getNeighbor(int index, int rank) {
+        return this.neighbors[index * this.neighborCount + rank];
+    }
+
+    public int getNeighborCount() {
+        return this.neighborCount;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.dama;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of one operator call of an instrumented solver run.
+ */
+@Name("com.dama.Operator")
+@Label("Solver Operator")
+@Category("Route Solver")
+@Description("One call of a construction, local search or perturbation operator")
+class OperatorEvent extends jdk.jfr.Event {
+
+    @Label("Operator")
+    String operator;
+
+    @Label("Evaluations")
+    long evaluations;
+
+    @Label("Acceptances")
+    long acceptances;
+
+    @Label("Score")
+    double score;
+}
@@ -0,0 +1,132 @@
+package com.dama;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a range of candidate moves on a fork-join pool and picks the one a sequential scan in index order would
+ * pick: the lowest accepted index, or the largest saving with ties going to the lower index. Candidates are only
+ * evaluated here and applied by the caller afterwards, so evaluate() must not change shared state. Every leaf block
+ * gets its own worker object for scratch results.
+ */
+public abstract class ParallelScan<W> {
+
+    static final int NONE = -1;
+    // Candidates evaluated by a single task before it stops splitting
+    static final int BLOCK_SIZE = 512;
+    // Smaller neighbourhoods are scanned sequentially, the fork-join overhead would dominate
+    static final int MIN_PARALLEL_CANDIDATES = 4 * BLOCK_SIZE;
+
+    ForkJoinPool pool;
+    AtomicLong evaluations;
+    // Lowest accepted index found so far by findFirst(); blocks entirely after it are skipped
+    AtomicInteger firstAccepted;
+    double bestSaving;
+    int bestIndex;
+
+    ParallelScan(ForkJoinPool pool) {
+        this.pool = pool;
+        this.evaluations = new AtomicLong();
+        this.firstAccepted = new AtomicInteger(Integer.MAX_VALUE);
+    }
+
+    abstract W createWorker();
+
+    // Saving of the candidate, NaN if the move is rejected
+    abstract double evaluate(W worker, int index);
+
+    // Checked before every block, e.g. for the solver deadline
+    boolean cancelled() {
+        return false;
+    }
+
+    // Lowest index in [from, to) whose move is accepted, NONE if there is none
+    public int findFirst(int from, int to) {
+        this.pool.invoke(new ScanTask(from, to, false));
+        int first = this.firstAccepted.get();
+        return first == Integer.MAX_VALUE ? NONE : first;
+    }
+
+    // Index in [from, to) of the accepted move with the largest positive saving, NONE if there is none
+    public int findBest(int from, int to) {
+        this.bestSaving = 0.0;
+        this.bestIndex = NONE;
+        this.pool.invoke(new ScanTask(from, to, true));
+        return this.bestIndex;
+    }
+
+    public long getEvaluations() {
+        return this.evaluations.get();
+    }
+
+    private void offerFirst(int index) {
+        int first = this.firstAccepted.get();
+        while (index < first && !this.firstAccepted.compareAndSet(first, index)) {
+            first = this.firstAccepted.get();
+        }
+    }
+
+    private synchronized void offerBest(double saving, int index) {
+        if (saving > this.bestSaving || (saving == this.bestSaving && index < this.bestIndex)) {
+            this.bestSaving = saving;
+            this.bestIndex = index;
+        }
+    }
+
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        int from;
+        int to;
+        boolean best;
+
+        ScanTask(int from, int to, boolean best) {
+            this.from = from;
+            this.to = to;
+            this.best = best;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > BLOCK_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ScanTask(this.from, middle, this.best), new ScanTask(middle, this.to, this.best));
+                return;
+            }
+            if (cancelled() || (!this.best && this.from > firstAccepted.get())) {
+                return;
+            }
+
+            W worker = createWorker();
+            int evaluated = 0;
+            if (this.best) {
+                // The block's own best first, so the shared one is only locked once per block
+                double blockSaving = 0.0;
+                int blockIndex = NONE;
+                for (int index = this.from; index < this.to; index++) {
+                    double saving = evaluate(worker, index);
+                    evaluated++;
+                    if (saving > blockSaving) {
+                        blockSaving = saving;
+                        blockIndex = index;
+                    }
+                }
+                if (blockIndex != NONE) {
+                    offerBest(blockSaving, blockIndex);
+                }
+            } else {
+                for (int index = this.from; index < this.to && index < firstAccepted.get(); index++) {
+                    double saving = evaluate(worker, index);
+                    evaluated++;
+                    if (!Double.isNaN(saving)) {
+                        offerFirst(index);
+                        break;
+                    }
+                }
+            }
+            evaluations.addAndGet(evaluated);
+        }
+    }
+}
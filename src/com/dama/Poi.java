@@ -1,8 +1,5 @@
 package com.dama;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Created by pero on 22/01/16.
  */
@@ -13,9 +10,11 @@ public class Poi {
     double lng;
     double score;
     double consumingBudget;
-    Route route;
-    double distanceStartEnd;
-    Map<String, Double> distanceDictionary;
+    // Row/column of this POI in the solver's distance matrix
+    int index;
+    // Opening intervals as consecutive (open, close) pairs in ascending order, on the solver's clock (see
+    // TopSolver.setStartTime()); null if the POI is always open. A visit has to start and end within one interval.
+    double[] timeWindows;
 
     Poi(String poiId, double lat, double lng, double score, double consumingBudget) {
         this.poiId = poiId;
@@ -23,14 +22,70 @@ public class Poi {
         this.lng = lng;
         this.score = score;
         this.consumingBudget = consumingBudget;
-        this.distanceDictionary = new HashMap<String, Double>();
+        this.index = -1;
+    }
+
+    // Must be set before the POI becomes part of a catalogue
+    public void setTimeWindows(double[] timeWindows) {
+        if (timeWindows != null) {
+            if (timeWindows.length == 0 || timeWindows.length % 2 != 0) {
+                throw new IllegalArgumentException("Time windows of POI " + this.poiId +
+                                                   " must be (open, close) pairs, got " + timeWindows.length + " values");
+            }
+            for (int k = 0; k < timeWindows.length; k += 2) {
+                if (timeWindows[k] > timeWindows[k+1] || (k > 0 && timeWindows[k] < timeWindows[k-1])) {
+                    throw new IllegalArgumentException("Time windows of POI " + this.poiId +
+                                                       " must be ascending and must not overlap");
+                }
+            }
+        }
+        this.timeWindows = timeWindows;
+    }
+
+    // Earliest start of a visit when arriving at the given time, waiting for the next opening if necessary.
+    // Positive infinity if no interval admits the visit any more.
+    double earliestStart(double arrival) {
+        if (this.timeWindows == null) {
+            return arrival;
+        }
+        for (int k = 0; k < this.timeWindows.length; k += 2) {
+            double start = Math.max(arrival, this.timeWindows[k]);
+            if (start + this.consumingBudget <= this.timeWindows[k+1]) {
+                return start;
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    // Latest start of a visit that stays in the interval of a visit starting at the given time.
+    // Negative infinity if that start lies in no interval.
+    double latestStart(double start) {
+        if (this.timeWindows == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        for (int k = 0; k < this.timeWindows.length; k += 2) {
+            if (start >= this.timeWindows[k] && start + this.consumingBudget <= this.timeWindows[k+1]) {
+                return this.timeWindows[k+1] - this.consumingBudget;
+            }
+        }
+        return Double.NEGATIVE_INFINITY;
     }
 
     public double distanceFrom(double lat, double lng, double walkingSpeed) {
-        double dlon = toRadians(lng) - toRadians(this.lng);
-        double dlat = toRadians(lat) - toRadians(this.lat);
+        return travelTime(toRadians(this.lat), toRadians(this.lng), Math.cos(toRadians(this.lat)),
+                          toRadians(lat), toRadians(lng), Math.cos(toRadians(lat)),
+                          walkingSpeed);
+    }
 
-        double a = Math.pow(Math.sin(dlat/2),2) + Math.cos(toRadians(this.lat)) * Math.cos(toRadians(lat)) * Math.pow(Math.sin(dlon/2),2);
+    // Haversine travel time between two points given in radians, with the cosines of their latitudes precomputed.
+    // The result is symmetric in its two points.
+    static double travelTime(double radLat1, double radLng1, double cosLat1,
+                             double radLat2, double radLng2, double cosLat2,
+                             double walkingSpeed) {
+        double dlon = radLng2 - radLng1;
+        double dlat = radLat2 - radLat1;
+
+        double a = Math.pow(Math.sin(dlat/2),2) + cosLat1 * cosLat2 * Math.pow(Math.sin(dlon/2),2);
         double c = 2 * Math.atan2(Math.sqrt(a),Math.sqrt(1-a));
         double d = 6373 * c * 1000;
 
@@ -45,17 +100,7 @@ public class Poi {
         return d;
     }
 
-    public void setDistanceFromPoi(String idToPoi, double lat, double lng, double walkingSpeed) {
-
-        double distance = distanceFrom(lat,lng,walkingSpeed);
-        this.distanceDictionary.put(idToPoi,distance);
-    }
-
-    public double getDistanceFromPoi(String idToPoi) {
-        return this.distanceDictionary.get(idToPoi);
-    }
-
-    private double toRadians(double degrees) {
+    static double toRadians(double degrees) {
         return degrees * (Math.PI/ 180.0);
     }
 
@@ -0,0 +1,111 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only POI catalogue shared by any number of solver requests: the POIs, indexed by their position in the
+ * catalogue, their pairwise distance matrix and the tree of their spatial index. Solvers keep all per-request
+ * state (START/FINISH, routes, availability) to themselves, so one catalogue can serve concurrent requests.
+ * The catalogue indexes copies of the given POIs, so the caller's POIs can be shared with other catalogues.
+ */
+public class PoiCatalogue {
+
+    private static final Logger LOGGER = Logger.getLogger(PoiCatalogue.class.getName());
+
+    double walkingSpeed;
+    // Source of the catalogue matrix and of the per-request START/FINISH travel times
+    TravelTimeProvider travelTimeProvider;
+    // Copies of the given POIs, indexed by position; must not be modified after construction
+    ArrayList<Poi> pois;
+    DistanceMatrix distanceMatrix;
+    // Prototype whose tree is shared by the availability index of every solver
+    SpatialIndex spatialIndex;
+    // True if any POI has opening hours, which switches the solvers to the time-window variant
+    boolean timeWindows;
+
+    PoiCatalogue(ArrayList<Poi> pois, double walkingSpeed) {
+        this(pois, walkingSpeed, (DistanceMatrixCache) null);
+    }
+
+    // Distance matrices of the given POI set are reused across catalogues through distanceMatrixCache (may be null)
+    PoiCatalogue(ArrayList<Poi> pois, double walkingSpeed, DistanceMatrixCache distanceMatrixCache) {
+        this(pois, walkingSpeed, TopSolver.computeCatalogueMatrix(pois, walkingSpeed, distanceMatrixCache));
+    }
+
+    // Reuses an already computed distance matrix over the given POIs, in list order
+    PoiCatalogue(ArrayList<Poi> pois, double walkingSpeed, DistanceMatrix distanceMatrix) {
+        this(pois, walkingSpeed, distanceMatrix, new HaversineTravelTimeProvider(walkingSpeed));
+    }
+
+    // Builds the distance matrix from the given travel times, e.g. a precomputed road network matrix. The walking
+    // speed only orders candidates in the spatial index.
+    PoiCatalogue(ArrayList<Poi> pois, double walkingSpeed, TravelTimeProvider travelTimeProvider) {
+        this(pois, walkingSpeed, buildCatalogueMatrix(pois, travelTimeProvider), travelTimeProvider);
+    }
+
+    private PoiCatalogue(ArrayList<Poi> pois, double walkingSpeed, DistanceMatrix distanceMatrix,
+                         TravelTimeProvider travelTimeProvider) {
+        if (distanceMatrix.getSize() != pois.size()) {
+            throw new IllegalArgumentException("Distance matrix covers " + distanceMatrix.getSize() +
+                                               " POIs, but " + pois.size() + " POIs were given");
+        }
+        this.walkingSpeed = walkingSpeed;
+        this.travelTimeProvider = travelTimeProvider;
+        this.pois = copyPois(pois);
+        TopSolver.indexPois(this.pois);
+        this.distanceMatrix = distanceMatrix;
+        this.spatialIndex = new SpatialIndex(this.pois, this.pois.size());
+        for (Poi poi : this.pois) {
+            this.timeWindows |= poi.timeWindows != null;
+        }
+    }
+
+    private static DistanceMatrix buildCatalogueMatrix(ArrayList<Poi> pois, TravelTimeProvider travelTimeProvider) {
+        return new DistanceMatrixBuilder(travelTimeProvider).build(pois);
+    }
+
+    // Catalogue of the POIs that a single request can reach, so that the pairwise distance matrix is only built
+    // for those. The first phase only needs the START/FINISH travel times of every POI.
+    static PoiCatalogue forRequest(ArrayList<Poi> pois, double walkingSpeed,
+                                   double startLat, double startLng, double finishLat, double finishLng,
+                                   double availableBudget) {
+        long pruneStart = System.nanoTime();
+        ReachabilityFilter reachabilityFilter = new ReachabilityFilter(startLat, startLng, finishLat, finishLng,
+                                                                       availableBudget, walkingSpeed);
+        ArrayList<Poi> reachablePois = reachabilityFilter.filter(pois);
+        long buildStart = System.nanoTime();
+        PoiCatalogue catalogue = new PoiCatalogue(reachablePois, walkingSpeed);
+        long buildEnd = System.nanoTime();
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            // The matrix build time grows with the number of POI pairs, so the pairs that were built give the time
+            // per pair that the pruned ones would have taken
+            long builtPairs = Math.max(1L, (long) reachablePois.size() * reachablePois.size());
+            long avoidedPairs = (long) pois.size() * pois.size() - builtPairs;
+            double savedMillis = (buildEnd - buildStart) / 1e6 * avoidedPairs / builtPairs;
+            LOGGER.fine(String.format("Pruned %d of %d POIs out of reach in %.1f ms, distance matrix of %d POIs " +
+                                      "built in %.1f ms, about %.1f ms of matrix build saved",
+                                      pois.size() - reachablePois.size(), pois.size(),
+                                      (buildStart - pruneStart) / 1e6, reachablePois.size(),
+                                      (buildEnd - buildStart) / 1e6, savedMillis));
+        }
+        return catalogue;
+    }
+
+    static ArrayList<Poi> copyPois(List<Poi> pois) {
+        ArrayList<Poi> copies = new ArrayList<Poi>(pois.size());
+        for (Poi poi : pois) {
+            Poi copy = new Poi(poi.poiId, poi.lat, poi.lng, poi.score, poi.consumingBudget);
+            copy.timeWindows = poi.timeWindows;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    public int size() {
+        return this.pois.size();
+    }
+}
@@ -0,0 +1,375 @@
+package com.dama;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Streams POIs from delimited text (CSV/TSV) or a compact binary format.
+ *
+ * Text rows hold id, latitude, longitude, score and consuming budget, in this order; an optional header row, blank
+ * lines and lines starting with '#' are skipped, and fields cannot be quoted. Rows are parsed straight from the
+ * read buffer, only the id becomes a String.
+ * Binary files (little endian) start with a 16 byte header holding magic, version and POI count, followed by one
+ * record per POI: the UTF-8 id prefixed by its unsigned short length, then latitude, longitude, score and
+ * consuming budget as doubles.
+ *
+ * Rows with out of range coordinates or non-finite or negative values are skipped and logged, or rejected with an
+ * exception in strict mode. With a reachability filter, POIs that cannot be visited between start and finish
+ * within the budget are dropped as well, using the same criterion as the solver's construction.
+ */
+public class PoiLoader {
+
+    private static final Logger LOGGER = Logger.getLogger(PoiLoader.class.getName());
+
+    static final int MAGIC = 0x4f50534c; // "LSPO"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int BUFFER_SIZE = 1 << 16;
+    static final int MAX_ID_LENGTH = 0xffff;
+    static final int MAX_RECORD_SIZE = Short.BYTES + MAX_ID_LENGTH + 4 * Double.BYTES;
+    static final int MAX_LOGGED_REJECTIONS = 10;
+    static final int FIELD_COUNT = 5;
+    // Powers of ten that are exact doubles, used by the fast path of parseDouble()
+    static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                                           1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // Throw on the first invalid row instead of skipping it
+    boolean strict;
+
+    // Null until setReachabilityFilter() is called
+    ReachabilityFilter reachabilityFilter;
+
+    // State of the current load
+    boolean headerAllowed;
+    int invalidCount;
+    int unreachableCount;
+
+    public void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    // Drops POIs whose round trip from start to finish, visit included, exceeds the budget
+    public void setReachabilityFilter(double startLat, double startLng, double finishLat, double finishLng,
+                                      double availableBudget, double walkingSpeed) {
+        this.reachabilityFilter = new ReachabilityFilter(startLat, startLng, finishLat, finishLng,
+                                                         availableBudget, walkingSpeed);
+    }
+
+    // Chooses the format by file extension: .tsv and .txt are tab separated, .bin binary, anything else CSV
+    public ArrayList<Poi> load(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".bin")) {
+            return loadBinary(file);
+        } else if (name.endsWith(".tsv") || name.endsWith(".txt")) {
+            return loadText(file, (byte) '\t');
+        }
+        return loadText(file, (byte) ',');
+    }
+
+    public ArrayList<Poi> loadText(File file, byte delimiter) throws IOException {
+        startLoad();
+        ArrayList<Poi> pois = new ArrayList<Poi>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int[] fieldEnds = new int[FIELD_COUNT];
+            long row = 0;
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                endOfFile = channel.read(buffer) < 0;
+                byte[] bytes = buffer.array();
+                int limit = buffer.position();
+                int lineStart = 0;
+                for (int i = 0; i <= limit; i++) {
+                    boolean lineEnd = i < limit ? bytes[i] == '\n' : endOfFile && lineStart < limit;
+                    if (!lineEnd) {
+                        continue;
+                    }
+                    row++;
+                    parseRow(bytes, lineStart, i, delimiter, fieldEnds, row, pois);
+                    lineStart = i + 1;
+                }
+                if (endOfFile) {
+                    break;
+                }
+                // Keep the incomplete last line, growing the buffer if a single line fills it
+                buffer.position(lineStart);
+                buffer.limit(limit);
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    grown.put(buffer);
+                    buffer = grown;
+                }
+            }
+        }
+        finishLoad(file, pois);
+        return pois;
+    }
+
+    private void parseRow(byte[] bytes, int from, int to, byte delimiter, int[] fieldEnds, long row,
+                          ArrayList<Poi> pois) {
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        int start = skipBlanks(bytes, from, to);
+        if (start == to || bytes[start] == '#') {
+            return;
+        }
+
+        int fieldCount = 0;
+        for (int i = from; i < to && fieldCount < FIELD_COUNT; i++) {
+            if (bytes[i] == delimiter) {
+                fieldEnds[fieldCount++] = i;
+            }
+        }
+        if (fieldCount < FIELD_COUNT) {
+            fieldEnds[fieldCount++] = to;
+        }
+        if (fieldCount < FIELD_COUNT) {
+            this.headerAllowed = false;
+            reject(row, "expected " + FIELD_COUNT + " fields, found " + fieldCount);
+            return;
+        }
+
+        double lat = parseDouble(bytes, fieldEnds[0] + 1, fieldEnds[1]);
+        boolean header = this.headerAllowed && Double.isNaN(lat);
+        this.headerAllowed = false;
+        if (header) {
+            return;
+        }
+        double lng = parseDouble(bytes, fieldEnds[1] + 1, fieldEnds[2]);
+        double score = parseDouble(bytes, fieldEnds[2] + 1, fieldEnds[3]);
+        double consumingBudget = parseDouble(bytes, fieldEnds[3] + 1, fieldEnds[4]);
+        int idStart = skipBlanks(bytes, from, fieldEnds[0]);
+        int idEnd = trimBlanks(bytes, idStart, fieldEnds[0]);
+        String poiId = new String(bytes, idStart, idEnd - idStart, StandardCharsets.UTF_8);
+        accept(new Poi(poiId, lat, lng, score, consumingBudget), row, pois);
+    }
+
+    public ArrayList<Poi> loadBinary(File file) throws IOException {
+        startLoad();
+        ArrayList<Poi> pois = new ArrayList<Poi>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE + MAX_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            fill(channel, buffer, HEADER_SIZE);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(file + " is not a POI file of version " + VERSION);
+            }
+            int count = buffer.getInt();
+            buffer.getInt();
+            pois.ensureCapacity(count);
+
+            byte[] id = new byte[MAX_ID_LENGTH];
+            for (long row = 1; row <= count; row++) {
+                fill(channel, buffer, Short.BYTES);
+                int idLength = buffer.getShort() & MAX_ID_LENGTH;
+                fill(channel, buffer, idLength + 4 * Double.BYTES);
+                buffer.get(id, 0, idLength);
+                String poiId = new String(id, 0, idLength, StandardCharsets.UTF_8);
+                accept(new Poi(poiId, buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble()),
+                       row, pois);
+            }
+        }
+        finishLoad(file, pois);
+        return pois;
+    }
+
+    // Makes sure the buffer holds at least byteCount unread bytes
+    private static void fill(FileChannel channel, ByteBuffer buffer, int byteCount) throws IOException {
+        if (buffer.remaining() >= byteCount) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < byteCount) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("POI file ends in the middle of a record");
+            }
+        }
+        buffer.flip();
+    }
+
+    public static void writeBinary(File file, List<Poi> pois) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE + MAX_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(pois.size()).putInt(0);
+            for (Poi poi : pois) {
+                byte[] id = poi.poiId.getBytes(StandardCharsets.UTF_8);
+                if (id.length > MAX_ID_LENGTH) {
+                    throw new IllegalArgumentException("POI id " + poi.poiId + " is too long");
+                }
+                if (buffer.remaining() < MAX_RECORD_SIZE) {
+                    flush(channel, buffer);
+                }
+                buffer.putShort((short) id.length).put(id);
+                buffer.putDouble(poi.lat).putDouble(poi.lng).putDouble(poi.score).putDouble(poi.consumingBudget);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Applies validation and the reachability filter to POIs that were created in memory
+    public ArrayList<Poi> filter(List<Poi> pois) {
+        startLoad();
+        ArrayList<Poi> acceptedPois = new ArrayList<Poi>(pois.size());
+        for (int i = 0; i < pois.size(); i++) {
+            accept(pois.get(i), i + 1, acceptedPois);
+        }
+        finishLoad(null, acceptedPois);
+        return acceptedPois;
+    }
+
+    private void accept(Poi poi, long row, ArrayList<Poi> pois) {
+        String problem = validate(poi);
+        if (problem != null) {
+            reject(row, "POI " + poi.poiId + " " + problem);
+            return;
+        }
+        if (this.reachabilityFilter != null && !this.reachabilityFilter.isReachable(poi)) {
+            this.unreachableCount++;
+            return;
+        }
+        pois.add(poi);
+    }
+
+    static String validate(Poi poi) {
+        if (poi.poiId.isEmpty()) {
+            return "has no id";
+        } else if (!(poi.lat >= -90.0 && poi.lat <= 90.0)) {
+            return "has latitude " + poi.lat + " outside [-90, 90]";
+        } else if (!(poi.lng >= -180.0 && poi.lng <= 180.0)) {
+            return "has longitude " + poi.lng + " outside [-180, 180]";
+        } else if (!(poi.score >= 0.0) || Double.isInfinite(poi.score)) {
+            return "has invalid score " + poi.score;
+        } else if (!(poi.consumingBudget >= 0.0) || Double.isInfinite(poi.consumingBudget)) {
+            return "has invalid consuming budget " + poi.consumingBudget;
+        }
+        return null;
+    }
+
+    private void reject(long row, String problem) {
+        if (this.strict) {
+            throw new IllegalArgumentException("Row " + row + ": " + problem);
+        }
+        this.invalidCount++;
+        if (this.invalidCount <= MAX_LOGGED_REJECTIONS) {
+            LOGGER.warning("Skipping row " + row + ": " + problem);
+        }
+    }
+
+    private void startLoad() {
+        this.headerAllowed = true;
+        this.invalidCount = 0;
+        this.unreachableCount = 0;
+    }
+
+    private void finishLoad(File file, ArrayList<Poi> pois) {
+        LOGGER.info("Loaded " + pois.size() + " POIs" + (file != null ? " from " + file : "") + ", skipped " +
+                    this.invalidCount + " invalid and " + this.unreachableCount + " unreachable");
+    }
+
+    public int getInvalidCount() {
+        return this.invalidCount;
+    }
+
+    public int getUnreachableCount() {
+        return this.unreachableCount;
+    }
+
+    // Parses a decimal number straight from the bytes. Up to 15 significant digits and small exponents are
+    // computed as one exact integer scaled by an exact power of ten, which rounds exactly like
+    // Double.parseDouble(); everything else falls back to it. Returns NaN if the field is not a number.
+    static double parseDouble(byte[] bytes, int from, int to) {
+        from = skipBlanks(bytes, from, to);
+        to = trimBlanks(bytes, from, to);
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                digits++;
+                if (mantissa == 0 && b == '0') {
+                    // Leading zeros are not significant
+                } else if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    significantDigits++;
+                } else {
+                    significantDigits++;
+                    continue;
+                }
+                if (point) {
+                    exponent--;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            return parseDoubleSlow(bytes, from, to);
+        }
+        if (i != to) {
+            return Double.NaN;
+        }
+        if (significantDigits > 15 || exponent < -22) {
+            return parseDoubleSlow(bytes, from, to);
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : (double) mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(byte[] bytes, int from, int to) {
+        try {
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static int skipBlanks(byte[] bytes, int from, int to) {
+        while (from < to && bytes[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimBlanks(byte[] bytes, int from, int to) {
+        while (to > from && bytes[to - 1] == ' ') {
+            to--;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,62 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which POIs can be visited between START and FINISH within the budget, with exactly the criterion of the
+ * solver's construction: travel time from START, consuming budget and travel time to FINISH must fit into it.
+ *
+ * Reachable POIs lie inside an ellipse with START and FINISH as foci. Travel time is at least the distance divided
+ * by the faster of walking and public transport speed, and the distance at least the latitude difference times the
+ * earth radius, so the ellipse is contained in a latitude band that rejects most distant POIs without any
+ * trigonometry. Only POIs inside the band get their exact travel times computed.
+ */
+public class ReachabilityFilter {
+
+    static final double EARTH_RADIUS = 6373 * 1000;
+    static final double TRANSPORT_SPEED = 200.0;
+    // The band is widened by this relative amount, so rounding never rejects a reachable POI
+    static final double BOUND_SLACK = 1e-9;
+
+    Poi startPoi;
+    Poi finishPoi;
+    double startRadLat;
+    double finishRadLat;
+    double availableBudget;
+    double walkingSpeed;
+    double maxSpeed;
+
+    ReachabilityFilter(double startLat, double startLng, double finishLat, double finishLng,
+                       double availableBudget, double walkingSpeed) {
+        this.startPoi = new Poi("START", startLat, startLng, 0.0, 0.0);
+        this.finishPoi = new Poi("FINISH", finishLat, finishLng, 0.0, 0.0);
+        this.startRadLat = Poi.toRadians(startLat);
+        this.finishRadLat = Poi.toRadians(finishLat);
+        this.availableBudget = availableBudget;
+        this.walkingSpeed = walkingSpeed;
+        this.maxSpeed = Math.max(walkingSpeed, TRANSPORT_SPEED);
+    }
+
+    public boolean isReachable(Poi poi) {
+        double radLat = Poi.toRadians(poi.lat);
+        double minDistance = EARTH_RADIUS * (Math.abs(radLat - this.startRadLat) + Math.abs(radLat - this.finishRadLat));
+        if (minDistance * (1 - BOUND_SLACK) / this.maxSpeed + poi.consumingBudget > this.availableBudget) {
+            return false;
+        }
+        // Same travel times as the START/FINISH rows of the solver's distance matrix
+        double distanceStartEnd = this.startPoi.distanceFrom(poi.lat, poi.lng, this.walkingSpeed) +
+                                  this.finishPoi.distanceFrom(poi.lat, poi.lng, this.walkingSpeed);
+        return distanceStartEnd + poi.consumingBudget <= this.availableBudget;
+    }
+
+    public ArrayList<Poi> filter(List<Poi> pois) {
+        ArrayList<Poi> reachablePois = new ArrayList<Poi>();
+        for (Poi poi : pois) {
+            if (isReachable(poi)) {
+                reachablePois.add(poi);
+            }
+        }
+        return reachablePois;
+    }
+}
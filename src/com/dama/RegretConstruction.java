@@ -0,0 +1,242 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Builds the initial routes of a TopSolver by regret insertion. Exactly routeCount routes are seeded with the POIs
+ * most distant from START and FINISH, then the reachable POI with the largest regret-2 priority is inserted at its
+ * cheapest position until no POI fits any route. The priority is how much score per cost the POI loses if it does
+ * not get its best route but its second best, ties going to the better ratio.
+ *
+ * The cheapest insertion of every POI into every route is cached. An insertion only changes one route, and there
+ * only the POIs whose cached position was the replaced edge are scanned again; the others just compare the two
+ * new edges. POIs wait in a priority queue, an entry becomes stale when its POI is queued again.
+ *
+ * With a Random the seeds are drawn among the most distant POIs and the priorities are perturbed, so that
+ * constructions from different seeds explore different solutions.
+ */
+public class RegretConstruction {
+
+    // Randomized constructions draw their seed POIs among this many times routeCount most distant POIs
+    static final int SEED_CANDIDATE_FACTOR = 3;
+    // Randomized constructions scale the priority of each POI by a factor drawn from [1 - noise, 1 + noise]
+    static final double PRIORITY_NOISE = 0.25;
+
+    TopSolver topSolver;
+    Random random;
+    ArrayList<Poi> candidates;
+    int routeCount;
+    // Cheapest insertion per (candidate, route), whether or not it fits the budget
+    double[] insertionCosts;
+    int[] insertionPositions;
+    double[] noiseFactors;
+    boolean[] inserted;
+    // Route, priority and ratio of the last queued entry of each candidate, route -1 if it fits no route
+    int[] queuedRoutes;
+    double[] queuedPriorities;
+    double[] queuedRatios;
+    int[] versions;
+    PriorityQueue<Entry> queue;
+
+    static class Entry {
+        int candidate;
+        int version;
+        double priority;
+        double ratio;
+
+        Entry(int candidate, int version, double priority, double ratio) {
+            this.candidate = candidate;
+            this.version = version;
+            this.priority = priority;
+            this.ratio = ratio;
+        }
+    }
+
+    // Builds routes from the reachable POIs, which must not be assigned to any route. The deterministic
+    // construction is built without a Random.
+    RegretConstruction(TopSolver topSolver, ArrayList<Poi> reachablePois, Random random) {
+        this.topSolver = topSolver;
+        this.random = random;
+        this.candidates = new ArrayList<Poi>(reachablePois);
+        this.queue = new PriorityQueue<Entry>(Math.max(1, reachablePois.size()), new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                if (o1.priority != o2.priority) {
+                    return o1.priority > o2.priority ? -1 : 1;
+                }
+                if (o1.ratio != o2.ratio) {
+                    return o1.ratio > o2.ratio ? -1 : 1;
+                }
+                return o1.candidate - o2.candidate;
+            }
+        });
+    }
+
+    // Adds the routes to the solver's routes; in anytime mode the insertions stop at the deadline
+    void build() {
+        seedRoutes();
+        ArrayList<Route> routes = this.topSolver.routes;
+        this.routeCount = routes.size();
+        int candidateCount = this.candidates.size();
+        this.insertionCosts = new double[candidateCount * this.routeCount];
+        this.insertionPositions = new int[candidateCount * this.routeCount];
+        this.noiseFactors = new double[candidateCount];
+        this.inserted = new boolean[candidateCount];
+        this.queuedRoutes = new int[candidateCount];
+        this.queuedPriorities = new double[candidateCount];
+        this.queuedRatios = new double[candidateCount];
+        this.versions = new int[candidateCount];
+        for (int c = 0; c < candidateCount; c++) {
+            this.noiseFactors[c] = this.random == null ? 1.0 :
+                                   1.0 + PRIORITY_NOISE * (2.0 * this.random.nextDouble() - 1.0);
+            this.queuedRoutes[c] = -1;
+            for (int r = 0; r < this.routeCount; r++) {
+                scanInsertion(c, r);
+            }
+            requeue(c);
+        }
+
+        while (!this.queue.isEmpty() && !this.topSolver.deadlineReached()) {
+            Entry entry = this.queue.poll();
+            int c = entry.candidate;
+            if (entry.version != this.versions[c]) {
+                continue;
+            }
+            int r = this.queuedRoutes[c];
+            int entryIndex = c * this.routeCount + r;
+            Route route = routes.get(r);
+            double consumedBudget = route.consumedBudget;
+            int position = this.insertionPositions[entryIndex];
+            route.insertPoi(this.candidates.get(c), position, this.insertionCosts[entryIndex]);
+            this.topSolver.acceptanceCount++;
+            this.inserted[c] = true;
+            this.versions[c]++;
+            updateInsertions(r, position, consumedBudget);
+        }
+    }
+
+    // One route per seed POI, up to routeCount routes
+    private void seedRoutes() {
+        ArrayList<Poi> seedPois = new ArrayList<Poi>(this.candidates);
+        final double[] distanceStartEnd = this.topSolver.distanceStartEnd;
+        // Stable, so that POIs at equal distances keep their catalogue order
+        Collections.sort(seedPois, new Comparator<Poi>() {
+            @Override
+            public int compare(Poi o1, Poi o2) {
+                return Double.compare(distanceStartEnd[o2.index], distanceStartEnd[o1.index]);
+            }
+        });
+        int seedCount = Math.min(this.topSolver.routeCount, seedPois.size());
+        if (this.random != null) {
+            int seedCandidates = Math.min(seedPois.size(), SEED_CANDIDATE_FACTOR * seedCount);
+            seedPois = new ArrayList<Poi>(seedPois.subList(0, seedCandidates));
+            Collections.shuffle(seedPois, this.random);
+        }
+
+        for (Poi seedPoi : seedPois.subList(0, seedCount)) {
+            Route route = new Route(this.topSolver);
+            route.routeId = Integer.toString(this.topSolver.routes.size());
+            // Add the seed POI between start and finish POIs, i.e. at the position 1
+            route.insertPoi(seedPoi, 1);
+            this.topSolver.routes.add(route);
+        }
+        for (int c = this.candidates.size() - 1; c >= 0; c--) {
+            if (this.topSolver.poiRoutes[this.candidates.get(c).index] != null) {
+                this.candidates.remove(c);
+            }
+        }
+    }
+
+    private void scanInsertion(int c, int r) {
+        Route route = this.topSolver.routes.get(r);
+        route.findCheapestInsertion(this.candidates.get(c));
+        this.topSolver.evaluationCount++;
+        this.insertionCosts[c * this.routeCount + r] = route.insertCost;
+        this.insertionPositions[c * this.routeCount + r] = route.insertPosition;
+    }
+
+    // After a POI was inserted at the given position of route r, updates the candidates' insertions into it and
+    // requeues those whose cost or fit changed
+    private void updateInsertions(int r, int position, double previousConsumedBudget) {
+        Route route = this.topSolver.routes.get(r);
+        double availableBudget = this.topSolver.availableBudget;
+        for (int c = 0; c < this.candidates.size(); c++) {
+            if (this.inserted[c]) {
+                continue;
+            }
+            int entryIndex = c * this.routeCount + r;
+            double previousCost = this.insertionCosts[entryIndex];
+            int cheapestPosition = this.insertionPositions[entryIndex];
+            if (route.timeWindows || cheapestPosition == position || previousCost == Double.MAX_VALUE) {
+                // The slack of every position may have changed, or the cheapest edge was replaced
+                scanInsertion(c, r);
+            } else {
+                // Only the two new edges can be cheaper, ties going to the lower position as in a full scan
+                Poi poi = this.candidates.get(c);
+                double cheapestCost = previousCost;
+                if (cheapestPosition > position) {
+                    cheapestPosition++;
+                }
+                for (int newPosition = position; newPosition <= position + 1; newPosition++) {
+                    double cost = route.getInsertionCost(poi, newPosition);
+                    if (cost < cheapestCost || (cost == cheapestCost && newPosition < cheapestPosition)) {
+                        cheapestCost = cost;
+                        cheapestPosition = newPosition;
+                    }
+                }
+                this.topSolver.evaluationCount++;
+                this.insertionCosts[entryIndex] = cheapestCost;
+                this.insertionPositions[entryIndex] = cheapestPosition;
+            }
+
+            double cost = this.insertionCosts[entryIndex];
+            boolean fitted = previousCost != Double.MAX_VALUE && previousConsumedBudget + previousCost <= availableBudget;
+            boolean fits = cost != Double.MAX_VALUE && route.consumedBudget + cost <= availableBudget;
+            if (cost != previousCost || fits != fitted) {
+                requeue(c);
+            }
+        }
+    }
+
+    // Queues the candidate with its current priority, unless the queued entry still has it
+    private void requeue(int c) {
+        double score = this.candidates.get(c).score;
+        double availableBudget = this.topSolver.availableBudget;
+        ArrayList<Route> routes = this.topSolver.routes;
+        // Best two score per cost ratios over the routes, 0 where the POI does not fit
+        double ratio1 = 0.0;
+        double ratio2 = 0.0;
+        int route1 = -1;
+        for (int r = 0; r < this.routeCount; r++) {
+            double cost = this.insertionCosts[c * this.routeCount + r];
+            if (cost == Double.MAX_VALUE || routes.get(r).consumedBudget + cost > availableBudget) {
+                continue;
+            }
+            double ratio = score / Math.max(cost, AlnsEngine.MIN_INSERTION_COST);
+            if (route1 < 0 || ratio > ratio1) {
+                ratio2 = ratio1;
+                ratio1 = ratio;
+                route1 = r;
+            } else if (ratio > ratio2) {
+                ratio2 = ratio;
+            }
+        }
+        double priority = (ratio1 - ratio2) * this.noiseFactors[c];
+        double ratio = ratio1 * this.noiseFactors[c];
+        if (route1 == this.queuedRoutes[c] && (route1 < 0 ||
+                (priority == this.queuedPriorities[c] && ratio == this.queuedRatios[c]))) {
+            return;
+        }
+        this.versions[c]++;
+        this.queuedRoutes[c] = route1;
+        this.queuedPriorities[c] = priority;
+        this.queuedRatios[c] = ratio;
+        if (route1 >= 0) {
+            this.queue.add(new Entry(c, this.versions[c], priority, ratio));
+        }
+    }
+}
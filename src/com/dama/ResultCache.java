@@ -0,0 +1,75 @@
+package com.dama;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of solve results: least recently used entries are evicted once capacity is reached, and entries
+ * older than the time to live are treated as missing. All methods are synchronized.
+ */
+public class ResultCache {
+
+    int capacity;
+    long timeToLiveNanos;
+    LinkedHashMap<String, CachedResult> entries;
+    long hits;
+    long misses;
+
+    static class CachedResult {
+        SolveResult result;
+        long createdNanos;
+
+        CachedResult(SolveResult result, long createdNanos) {
+            this.result = result;
+            this.createdNanos = createdNanos;
+        }
+    }
+
+    ResultCache(final int capacity, long timeToLiveNanos) {
+        this.capacity = capacity;
+        this.timeToLiveNanos = timeToLiveNanos;
+        // Access order turns the map into an LRU list
+        this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized SolveResult get(String key) {
+        CachedResult entry = this.entries.get(key);
+        if (entry != null && System.nanoTime() - entry.createdNanos > this.timeToLiveNanos) {
+            this.entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.result;
+    }
+
+    // Like get(), without counting a hit or miss
+    public synchronized SolveResult peek(String key) {
+        CachedResult entry = this.entries.get(key);
+        return entry != null && System.nanoTime() - entry.createdNanos <= this.timeToLiveNanos ? entry.result : null;
+    }
+
+    public synchronized void put(String key, SolveResult result) {
+        this.entries.put(key, new CachedResult(result, System.nanoTime()));
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+}
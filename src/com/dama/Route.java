@@ -1,35 +1,134 @@
 package com.dama;
 
-import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Created by pero on 22/01/16.
  */
 public class Route {
+    // Saving a reversal in tsp() must exceed when travel times depend on the direction
+    static final double ASYMMETRIC_MIN_IMPROVEMENT = 1e-9;
+
     String routeId;
     double score;
     double consumedBudget;
+    // Matrix indices of the visited POIs, START first and FINISH last
+    int[] stops;
+    int size;
+    // Incremented on every change of the POI sequence, lets callers detect stale cached evaluations
+    int modificationCount;
+    DistanceMatrix distanceMatrix;
+    // POIs by matrix index
     ArrayList<Poi> pois;
+    // Route and position of each POI by matrix index, owned by the solver and kept up to date on every edit.
+    // START and FINISH are shared by all routes and have no entry.
+    Route[] poiRoutes;
+    int[] poiPositions;
+
+    // Result of the last findCheapestInsertion() or findCheapestReplace() call
+    double removeGain;
+    double insertCost;
+    int insertPosition;
+    // Result of the last computeRouteCOG() call
+    double cogLat;
+    double cogLng;
+    // Working copy of the stops for tsp()
+    int[] tmpStops;
+
+    // Schedule under opening hours, only maintained if some POI has time windows. Per position: when the visit
+    // starts, how long it waits for the opening, and by how much it could start later without making this or a
+    // later visit miss its current opening interval (the slack).
+    boolean timeWindows;
+    double startTime;
+    double[] startTimes;
+    double[] waitTimes;
+    double[] maxShifts;
+    // First position whose visit misses all opening intervals, -1 if the route keeps all of them
+    int firstLatePosition;
+    // Route without one POI and its schedule, see scheduleWithout()
+    int[] replaceStops;
+    double[] replaceStartTimes;
+    double[] replaceWaitTimes;
+    double[] replaceMaxShifts;
+
+    Route(TopSolver topSolver) {
+        this.distanceMatrix = topSolver.distanceMatrix;
+        this.pois = topSolver.pois;
+        this.poiRoutes = topSolver.poiRoutes;
+        this.poiPositions = topSolver.poiPositions;
+        this.stops = new int[8];
+        this.stops[0] = topSolver.startPoi.index;
+        this.stops[1] = topSolver.finishPoi.index;
+        this.size = 2;
+        this.timeWindows = topSolver.timeWindows;
+        this.startTime = topSolver.startTime;
+        this.firstLatePosition = -1;
+        if (this.timeWindows) {
+            this.startTimes = new double[8];
+            this.waitTimes = new double[8];
+            this.maxShifts = new double[8];
+        }
+        if (this.timeWindows) {
+            updateSchedule();
+        }
+        this.consumedBudget = computeTotalConsumedBudget();
+        this.score = computeTotalScore();
+    }
 
-    Route(Poi startPoi, Poi finishPoi) {
-        this.pois = new ArrayList<Poi>();
-        this.pois.add(startPoi);
-        this.pois.add(finishPoi);
-        this.consumedBudget = computeTotalConsumedBudget(this.pois);
-        this.score = computeTotalScore(this.pois);
+    public int size() {
+        return this.size;
+    }
+
+    public Poi getPoi(int position) {
+        return this.pois.get(this.stops[position]);
+    }
+
+    public int getPosition(Poi poi) {
+        if (poi.index == this.stops[0]) {
+            return 0;
+        } else if (poi.index == this.stops[this.size - 1]) {
+            return this.size - 1;
+        }
+        return this.poiPositions[poi.index];
+    }
+
+    // Visited POIs including START and FINISH, in visiting order
+    public ArrayList<Poi> getPois() {
+        ArrayList<Poi> routePois = new ArrayList<Poi>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            routePois.add(getPoi(i));
+        }
+        return routePois;
     }
 
     public void insertPoi(Poi insertPoi, int position) {
-        double cost = getInsertionCost(this.pois, insertPoi, position);
+        double cost = getInsertionCost(insertPoi, position);
         insertPoi(insertPoi, position, cost);
     }
 
     public void insertPoi(Poi insertPoi, int position, double cost) {
-        this.pois.add(position,insertPoi);
+        if (this.size == this.stops.length) {
+            int capacity = this.stops.length * 2;
+            this.stops = Arrays.copyOf(this.stops, capacity);
+            if (this.timeWindows) {
+                this.startTimes = Arrays.copyOf(this.startTimes, capacity);
+                this.waitTimes = Arrays.copyOf(this.waitTimes, capacity);
+                this.maxShifts = Arrays.copyOf(this.maxShifts, capacity);
+            }
+        }
+        System.arraycopy(this.stops, position, this.stops, position + 1, this.size - position);
+        this.stops[position] = insertPoi.index;
+        this.size++;
+        this.poiRoutes[insertPoi.index] = this;
+        updatePositions(position);
+        if (this.timeWindows) {
+            updateSchedule();
+        }
+        this.modificationCount++;
         this.consumedBudget += cost;
         this.score += insertPoi.score;
-        insertPoi.route = this;
     }
 
     public void removePoi(Poi removePoi) {
@@ -38,161 +137,444 @@ public class Route {
     }
 
     public void removePoi(Poi removePoi, double gain) {
-        this.pois.remove(removePoi);
+        removeAt(getPosition(removePoi));
+        this.poiRoutes[removePoi.index] = null;
         this.consumedBudget -= gain;
         this.score -= removePoi.score;
-        removePoi.route = null;
     }
 
-    public double[] findCheapestInsertion(Poi insertPoi) {
+    private void removeAt(int position) {
+        System.arraycopy(this.stops, position + 1, this.stops, position, this.size - position - 1);
+        this.size--;
+        updatePositions(position);
+        if (this.timeWindows) {
+            updateSchedule();
+        }
+        this.modificationCount++;
+    }
+
+    private void updatePositions(int fromPosition) {
+        for (int i = Math.max(1, fromPosition); i < this.size - 1; i++) {
+            this.poiPositions[this.stops[i]] = i;
+        }
+    }
+
+    // Earliest start times forward from START, slack backward from FINISH. A visit can be delayed by its slack
+    // as long as neither it nor any later visit leaves its current opening interval.
+    private void updateSchedule() {
+        this.firstLatePosition = computeSchedule(this.stops, this.size, this.startTimes, this.waitTimes,
+                                                 this.maxShifts);
+    }
+
+    // Fills the schedule of a visiting order and returns its first late position, -1 if there is none
+    private int computeSchedule(int[] stops, int size, double[] startTimes, double[] waitTimes, double[] maxShifts) {
+        int firstLatePosition = -1;
+        startTimes[0] = this.startTime;
+        waitTimes[0] = 0.0;
+        for (int i = 1; i < size; i++) {
+            double arrival = startTimes[i-1] + this.pois.get(stops[i-1]).consumingBudget +
+                             this.distanceMatrix.get(stops[i-1], stops[i]);
+            double start = this.pois.get(stops[i]).earliestStart(arrival);
+            if (start == Double.POSITIVE_INFINITY) {
+                // Missed all intervals, e.g. after a removal delayed this visit; the slack becomes negative
+                start = arrival;
+                if (firstLatePosition < 0) {
+                    firstLatePosition = i;
+                }
+            }
+            startTimes[i] = start;
+            waitTimes[i] = start - arrival;
+        }
+        int last = size - 1;
+        maxShifts[last] = this.pois.get(stops[last]).latestStart(startTimes[last]) - startTimes[last];
+        for (int i = last - 1; i >= 0; i--) {
+            maxShifts[i] = Math.min(this.pois.get(stops[i]).latestStart(startTimes[i]) - startTimes[i],
+                                    waitTimes[i+1] + maxShifts[i+1]);
+        }
+        return firstLatePosition;
+    }
+
+    private double departureTime(int position) {
+        return this.startTimes[position] + consumingBudget(position);
+    }
+
+    // Whether visiting insertPoi between the given positions keeps all opening hours, in constant time.
+    // Delaying the next visit is fine as long as the new arrival does not exceed its start plus its slack.
+    private boolean canInsert(Poi insertPoi, int previousPosition, int nextPosition) {
+        return canInsert(insertPoi, this.stops, this.startTimes, this.maxShifts, previousPosition, nextPosition);
+    }
+
+    private boolean canInsert(Poi insertPoi, int[] stops, double[] startTimes, double[] maxShifts,
+                              int previousPosition, int nextPosition) {
+        double departure = startTimes[previousPosition] + this.pois.get(stops[previousPosition]).consumingBudget;
+        double start = insertPoi.earliestStart(departure +
+                                               this.distanceMatrix.get(stops[previousPosition], insertPoi.index));
+        if (start == Double.POSITIVE_INFINITY) {
+            return false;
+        }
+        double nextArrival = start + insertPoi.consumingBudget +
+                             this.distanceMatrix.get(insertPoi.index, stops[nextPosition]);
+        return nextArrival <= startTimes[nextPosition] + maxShifts[nextPosition];
+    }
+
+    public boolean canInsert(Poi insertPoi, int position) {
+        return !this.timeWindows || canInsert(insertPoi, position - 1, position);
+    }
+
+    // Removing a visit can delay later ones where travel times violate the triangle inequality
+    public boolean canRemove(Poi removePoi) {
+        if (!this.timeWindows) {
+            return true;
+        }
+        int position = getPosition(removePoi);
+        double nextArrival = departureTime(position - 1) +
+                             this.distanceMatrix.get(this.stops[position - 1], this.stops[position + 1]);
+        return nextArrival <= this.startTimes[position + 1] + this.maxShifts[position + 1];
+    }
+
+    // Whether replacing the POI at removePosition by insertPoi at insertPosition of the shortened route keeps all
+    // opening hours. Linear time; findCheapestReplace() schedules the shortened route once for all positions.
+    public boolean canReplace(int removePosition, Poi insertPoi, int insertPosition) {
+        return !this.timeWindows || (scheduleWithout(removePosition) &&
+                                     canInsertWithout(insertPoi, insertPosition - 1, insertPosition));
+    }
+
+    // Schedules the route without the POI at removePosition into the replace arrays and returns whether it keeps
+    // all opening hours. Inserting only delays later visits, so if it does not no replacement can.
+    private boolean scheduleWithout(int removePosition) {
+        if (this.replaceStops == null || this.replaceStops.length < this.stops.length) {
+            this.replaceStops = new int[this.stops.length];
+            this.replaceStartTimes = new double[this.stops.length];
+            this.replaceWaitTimes = new double[this.stops.length];
+            this.replaceMaxShifts = new double[this.stops.length];
+        }
+        System.arraycopy(this.stops, 0, this.replaceStops, 0, removePosition);
+        System.arraycopy(this.stops, removePosition + 1, this.replaceStops, removePosition,
+                         this.size - removePosition - 1);
+        return computeSchedule(this.replaceStops, this.size - 1, this.replaceStartTimes, this.replaceWaitTimes,
+                               this.replaceMaxShifts) < 0;
+    }
+
+    // canInsert() into the route last scheduled by scheduleWithout()
+    private boolean canInsertWithout(Poi insertPoi, int previousPosition, int nextPosition) {
+        return canInsert(insertPoi, this.replaceStops, this.replaceStartTimes, this.replaceMaxShifts,
+                         previousPosition, nextPosition);
+    }
+
+    // Simulates a visiting order from scratch; always true without time windows
+    public boolean isTimeFeasible(int[] stops, int size) {
+        if (!this.timeWindows) {
+            return true;
+        }
+        double start = this.startTime;
+        for (int i = 1; i < size; i++) {
+            Poi previousPoi = this.pois.get(stops[i-1]);
+            start = this.pois.get(stops[i]).earliestStart(start + previousPoi.consumingBudget +
+                                                          this.distanceMatrix.get(stops[i-1], stops[i]));
+            if (start == Double.POSITIVE_INFINITY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isTimeFeasible() {
+        return this.firstLatePosition < 0;
+    }
+
+    // Removes visits until the route keeps all opening hours again and returns the removed POIs
+    public ArrayList<Poi> removeLateVisits() {
+        ArrayList<Poi> removedPois = new ArrayList<Poi>();
+        while (this.firstLatePosition > 0 && this.size > 2) {
+            Poi removePoi = getPoi(Math.min(this.firstLatePosition, this.size - 2));
+            removePoi(removePoi);
+            removedPois.add(removePoi);
+        }
+        return removedPois;
+    }
+
+    private int[] scratchStops(int size) {
+        if (this.tmpStops == null || this.tmpStops.length < size) {
+            this.tmpStops = new int[this.stops.length];
+        }
+        return this.tmpStops;
+    }
+
+    private double consumingBudget(int position) {
+        return getPoi(position).consumingBudget;
+    }
+
+    private double distance(int fromPosition, int toPosition) {
+        return this.distanceMatrix.get(this.stops[fromPosition], this.stops[toPosition]);
+    }
+
+    // Leaves the cost and position of the cheapest insertion in insertCost and insertPosition
+    public void findCheapestInsertion(Poi insertPoi) {
         double insertCost = Double.MAX_VALUE;
         int insertPosition = 0;
-        for (int i = 1; i < this.pois.size(); i++) {
-            double newCost = getInsertionCost(this.pois,insertPoi,i);
-            if (newCost < insertCost) {
+        for (int i = 1; i < this.size; i++) {
+            double newCost = getInsertionCost(insertPoi,i);
+            if (newCost < insertCost && (!this.timeWindows || canInsert(insertPoi, i - 1, i))) {
                 insertCost = newCost;
                 insertPosition = i;
 
             }
         }
 
-        double[] returnArray = new double[]{insertCost, (double)insertPosition};
-        return returnArray;
+        this.insertCost = insertCost;
+        this.insertPosition = insertPosition;
     }
 
-    public double[] findCheapestReplace(Poi removePoi, Poi insertPoi) {
-
-        double removeGain = getDelitionGain(removePoi);
-
-        // Temporarily remove removePoi from the list to calculate replace cost (remember original position)
-        int originalPosition = this.pois.indexOf(removePoi);
-        this.pois.remove(removePoi);
+    // Cost of findCheapestInsertion() without touching the result fields, so routes can be evaluated concurrently
+    public double getCheapestInsertionCost(Poi insertPoi) {
+        double insertCost = Double.MAX_VALUE;
+        for (int i = 1; i < this.size; i++) {
+            double newCost = getInsertionCost(insertPoi,i);
+            if (newCost < insertCost && (!this.timeWindows || canInsert(insertPoi, i - 1, i))) {
+                insertCost = newCost;
+            }
+        }
+        return insertCost;
+    }
 
-        double[] r = findCheapestInsertion(insertPoi);
-        double insertCost = r[0];
-        int insertPosition = (int) r[1];
+    // Leaves the removal gain of removePoi in removeGain, and the cost and position of the cheapest insertion of
+    // insertPoi into the route without it in insertCost and insertPosition
+    public void findCheapestReplace(Poi removePoi, Poi insertPoi) {
+        int removePosition = getPosition(removePoi);
+        double removeGain = getDelitionGain(removePosition);
 
-        // Put removePoi back to list
-        this.pois.add(originalPosition, removePoi);
+        // Scan the positions of the route as if removePoi was already taken out
+        double insertCost = Double.MAX_VALUE;
+        int insertPosition = 0;
+        boolean feasible = !this.timeWindows || scheduleWithout(removePosition);
+        for (int i = 1; feasible && i < this.size - 1; i++) {
+            int previous = i - 1 < removePosition ? i - 1 : i;
+            int next = i < removePosition ? i : i + 1;
+            double newCost = getInsertionCost(insertPoi, previous, next);
+            if (newCost < insertCost && (!this.timeWindows || canInsertWithout(insertPoi, i - 1, i))) {
+                insertCost = newCost;
+                insertPosition = i;
+            }
+        }
 
-        double[] returnArray = new double[]{removeGain, insertCost, (double) insertPosition};
-        return returnArray;
+        this.removeGain = removeGain;
+        this.insertCost = insertCost;
+        this.insertPosition = insertPosition;
     }
 
-    public double computeTotalScore(ArrayList<Poi> pois) {
+    public double computeTotalScore() {
         double score = 0.0;
-        for (Poi includedPoi : pois) {
-            score += includedPoi.score;
+        for (int i = 0; i < this.size; i++) {
+            score += getPoi(i).score;
         }
         return score;
     }
 
-    public double computeTotalConsumedBudget(ArrayList<Poi> pois) {
+    public double computeTotalConsumedBudget() {
+        return computeTotalConsumedBudget(this.stops, this.size);
+    }
+
+    public double computeTotalConsumedBudget(int[] stops, int size) {
         double consumedBudget = 0.0;
-        for (int i = 0; i < pois.size()-1; i++) {
-            Poi currentPoi = pois.get(i);
-            Poi nextPoi = pois.get(i+1);
-            consumedBudget += currentPoi.consumingBudget + currentPoi.getDistanceFromPoi(nextPoi.poiId);
+        for (int i = 0; i < size-1; i++) {
+            consumedBudget += this.pois.get(stops[i]).consumingBudget + this.distanceMatrix.get(stops[i], stops[i+1]);
         }
-        Poi lastPoi = pois.get(pois.size()-1);
-        consumedBudget += lastPoi.consumingBudget;
+        consumedBudget += this.pois.get(stops[size-1]).consumingBudget;
         return consumedBudget;
     }
 
-    public double getInsertionCost(ArrayList<Poi> pois, Poi insertPoi, int position) {
-        Poi previousPoi = pois.get(position-1);
-        Poi nextPoi = pois.get(position);
-        double cost = previousPoi.getDistanceFromPoi(insertPoi.poiId) +
-                      insertPoi.getDistanceFromPoi(nextPoi.poiId) -
-                      previousPoi.getDistanceFromPoi(nextPoi.poiId) +
+    public double getInsertionCost(Poi insertPoi, int position) {
+        return getInsertionCost(insertPoi, position-1, position);
+    }
+
+    // Cost of visiting insertPoi between the POIs at two positions of the route
+    private double getInsertionCost(Poi insertPoi, int previousPosition, int nextPosition) {
+        int previous = this.stops[previousPosition];
+        int next = this.stops[nextPosition];
+        double cost = this.distanceMatrix.get(previous, insertPoi.index) +
+                      this.distanceMatrix.get(insertPoi.index, next) -
+                      this.distanceMatrix.get(previous, next) +
                       insertPoi.consumingBudget;
         return cost;
     }
 
     public double getDelitionGain(Poi removePoi) {
-        int position = this.pois.indexOf(removePoi);
-        Poi previousPoi = this.pois.get(position-1);
-        Poi nextPoi = this.pois.get(position+1);
-        double gain = previousPoi.getDistanceFromPoi(removePoi.poiId) +
-                      removePoi.getDistanceFromPoi(nextPoi.poiId) +
-                      removePoi.consumingBudget -
-                      previousPoi.getDistanceFromPoi(nextPoi.poiId);
+        return getDelitionGain(getPosition(removePoi));
+    }
+
+    public double getDelitionGain(int position) {
+        int removed = this.stops[position];
+        int previous = this.stops[position-1];
+        int next = this.stops[position+1];
+        double gain = this.distanceMatrix.get(previous, removed) +
+                      this.distanceMatrix.get(removed, next) +
+                      this.pois.get(removed).consumingBudget -
+                      this.distanceMatrix.get(previous, next);
         return gain;
     }
 
-    public double[] computeRouteCOG() {
+    // Score-weighted centre of gravity of the route, left in cogLat and cogLng
+    public void computeRouteCOG() {
         double cogX = 0.0;
         double cogY = 0.0;
 
-        for (Poi includedPoi : this.pois) {
+        for (int i = 0; i < this.size; i++) {
+            Poi includedPoi = getPoi(i);
             cogX += includedPoi.score * includedPoi.lat;
             cogY += includedPoi.score * includedPoi.lng;
         }
-        double[] cog = new double[]{cogX/this.score, cogY/this.score};
+        this.cogLat = cogX/this.score;
+        this.cogLng = cogY/this.score;
         if (this.score == 0.0) {
-            cog[0] = 0.0;
-            cog[1] = 0.0;
+            this.cogLat = 0.0;
+            this.cogLng = 0.0;
         }
-        return cog;
     }
 
     public void tsp() {
-        double consumedBudget = computeTotalConsumedBudget(this.pois);
-        ArrayList<Poi> tmpPois = (ArrayList<Poi>) this.pois.clone();
+        double consumedBudget = computeTotalConsumedBudget();
+        int[] tmpStops = scratchStops(this.size);
+        System.arraycopy(this.stops, 0, tmpStops, 0, this.size);
         boolean edgeSwaped = true;
 
+        // With direction dependent travel times the reversed segment costs differently, which is priced through
+        // prefix sums of the tour travelled forwards and backwards
+        boolean symmetric = this.distanceMatrix.isSymmetric();
+        double[] forwardPrefix = symmetric ? null : new double[this.size];
+        double[] backwardPrefix = symmetric ? null : new double[this.size];
+        if (!symmetric) {
+            computePrefixes(tmpStops, forwardPrefix, backwardPrefix);
+        }
+
         while (edgeSwaped) {
             edgeSwaped = false;
-            for (int i = 1; i < tmpPois.size()-1; i++) {
-                for (int k = i+1; k < tmpPois.size()-1; k++) {
-                    double oldDistance = tmpPois.get(i-1).getDistanceFromPoi(tmpPois.get(i).poiId) +
-                                         tmpPois.get(k).getDistanceFromPoi(tmpPois.get(k+1).poiId);
-                    double newDistance = tmpPois.get(i-1).getDistanceFromPoi(tmpPois.get(k).poiId) +
-                                         tmpPois.get(i).getDistanceFromPoi(tmpPois.get(k+1).poiId);
-
-                    if (newDistance < oldDistance) {
-                        twoOpt(tmpPois,i,k);
-                        edgeSwaped = true;
+            for (int i = 1; i < this.size-1; i++) {
+                for (int k = i+1; k < this.size-1; k++) {
+                    double oldDistance = this.distanceMatrix.get(tmpStops[i-1], tmpStops[i]) +
+                                         this.distanceMatrix.get(tmpStops[k], tmpStops[k+1]);
+                    double newDistance = this.distanceMatrix.get(tmpStops[i-1], tmpStops[k]) +
+                                         this.distanceMatrix.get(tmpStops[i], tmpStops[k+1]);
+
+                    if (symmetric) {
+                        if (newDistance < oldDistance) {
+                            twoOpt(tmpStops,i,k);
+                            edgeSwaped = true;
+                        }
+                    } else {
+                        oldDistance += forwardPrefix[k] - forwardPrefix[i];
+                        newDistance += backwardPrefix[k] - backwardPrefix[i];
+                        // Prefix differences carry rounding noise that must not make reversals cycle
+                        if (newDistance < oldDistance - ASYMMETRIC_MIN_IMPROVEMENT) {
+                            twoOpt(tmpStops,i,k);
+                            computePrefixes(tmpStops, forwardPrefix, backwardPrefix);
+                            edgeSwaped = true;
+                        }
                     }
                 }
             }
         }
 
-        double tempBudget = computeTotalConsumedBudget(tmpPois);
-        if (tempBudget < consumedBudget) {
-            this.pois = tmpPois;
+        double tempBudget = computeTotalConsumedBudget(tmpStops, this.size);
+        if (tempBudget < consumedBudget && isTimeFeasible(tmpStops, this.size)) {
+            System.arraycopy(tmpStops, 0, this.stops, 0, this.size);
+            updatePositions(0);
+            if (this.timeWindows) {
+                updateSchedule();
+            }
+            this.consumedBudget = tempBudget;
+            this.modificationCount++;
         }
 
     }
 
+    // forwardPrefix[p] is the travel time from position 0 to p, backwardPrefix[p] the time of the same edges
+    // travelled in the opposite direction
+    private void computePrefixes(int[] stops, double[] forwardPrefix, double[] backwardPrefix) {
+        for (int p = 1; p < this.size; p++) {
+            forwardPrefix[p] = forwardPrefix[p-1] + this.distanceMatrix.get(stops[p-1], stops[p]);
+            backwardPrefix[p] = backwardPrefix[p-1] + this.distanceMatrix.get(stops[p], stops[p-1]);
+        }
+    }
+
+    // Replaces the visiting order, e.g. after intra-route optimization, and recomputes the consumed budget
+    public void reorder(int[] stops) {
+        System.arraycopy(stops, 0, this.stops, 0, this.size);
+        updatePositions(0);
+        if (this.timeWindows) {
+            updateSchedule();
+        }
+        this.consumedBudget = computeTotalConsumedBudget();
+        this.modificationCount++;
+    }
+
+    // Replaces all stops, START and FINISH included, by the given matrix indices, e.g. to go back to a snapshot
+    public void assignStops(int[] stops) {
+        for (int i = 1; i < this.size - 1; i++) {
+            if (this.poiRoutes[this.stops[i]] == this) {
+                this.poiRoutes[this.stops[i]] = null;
+            }
+        }
+        if (stops.length > this.stops.length) {
+            int capacity = Math.max(stops.length, this.stops.length * 2);
+            this.stops = new int[capacity];
+            if (this.timeWindows) {
+                this.startTimes = new double[capacity];
+                this.waitTimes = new double[capacity];
+                this.maxShifts = new double[capacity];
+            }
+        }
+        System.arraycopy(stops, 0, this.stops, 0, stops.length);
+        this.size = stops.length;
+        for (int i = 1; i < this.size - 1; i++) {
+            this.poiRoutes[this.stops[i]] = this;
+        }
+        updatePositions(0);
+        if (this.timeWindows) {
+            updateSchedule();
+        }
+        this.consumedBudget = computeTotalConsumedBudget();
+        this.score = computeTotalScore();
+        this.modificationCount++;
+    }
+
+    // Removes POIs from the start or the end of the route, keeping consumed budget and score up to date
     public ArrayList<Poi> disturb(double percentage, boolean fromStart) {
-        int removeCount = (int)((this.pois.size()-2)*percentage);
+        int removeCount = (int)((this.size-2)*percentage);
         ArrayList<Poi> removedPois = new ArrayList<Poi>();
         Poi removePoi;
 
         int counter = 0;
         while (counter < removeCount) {
-            if (fromStart) {
-                removePoi = this.pois.get(1);
-            } else {
-                removePoi = this.pois.get(this.pois.size() - 2);
-            }
+            removePoi = getPoi(fromStart ? 1 : this.size - 2);
             removedPois.add(removePoi);
-            this.pois.remove(removePoi);
-            this.score -= removePoi.score;
+            removePoi(removePoi);
             counter++;
         }
 
         return removedPois;
     }
 
-    public void twoOpt(ArrayList<Poi> pois, int i, int k) {
+    // Removes POIs at random positions, keeping consumed budget and score up to date
+    public ArrayList<Poi> disturb(double percentage, Random random) {
+        int removeCount = (int)((this.size-2)*percentage);
+        ArrayList<Poi> removedPois = new ArrayList<Poi>();
+
+        for (int counter = 0; counter < removeCount; counter++) {
+            Poi removePoi = getPoi(1 + random.nextInt(this.size - 2));
+            removePoi(removePoi);
+            removedPois.add(removePoi);
+        }
+
+        return removedPois;
+    }
+
+    public void twoOpt(int[] stops, int i, int k) {
         int l = k;
         int limit = i + ((k - i) / 2);
         for (int j = i; j <= limit; j++) {
-            Poi tmpPoi = pois.get(j);
-            pois.set(j,pois.get(l));
-            pois.set(l,tmpPoi);
+            int tmpStop = stops[j];
+            stops[j] = stops[l];
+            stops[l] = tmpStop;
             l--;
         }
     }
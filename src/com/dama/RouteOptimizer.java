@@ -0,0 +1,11 @@
+package com.dama;
+
+/**
+ * Reorders the POIs of a single route to reduce its travel time. START and FINISH stay in place.
+ * Implementations are shared by solver trajectories running in parallel, so they must not keep per-call state.
+ */
+public interface RouteOptimizer {
+
+    void optimize(Route route);
+
+}
@@ -0,0 +1,25 @@
+package com.dama;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of the solution score after one local search iteration of an instrumented solver run.
+ */
+@Name("com.dama.Score")
+@Label("Solver Score")
+@Category("Route Solver")
+@Description("Solution score after a local search iteration")
+class ScoreEvent extends jdk.jfr.Event {
+
+    @Label("Algorithm Loop")
+    int algLoop;
+
+    @Label("Local Search Loop")
+    int lsLoop;
+
+    @Label("Score")
+    double score;
+}
@@ -0,0 +1,13 @@
+package com.dama;
+
+import java.util.ArrayList;
+
+/**
+ * Receives every solution that improves on the best one reported so far during a solver run, e.g. to stream
+ * progressively better itineraries before the run finishes. Reported scores are strictly increasing.
+ */
+public interface SolutionListener {
+
+    // routes holds the POI ids of every route, START and FINISH included, and must not be modified
+    void solutionImproved(double score, ArrayList<ArrayList<String>> routes);
+}
@@ -0,0 +1,40 @@
+package com.dama;
+
+import java.util.ArrayList;
+
+/**
+ * Change of a live itinerary for TopSolver.resolve(): POIs that were visited or closed, a new current location
+ * that replaces START, and a new available budget. Parts that were not set stay as they are.
+ */
+public class SolutionUpdate {
+
+    ArrayList<String> removedPoiIds;
+    boolean startChanged;
+    double startLat;
+    double startLng;
+    boolean budgetChanged;
+    double availableBudget;
+
+    SolutionUpdate() {
+        this.removedPoiIds = new ArrayList<String>();
+    }
+
+    // The POI is dropped from the itinerary and never offered again by this solver
+    public void removePoi(String poiId) {
+        this.removedPoiIds.add(poiId);
+    }
+
+    public void setStart(double startLat, double startLng) {
+        this.startChanged = true;
+        this.startLat = startLat;
+        this.startLng = startLng;
+    }
+
+    public void setAvailableBudget(double availableBudget) {
+        if (availableBudget < 0.0) {
+            throw new IllegalArgumentException("Available budget must not be negative, got " + availableBudget);
+        }
+        this.budgetChanged = true;
+        this.availableBudget = availableBudget;
+    }
+}
@@ -0,0 +1,111 @@
+package com.dama;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Re-runs a recorded solve trace and reports the time per phase next to the recorded one: building the catalogue
+ * and its matrix, every operator, and the whole search. The replay records its operator calls again, so it also
+ * tells whether it repeated the recorded solve or where it first left it. Traces are captured by solving with a
+ * SolverConfig trace file.
+ *
+ * Usage: SolveReplay trace-file [repetitions] [travel-time-matrix-file]. Without a matrix file travel times are
+ * great-circle times at the recorded walking speed, which only repeats solves recorded with those.
+ */
+public class SolveReplay {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: SolveReplay trace-file [repetitions] [travel-time-matrix-file]");
+            System.exit(2);
+        }
+        SolveTrace trace = SolveTrace.read(new File(args[0]));
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("Repetitions must be positive, got " + repetitions);
+        }
+        TravelTimeProvider travelTimeProvider = null;
+        if (args.length > 2) {
+            travelTimeProvider = MatrixTravelTimeProvider.load(new File(args[2]),
+                                                               new HaversineTravelTimeProvider(trace.walkingSpeed));
+        } else if (!trace.travelTimeProvider.equals(HaversineTravelTimeProvider.class.getName())) {
+            System.err.println("Recorded with " + trace.travelTimeProvider + ", replaying with great-circle times");
+        }
+
+        SolverConfig config = trace.config;
+        System.out.println(String.format("%s: %d POIs, %d routes, budget %.1f, %s with %d x %d loops, seed %d",
+                                         args[0], trace.getPoiCount(), trace.routeCount, trace.availableBudget,
+                                         config.algorithm, config.maxAlgLoop, config.maxLSLoop, config.seed));
+        for (int repetition = 0; repetition < repetitions; repetition++) {
+            long start = System.nanoTime();
+            PoiCatalogue catalogue = trace.newCatalogue(travelTimeProvider);
+            long catalogueNanos = System.nanoTime() - start;
+
+            TopSolver topSolver = trace.newSolver(catalogue);
+            topSolver.collectStats = true;
+            topSolver.recordCalls = true;
+            config.solve(topSolver);
+            report(repetition, catalogueNanos, trace, topSolver);
+        }
+    }
+
+    private static void report(int repetition, long catalogueNanos, SolveTrace trace, TopSolver topSolver) {
+        SolverStats recorded = trace.stats;
+        SolverStats replayed = topSolver.getStats();
+        System.out.println(String.format("Replay %d%n  %-9s %9s %9.1f ms", repetition + 1, "catalogue", "",
+                                         catalogueNanos / 1e6));
+        for (SolverStats.Operator operator : SolverStats.Operator.values()) {
+            if (recorded.getOperatorCalls(operator) == 0 && replayed.getOperatorCalls(operator) == 0) {
+                continue;
+            }
+            System.out.println(String.format("  %-9s %9.1f ms %9.1f ms %7d calls",
+                                             operator.name().toLowerCase(),
+                                             recorded.getOperatorNanos(operator) / 1e6,
+                                             replayed.getOperatorNanos(operator) / 1e6,
+                                             replayed.getOperatorCalls(operator)));
+        }
+        System.out.println(String.format("  %-9s %9.1f ms %9.1f ms", "run", recorded.getRunNanos() / 1e6,
+                                         replayed.getRunNanos() / 1e6));
+
+        int divergence = findDivergence(recorded, replayed);
+        if (divergence < 0 && topSolver.solutionScore == trace.solutionScore) {
+            System.out.println(String.format("  Repeated the recorded solve: %d calls, score %.6f",
+                                             replayed.getCallCount(), topSolver.solutionScore));
+        } else if (divergence < 0) {
+            System.out.println(String.format("  Repeated the recorded calls but scored %.6f instead of %.6f",
+                                             topSolver.solutionScore, trace.solutionScore));
+        } else {
+            System.out.println(String.format("  Left the recorded solve at call %d of %d: %s, score %.6f, " +
+                                             "recorded %s, score %.6f",
+                                             divergence + 1, recorded.getCallCount(),
+                                             describeCall(replayed, divergence), scoreOf(replayed, divergence),
+                                             describeCall(recorded, divergence), scoreOf(recorded, divergence)));
+        }
+    }
+
+    // Index of the first call that differs in operator, moves or score, or -1 if both logs are the same
+    private static int findDivergence(SolverStats recorded, SolverStats replayed) {
+        int callCount = Math.min(recorded.getCallCount(), replayed.getCallCount());
+        for (int i = 0; i < callCount; i++) {
+            if (recorded.getCallOperator(i) != replayed.getCallOperator(i) ||
+                    recorded.getCallEvaluations(i) != replayed.getCallEvaluations(i) ||
+                    recorded.getCallAcceptances(i) != replayed.getCallAcceptances(i) ||
+                    recorded.getCallScore(i) != replayed.getCallScore(i)) {
+                return i;
+            }
+        }
+        return recorded.getCallCount() == replayed.getCallCount() ? -1 : callCount;
+    }
+
+    private static String describeCall(SolverStats stats, int i) {
+        if (i >= stats.getCallCount()) {
+            return "no call";
+        }
+        return String.format("%s %d/%d", stats.getCallOperator(i).name().toLowerCase(),
+                             stats.getCallAcceptances(i), stats.getCallEvaluations(i));
+    }
+
+    private static double scoreOf(SolverStats stats, int i) {
+        return i < stats.getCallCount() ? stats.getCallScore(i) : Double.NaN;
+    }
+}
@@ -0,0 +1,34 @@
+package com.dama;
+
+/**
+ * Parameters of one itinerary request over a shared catalogue.
+ */
+public class SolveRequest {
+
+    int routeCount;
+    double availableBudget;
+    double startLat;
+    double startLng;
+    double finishLat;
+    double finishLng;
+    int maxAlgLoop;
+    int maxLSLoop;
+
+    SolveRequest(int routeCount,
+                 double availableBudget,
+                 double startLat,
+                 double startLng,
+                 double finishLat,
+                 double finishLng,
+                 int maxAlgLoop,
+                 int maxLSLoop) {
+        this.routeCount = routeCount;
+        this.availableBudget = availableBudget;
+        this.startLat = startLat;
+        this.startLng = startLng;
+        this.finishLat = finishLat;
+        this.finishLng = finishLng;
+        this.maxAlgLoop = maxAlgLoop;
+        this.maxLSLoop = maxLSLoop;
+    }
+}
@@ -0,0 +1,36 @@
+package com.dama;
+
+import java.util.ArrayList;
+
+/**
+ * Best solution found for a request: its score and the POI ids of every route, START and FINISH included, and the
+ * solver statistics if the run was instrumented.
+ */
+public class SolveResult {
+
+    SolveRequest request;
+    double solutionScore;
+    ArrayList<ArrayList<String>> solutionRoutes;
+    SolverStats stats;
+
+    SolveResult(SolveRequest request, double solutionScore, ArrayList<ArrayList<String>> solutionRoutes,
+                SolverStats stats) {
+        this.request = request;
+        this.solutionScore = solutionScore;
+        this.solutionRoutes = solutionRoutes;
+        this.stats = stats;
+    }
+
+    public double getSolutionScore() {
+        return this.solutionScore;
+    }
+
+    public ArrayList<ArrayList<String>> getSolutionRoutes() {
+        return this.solutionRoutes;
+    }
+
+    // Null unless the solver collected statistics
+    public SolverStats getStats() {
+        return this.stats;
+    }
+}
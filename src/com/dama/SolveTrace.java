@@ -0,0 +1,294 @@
+package com.dama;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Everything needed to repeat one solve offline: the catalogue POIs in the solver's order, the request, the solver
+ * configuration with its seed, and what the recorded solve did, i.e. every operator call with its time, moves and
+ * score, the score after every local search iteration and the best solution. The POI order matters, matrix indices
+ * and so ties between equal moves follow it.
+ *
+ * Travel times are not stored. A replay recomputes them from the POI coordinates unless it is given the provider
+ * of the recorded solve, whose name the trace keeps.
+ *
+ * File layout (little endian): magic, version, request, configuration, then POI count and one record per POI (the
+ * UTF-8 id prefixed by its unsigned short length, latitude, longitude, score, consuming budget, and the number of
+ * time window bounds followed by the bounds), the per-operator totals, the call log (operator byte, nanos,
+ * evaluations, acceptances, score), the score timeline and the best solution as matrix indices per route.
+ */
+public class SolveTrace {
+
+    static final int MAGIC = 0x5254534c; // "LSTR"
+    static final int VERSION = 1;
+    static final int BUFFER_SIZE = 1 << 16;
+    static final int MAX_ID_LENGTH = 0xffff;
+    static final int MAX_WINDOW_BOUNDS = 0xffff;
+
+    // Request
+    ArrayList<Poi> pois;
+    double walkingSpeed;
+    String travelTimeProvider;
+    int routeCount;
+    double availableBudget;
+    double startLat;
+    double startLng;
+    double finishLat;
+    double finishLng;
+    double startTime;
+    SolverConfig config;
+
+    // Recorded solve
+    SolverStats stats;
+    double solutionScore;
+    int[][] solutionStops;
+
+    SolveTrace() {
+    }
+
+    // Runs the configuration on a solver that has not run yet and records the solve. The recorded configuration is
+    // made deterministic, so that replays of its seed repeat ALNS runs too.
+    static SolveTrace record(TopSolver topSolver, SolverConfig config) throws InterruptedException {
+        SolveTrace trace = new SolveTrace();
+        trace.pois = new ArrayList<Poi>(topSolver.pois.subList(0, topSolver.pois.size() - 2));
+        trace.walkingSpeed = topSolver.walkingSpeed;
+        trace.travelTimeProvider = topSolver.travelTimeProvider.getClass().getName();
+        trace.routeCount = topSolver.routeCount;
+        trace.availableBudget = topSolver.availableBudget;
+        trace.startLat = topSolver.startPoi.lat;
+        trace.startLng = topSolver.startPoi.lng;
+        trace.finishLat = topSolver.finishPoi.lat;
+        trace.finishLng = topSolver.finishPoi.lng;
+        trace.startTime = topSolver.startTime;
+        trace.config = new SolverConfig(config);
+        trace.config.deterministic = true;
+        trace.config.traceFile = null;
+
+        topSolver.collectStats = true;
+        topSolver.recordCalls = true;
+        trace.config.solve(topSolver);
+        trace.stats = topSolver.getStats();
+        trace.solutionScore = topSolver.solutionScore;
+        trace.solutionStops = topSolver.solutionStops;
+        return trace;
+    }
+
+    // Catalogue of the recorded POIs, with travel times of the given provider or, if null, great-circle times
+    PoiCatalogue newCatalogue(TravelTimeProvider travelTimeProvider) {
+        if (travelTimeProvider == null) {
+            return new PoiCatalogue(this.pois, this.walkingSpeed);
+        }
+        return new PoiCatalogue(this.pois, this.walkingSpeed, travelTimeProvider);
+    }
+
+    // Solver for the recorded request over the catalogue, which must have been built by newCatalogue()
+    TopSolver newSolver(PoiCatalogue catalogue) {
+        TopSolver topSolver = new TopSolver(this.routeCount, this.availableBudget, catalogue,
+                                            this.startLat, this.startLng, this.finishLat, this.finishLng);
+        topSolver.setStartTime(this.startTime);
+        return topSolver;
+    }
+
+    public int getPoiCount() {
+        return this.pois.size();
+    }
+
+    public SolverConfig getConfig() {
+        return this.config;
+    }
+
+    public SolverStats getStats() {
+        return this.stats;
+    }
+
+    public double getSolutionScore() {
+        return this.solutionScore;
+    }
+
+    public void write(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            putString(channel, buffer, this.travelTimeProvider);
+            buffer.putDouble(this.walkingSpeed).putInt(this.routeCount).putDouble(this.availableBudget);
+            buffer.putDouble(this.startLat).putDouble(this.startLng).putDouble(this.finishLat).putDouble(this.finishLng);
+            buffer.putDouble(this.startTime);
+
+            SolverConfig config = this.config;
+            buffer.put((byte) config.algorithm.ordinal()).putInt(config.maxAlgLoop).putInt(config.maxLSLoop);
+            buffer.putInt(config.trajectoryCount).putLong(config.seed).put((byte) config.swapMode.ordinal());
+            buffer.putInt(config.neighborCount).put((byte) config.optimizer.ordinal());
+            buffer.putInt(config.constructionCount).putLong(config.timeLimitMillis);
+            buffer.put((byte) (config.deterministic ? 1 : 0));
+
+            buffer.putInt(this.pois.size());
+            for (Poi poi : this.pois) {
+                putString(channel, buffer, poi.poiId);
+                int bounds = poi.timeWindows == null ? 0 : poi.timeWindows.length;
+                if (bounds > MAX_WINDOW_BOUNDS) {
+                    throw new IllegalArgumentException("POI " + poi.poiId + " has too many time windows");
+                }
+                ensure(channel, buffer, 4 * Double.BYTES + Short.BYTES + bounds * Double.BYTES);
+                buffer.putDouble(poi.lat).putDouble(poi.lng).putDouble(poi.score).putDouble(poi.consumingBudget);
+                buffer.putShort((short) bounds);
+                for (int k = 0; k < bounds; k++) {
+                    buffer.putDouble(poi.timeWindows[k]);
+                }
+            }
+
+            SolverStats stats = this.stats;
+            ensure(channel, buffer, Long.BYTES + SolverStats.Operator.values().length * 4 * Long.BYTES);
+            buffer.putLong(stats.runNanos);
+            for (int o = 0; o < SolverStats.Operator.values().length; o++) {
+                buffer.putLong(stats.operatorNanos[o]).putLong(stats.operatorCalls[o]);
+                buffer.putLong(stats.evaluations[o]).putLong(stats.acceptances[o]);
+            }
+            ensure(channel, buffer, Integer.BYTES);
+            buffer.putInt(stats.callCount);
+            for (int i = 0; i < stats.callCount; i++) {
+                ensure(channel, buffer, 1 + 3 * Long.BYTES + Double.BYTES);
+                buffer.put(stats.callOperators[i]).putLong(stats.callNanos[i]);
+                buffer.putLong(stats.callEvaluations[i]).putLong(stats.callAcceptances[i]);
+                buffer.putDouble(stats.callScores[i]);
+            }
+            ensure(channel, buffer, Integer.BYTES);
+            buffer.putInt(stats.traceSize);
+            for (int i = 0; i < stats.traceSize; i++) {
+                ensure(channel, buffer, 2 * Integer.BYTES + Long.BYTES + Double.BYTES);
+                buffer.putInt(stats.traceAlgLoops[i]).putInt(stats.traceLSLoops[i]);
+                buffer.putLong(stats.traceNanos[i]).putDouble(stats.traceScores[i]);
+            }
+
+            ensure(channel, buffer, Double.BYTES + Integer.BYTES);
+            buffer.putDouble(this.solutionScore).putInt(this.solutionStops.length);
+            for (int[] stops : this.solutionStops) {
+                ensure(channel, buffer, Integer.BYTES);
+                buffer.putInt(stops.length);
+                for (int stop : stops) {
+                    ensure(channel, buffer, Integer.BYTES);
+                    buffer.putInt(stop);
+                }
+            }
+            buffer.flip();
+            DistanceMatrixCache.writeFully(channel, buffer);
+        }
+    }
+
+    static SolveTrace read(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(file + " is not a solve trace of version " + VERSION);
+            }
+            SolveTrace trace = new SolveTrace();
+            trace.travelTimeProvider = getString(buffer);
+            trace.walkingSpeed = buffer.getDouble();
+            trace.routeCount = buffer.getInt();
+            trace.availableBudget = buffer.getDouble();
+            trace.startLat = buffer.getDouble();
+            trace.startLng = buffer.getDouble();
+            trace.finishLat = buffer.getDouble();
+            trace.finishLng = buffer.getDouble();
+            trace.startTime = buffer.getDouble();
+
+            SolverConfig config = new SolverConfig(0, 0);
+            config.algorithm = SolverConfig.Algorithm.values()[buffer.get()];
+            config.maxAlgLoop = buffer.getInt();
+            config.maxLSLoop = buffer.getInt();
+            config.trajectoryCount = buffer.getInt();
+            config.seed = buffer.getLong();
+            config.swapMode = SwapEngine.Mode.values()[buffer.get()];
+            config.neighborCount = buffer.getInt();
+            config.optimizer = SolverConfig.Optimizer.values()[buffer.get()];
+            config.constructionCount = buffer.getInt();
+            config.timeLimitMillis = buffer.getLong();
+            config.deterministic = buffer.get() != 0;
+            trace.config = config;
+
+            int poiCount = buffer.getInt();
+            trace.pois = new ArrayList<Poi>(poiCount);
+            for (int i = 0; i < poiCount; i++) {
+                String poiId = getString(buffer);
+                Poi poi = new Poi(poiId, buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+                int bounds = buffer.getShort() & MAX_WINDOW_BOUNDS;
+                if (bounds > 0) {
+                    double[] timeWindows = new double[bounds];
+                    for (int k = 0; k < bounds; k++) {
+                        timeWindows[k] = buffer.getDouble();
+                    }
+                    poi.setTimeWindows(timeWindows);
+                }
+                trace.pois.add(poi);
+            }
+
+            SolverStats stats = new SolverStats();
+            stats.runNanos = buffer.getLong();
+            for (int o = 0; o < SolverStats.Operator.values().length; o++) {
+                stats.operatorNanos[o] = buffer.getLong();
+                stats.operatorCalls[o] = buffer.getLong();
+                stats.evaluations[o] = buffer.getLong();
+                stats.acceptances[o] = buffer.getLong();
+            }
+            int callCount = buffer.getInt();
+            for (int i = 0; i < callCount; i++) {
+                stats.recordCall(SolverStats.Operator.values()[buffer.get()], buffer.getLong(), buffer.getLong(),
+                                 buffer.getLong(), buffer.getDouble());
+            }
+            int traceSize = buffer.getInt();
+            for (int i = 0; i < traceSize; i++) {
+                stats.traceScore(buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getDouble());
+            }
+            trace.stats = stats;
+
+            trace.solutionScore = buffer.getDouble();
+            trace.solutionStops = new int[buffer.getInt()][];
+            for (int r = 0; r < trace.solutionStops.length; r++) {
+                trace.solutionStops[r] = new int[buffer.getInt()];
+                for (int p = 0; p < trace.solutionStops[r].length; p++) {
+                    trace.solutionStops[r][p] = buffer.getInt();
+                }
+            }
+            return trace;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(file + " ends in the middle of the trace", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + " is not a valid solve trace: " + e.getMessage(), e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException(file + " holds an unknown algorithm, operator or mode", e);
+        }
+    }
+
+    private static void putString(FileChannel channel, ByteBuffer buffer, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("POI id " + value + " is too long");
+        }
+        ensure(channel, buffer, Short.BYTES + bytes.length);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & MAX_ID_LENGTH];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Writes out the buffer if fewer than byteCount bytes are left in it
+    private static void ensure(FileChannel channel, ByteBuffer buffer, int byteCount) throws IOException {
+        if (buffer.remaining() >= byteCount) {
+            return;
+        }
+        buffer.flip();
+        DistanceMatrixCache.writeFully(channel, buffer);
+        buffer.clear();
+    }
+}
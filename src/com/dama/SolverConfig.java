@@ -0,0 +1,165 @@
+package com.dama;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How a request is solved: the search algorithm, its loop counts and seed, and every solver setting that changes the
+ * result. Solves with the same configuration, catalogue and request repeat exactly unless a time limit cuts them
+ * short, which is what makes recorded solve traces replayable.
+ */
+public class SolverConfig {
+
+    private static final Logger LOGGER = Logger.getLogger(SolverConfig.class.getName());
+
+    public enum Algorithm {
+        // run(): deterministic iterated local search
+        ITERATED_LOCAL_SEARCH,
+        // runMultiStart(): the deterministic trajectory and randomized ones from seed + trajectory number
+        MULTI_START,
+        // runAlns(): maxAlgLoop destroy and repair iterations drawn from seed
+        ALNS
+    }
+
+    public enum Optimizer {
+        // Route.tsp() 2-opt
+        CLASSIC,
+        // 2-opt with don't-look bits and Or-opt
+        OR_OPT,
+        // Or-opt and additionally 3-opt
+        THREE_OPT
+    }
+
+    Algorithm algorithm;
+    int maxAlgLoop;
+    int maxLSLoop;
+    int trajectoryCount;
+    long seed;
+    SwapEngine.Mode swapMode;
+    int neighborCount;
+    Optimizer optimizer;
+    int constructionCount;
+    // 0 for none
+    long timeLimitMillis;
+    // ALNS adapts its weights to move evaluations instead of CPU time, so that its runs repeat exactly as well.
+    // Recorded solves are always deterministic, see SolveTrace.record().
+    boolean deterministic;
+    // solve() records every solve into this file, null for none
+    File traceFile;
+
+    SolverConfig(int maxAlgLoop, int maxLSLoop) {
+        this.algorithm = Algorithm.ITERATED_LOCAL_SEARCH;
+        this.maxAlgLoop = maxAlgLoop;
+        this.maxLSLoop = maxLSLoop;
+        this.trajectoryCount = 1;
+        this.swapMode = SwapEngine.Mode.FIRST_IMPROVEMENT;
+        this.optimizer = Optimizer.CLASSIC;
+        this.constructionCount = 1;
+    }
+
+    SolverConfig(SolverConfig config) {
+        this.algorithm = config.algorithm;
+        this.maxAlgLoop = config.maxAlgLoop;
+        this.maxLSLoop = config.maxLSLoop;
+        this.trajectoryCount = config.trajectoryCount;
+        this.seed = config.seed;
+        this.swapMode = config.swapMode;
+        this.neighborCount = config.neighborCount;
+        this.optimizer = config.optimizer;
+        this.constructionCount = config.constructionCount;
+        this.timeLimitMillis = config.timeLimitMillis;
+        this.deterministic = config.deterministic;
+        this.traceFile = config.traceFile;
+    }
+
+    public void setAlgorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public void setTrajectoryCount(int trajectoryCount) {
+        if (trajectoryCount < 1) {
+            throw new IllegalArgumentException("Trajectory count must be positive, got " + trajectoryCount);
+        }
+        this.trajectoryCount = trajectoryCount;
+    }
+
+    // Seed of the randomized trajectories, ALNS operator choices and randomized constructions
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setSwapMode(SwapEngine.Mode swapMode) {
+        this.swapMode = swapMode;
+    }
+
+    public void setNeighborCount(int neighborCount) {
+        if (neighborCount < 0) {
+            throw new IllegalArgumentException("Neighbour count must not be negative, got " + neighborCount);
+        }
+        this.neighborCount = neighborCount;
+    }
+
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    public void setConstructionCount(int constructionCount) {
+        if (constructionCount < 1) {
+            throw new IllegalArgumentException("Construction count must be positive, got " + constructionCount);
+        }
+        this.constructionCount = constructionCount;
+    }
+
+    public void setTimeLimit(long timeLimit, TimeUnit unit) {
+        this.timeLimitMillis = unit.toMillis(timeLimit);
+    }
+
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+
+    // Captures a trace of every solve for SolveReplay, overwriting the previous one. A trace that cannot be
+    // written is logged and does not fail the solve.
+    public void setTraceFile(File traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    // Applies the settings to the solver and runs the algorithm
+    public ArrayList<ArrayList<String>> solve(TopSolver topSolver) throws InterruptedException {
+        if (this.traceFile != null) {
+            SolveTrace trace = SolveTrace.record(topSolver, this);
+            try {
+                trace.write(this.traceFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not write solve trace " + this.traceFile, e);
+            }
+            return topSolver.solutionRoutes;
+        }
+
+        topSolver.setSwapMode(this.swapMode);
+        topSolver.setNeighborCount(this.neighborCount);
+        if (this.optimizer == Optimizer.OR_OPT) {
+            topSolver.setRouteOptimizer(new LocalSearchRouteOptimizer(false));
+        } else if (this.optimizer == Optimizer.THREE_OPT) {
+            topSolver.setRouteOptimizer(new LocalSearchRouteOptimizer(true));
+        } else {
+            topSolver.setRouteOptimizer(new ClassicTwoOptOptimizer());
+        }
+        topSolver.setConstructionCount(this.constructionCount, this.seed);
+        topSolver.setTimeLimit(this.timeLimitMillis, TimeUnit.MILLISECONDS);
+        topSolver.deterministic = this.deterministic;
+
+        switch (this.algorithm) {
+            case MULTI_START:
+                return topSolver.runMultiStart(this.maxAlgLoop, this.maxLSLoop, this.trajectoryCount, this.seed);
+            case ALNS:
+                return topSolver.runAlns(this.maxAlgLoop, this.maxLSLoop, this.seed);
+            default:
+                return topSolver.run(this.maxAlgLoop, this.maxLSLoop);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.dama;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embedded HTTP endpoint for itinerary requests.
+ *
+ * POST /solve takes a JSON object with either "catalogue", the id of a registered catalogue, or "pois", an inline
+ * array of {"id", "lat", "lng", "score", "consumingBudget"} objects, together with "routeCount", "availableBudget",
+ * "startLat", "startLng", "finishLat", "finishLng" and optionally "walkingSpeed", "maxAlgLoop", "maxLSLoop" and
+ * "timeLimitMillis". It answers with the score and routes of the best solution found. Request bodies larger than
+ * maxBodyBytes and inline POI sets larger than maxInlinePois are rejected with 413. Inline POIs out of reach of
+ * the request are pruned before their distance matrix is built.
+ *
+ * Requests are handled on virtual threads when the JVM has them (Java 21+) and on a cached thread pool otherwise;
+ * a semaphore bounds the number of concurrent solves to the number of processors. Start and finish are snapped to
+ * a grid, so requests from nearly the same place share a result: identical requests in flight are coalesced
+ * into one solve, and finished results are kept in an LRU cache with a time to live.
+ */
+public class SolverService {
+
+    private static final Logger LOGGER = Logger.getLogger(SolverService.class.getName());
+
+    static final String CONTENT_TYPE = "application/json; charset=utf-8";
+    // About 50 m in latitude
+    static final double DEFAULT_GRID_DEGREES = 0.0005;
+    static final int DEFAULT_CACHE_CAPACITY = 10000;
+    static final long DEFAULT_CACHE_TIME_TO_LIVE_MINUTES = 10;
+    static final double DEFAULT_WALKING_SPEED = 65.0;
+    static final int DEFAULT_MAX_ALG_LOOP = 10;
+    static final int DEFAULT_MAX_LS_LOOP = 10;
+    static final int DEFAULT_MAX_BODY_BYTES = 16 << 20;
+    // The distance matrix grows with the square of the POI count, 20000 POIs take 3.2 GB as doubles
+    static final int DEFAULT_MAX_INLINE_POIS = 20000;
+
+    HttpServer server;
+    ExecutorService executor;
+    Semaphore solvePermits;
+    double gridDegrees;
+    int maxBodyBytes;
+    int maxInlinePois;
+    ConcurrentHashMap<String, PoiCatalogue> catalogues;
+    // Solves in flight by result key, later identical requests wait for them instead of solving again
+    ConcurrentHashMap<String, FutureTask<SolveResult>> inFlight;
+    ResultCache resultCache;
+    // Reuses distance matrices of inline POI sets across requests, may be null. Bounded, as every new inline POI
+    // set adds a file.
+    DistanceMatrixCache distanceMatrixCache;
+
+    SolverService(int port) throws IOException {
+        this(new InetSocketAddress(port), Runtime.getRuntime().availableProcessors(),
+             new ResultCache(DEFAULT_CACHE_CAPACITY, TimeUnit.MINUTES.toNanos(DEFAULT_CACHE_TIME_TO_LIVE_MINUTES)));
+    }
+
+    SolverService(InetSocketAddress address, int maxConcurrentSolves, ResultCache resultCache) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = newRequestExecutor();
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/solve", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleSolve(exchange);
+            }
+        });
+        this.solvePermits = new Semaphore(Math.max(1, maxConcurrentSolves));
+        this.gridDegrees = DEFAULT_GRID_DEGREES;
+        this.maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+        this.maxInlinePois = DEFAULT_MAX_INLINE_POIS;
+        this.catalogues = new ConcurrentHashMap<String, PoiCatalogue>();
+        this.inFlight = new ConcurrentHashMap<String, FutureTask<SolveResult>>();
+        this.resultCache = resultCache;
+    }
+
+    // One virtual thread per request where available, the solves themselves are bounded by solvePermits
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            LOGGER.info("Virtual threads are not available, handling requests on a cached thread pool");
+        } catch (ReflectiveOperationException e) {
+            LOGGER.log(Level.WARNING, "Could not create a virtual thread executor", e);
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    public void registerCatalogue(String catalogueId, PoiCatalogue catalogue) {
+        this.catalogues.put(catalogueId, catalogue);
+    }
+
+    public void setDistanceMatrixCache(DistanceMatrixCache distanceMatrixCache) {
+        if (distanceMatrixCache != null && distanceMatrixCache.maxFiles == 0) {
+            throw new IllegalArgumentException("The distance matrix cache of inline POI sets needs a maximum file count");
+        }
+        this.distanceMatrixCache = distanceMatrixCache;
+    }
+
+    public void setGridDegrees(double gridDegrees) {
+        this.gridDegrees = gridDegrees;
+    }
+
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        if (maxBodyBytes < 1) {
+            throw new IllegalArgumentException("Maximum body size must be positive, got " + maxBodyBytes);
+        }
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public void setMaxInlinePois(int maxInlinePois) {
+        if (maxInlinePois < 1) {
+            throw new IllegalArgumentException("Maximum inline POI count must be positive, got " + maxInlinePois);
+        }
+        this.maxInlinePois = maxInlinePois;
+    }
+
+    public void start() {
+        this.server.start();
+        LOGGER.info("Solver service listening on " + this.server.getAddress());
+    }
+
+    public void stop(int delaySeconds) {
+        this.server.stop(delaySeconds);
+        this.executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    private void handleSolve(HttpExchange exchange) throws IOException {
+        int status = 200;
+        Object response;
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                status = 405;
+                response = error("Only POST is supported");
+            } else {
+                Object request = Json.parse(readBody(exchange, this.maxBodyBytes));
+                if (!(request instanceof Map)) {
+                    throw new IllegalArgumentException("Expected a JSON object");
+                }
+                response = solve((Map<?, ?>) request);
+            }
+        } catch (UnknownCatalogueException e) {
+            status = 404;
+            response = error(e.getMessage());
+        } catch (RequestTooLargeException e) {
+            status = 413;
+            response = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            response = error(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 503;
+            response = error("Interrupted");
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Solve failed", e);
+            status = 500;
+            response = error("Internal error");
+        }
+
+        byte[] body = Json.write(response).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    Map<String, Object> solve(Map<?, ?> request) throws InterruptedException {
+        // Inline POI sets only get their catalogue built when the result is not cached
+        final PoiCatalogue registeredCatalogue;
+        final ArrayList<Poi> inlinePois;
+        final double walkingSpeed;
+        String catalogueKey;
+        if (request.get("catalogue") != null) {
+            String catalogueId = String.valueOf(request.get("catalogue"));
+            registeredCatalogue = this.catalogues.get(catalogueId);
+            if (registeredCatalogue == null) {
+                throw new UnknownCatalogueException("Unknown catalogue " + catalogueId);
+            }
+            inlinePois = null;
+            walkingSpeed = registeredCatalogue.walkingSpeed;
+            if (request.get("walkingSpeed") != null && getDouble(request, "walkingSpeed") != walkingSpeed) {
+                throw new IllegalArgumentException("Catalogue " + catalogueId + " uses walking speed " + walkingSpeed);
+            }
+            catalogueKey = "id:" + catalogueId;
+        } else if (request.get("pois") instanceof List) {
+            registeredCatalogue = null;
+            List<?> poiValues = (List<?>) request.get("pois");
+            if (poiValues.size() > this.maxInlinePois) {
+                throw new RequestTooLargeException("At most " + this.maxInlinePois + " inline POIs are accepted, got " +
+                                                   poiValues.size());
+            }
+            inlinePois = readPois(poiValues);
+            walkingSpeed = request.get("walkingSpeed") != null ? getDouble(request, "walkingSpeed")
+                                                               : DEFAULT_WALKING_SPEED;
+            catalogueKey = "pois:" + computeKey(inlinePois, walkingSpeed);
+        } else {
+            throw new IllegalArgumentException("Either catalogue or pois is required");
+        }
+
+        final int routeCount = getInt(request, "routeCount", -1);
+        final double availableBudget = getDouble(request, "availableBudget");
+        final int maxAlgLoop = getInt(request, "maxAlgLoop", DEFAULT_MAX_ALG_LOOP);
+        final int maxLSLoop = getInt(request, "maxLSLoop", DEFAULT_MAX_LS_LOOP);
+        final int timeLimitMillis = getInt(request, "timeLimitMillis", 0);
+        if (routeCount < 1) {
+            throw new IllegalArgumentException("routeCount must be positive");
+        }
+        long[] cells = new long[]{toCell(getDouble(request, "startLat")), toCell(getDouble(request, "startLng")),
+                                  toCell(getDouble(request, "finishLat")), toCell(getDouble(request, "finishLng"))};
+
+        String key = catalogueKey + "|" + routeCount + "|" + availableBudget + "|" + walkingSpeed + "|" +
+                     cells[0] + "|" + cells[1] + "|" + cells[2] + "|" + cells[3] + "|" +
+                     maxAlgLoop + "|" + maxLSLoop + "|" + timeLimitMillis;
+        SolveResult result = this.resultCache.get(key);
+        boolean cached = result != null;
+        boolean coalesced = false;
+        if (!cached) {
+            // Every request in the same grid cells is solved from the cell centres, so all of them share the result
+            final SolveRequest solveRequest = new SolveRequest(routeCount, availableBudget,
+                                                               fromCell(cells[0]), fromCell(cells[1]),
+                                                               fromCell(cells[2]), fromCell(cells[3]),
+                                                               maxAlgLoop, maxLSLoop);
+            final String resultKey = key;
+            FutureTask<SolveResult> task = new FutureTask<SolveResult>(new Callable<SolveResult>() {
+                @Override
+                public SolveResult call() throws InterruptedException {
+                    // An identical solve may have finished between the cache lookup and putIfAbsent
+                    SolveResult solveResult = resultCache.peek(resultKey);
+                    if (solveResult != null) {
+                        return solveResult;
+                    }
+                    solvePermits.acquire();
+                    try {
+                        PoiCatalogue catalogue = registeredCatalogue != null ? registeredCatalogue
+                                : newInlineCatalogue(inlinePois, walkingSpeed, solveRequest);
+                        solveResult = solve(catalogue, solveRequest, timeLimitMillis);
+                    } finally {
+                        solvePermits.release();
+                    }
+                    resultCache.put(resultKey, solveResult);
+                    return solveResult;
+                }
+            });
+            // Only the task that won putIfAbsent runs, every other request waits for it
+            FutureTask<SolveResult> runningTask = this.inFlight.putIfAbsent(key, task);
+            if (runningTask == null) {
+                try {
+                    task.run();
+                } finally {
+                    this.inFlight.remove(key, task);
+                }
+            } else {
+                task = runningTask;
+                coalesced = true;
+            }
+            try {
+                result = task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Solve failed", e.getCause());
+            }
+        }
+
+        Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put("score", result.solutionScore);
+        response.put("routes", result.solutionRoutes);
+        response.put("cached", cached);
+        response.put("coalesced", coalesced);
+        return response;
+    }
+
+    // Only the inline POIs within reach of the request get into the distance matrix, as in PoiCatalogue.forRequest()
+    private PoiCatalogue newInlineCatalogue(List<Poi> pois, double walkingSpeed, SolveRequest request) {
+        ReachabilityFilter reachabilityFilter = new ReachabilityFilter(request.startLat, request.startLng,
+                                                                       request.finishLat, request.finishLng,
+                                                                       request.availableBudget, walkingSpeed);
+        return new PoiCatalogue(reachabilityFilter.filter(pois), walkingSpeed, this.distanceMatrixCache);
+    }
+
+    private static SolveResult solve(PoiCatalogue catalogue, SolveRequest request, int timeLimitMillis) {
+        TopSolver topSolver = new TopSolver(request.routeCount,
+                                            request.availableBudget,
+                                            catalogue,
+                                            request.startLat,
+                                            request.startLng,
+                                            request.finishLat,
+                                            request.finishLng);
+        topSolver.setTimeLimit(timeLimitMillis, TimeUnit.MILLISECONDS);
+        ArrayList<ArrayList<String>> solutionRoutes = topSolver.run(request.maxAlgLoop, request.maxLSLoop);
+        return new SolveResult(request, topSolver.solutionScore, solutionRoutes, topSolver.getStats());
+    }
+
+    private long toCell(double coordinate) {
+        return Math.round(coordinate / this.gridDegrees);
+    }
+
+    private double fromCell(long cell) {
+        return cell * this.gridDegrees;
+    }
+
+    private static ArrayList<Poi> readPois(List<?> values) {
+        ArrayList<Poi> pois = new ArrayList<Poi>(values.size());
+        for (Object value : values) {
+            if (!(value instanceof Map)) {
+                throw new IllegalArgumentException("Every POI must be a JSON object");
+            }
+            Map<?, ?> poi = (Map<?, ?>) value;
+            Object id = poi.get("id");
+            if (id == null) {
+                throw new IllegalArgumentException("Every POI needs an id");
+            }
+            String poiId = id instanceof Double && (Double) id == Math.rint((Double) id)
+                           ? Long.toString(((Double) id).longValue()) : String.valueOf(id);
+            pois.add(new Poi(poiId, getDouble(poi, "lat"), getDouble(poi, "lng"),
+                             getDouble(poi, "score"), getDouble(poi, "consumingBudget")));
+        }
+        return pois;
+    }
+
+    private static double getDouble(Map<?, ?> object, String name) {
+        Object value = object.get(name);
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+        return (Double) value;
+    }
+
+    private static int getInt(Map<?, ?> object, String name, int defaultValue) {
+        if (object.get(name) == null) {
+            return defaultValue;
+        }
+        double value = getDouble(object, name);
+        if (value != Math.rint(value) || Math.abs(value) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(name + " must be an integer");
+        }
+        return (int) value;
+    }
+
+    // Inline POI sets are identified by everything the result depends on, scores and budgets included
+    static String computeKey(List<Poi> pois, double walkingSpeed) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES * 4);
+        buffer.putInt(pois.size()).putDouble(walkingSpeed);
+        digest.update(buffer.array(), 0, buffer.position());
+        for (Poi poi : pois) {
+            byte[] id = poi.poiId.getBytes(StandardCharsets.UTF_8);
+            buffer.clear();
+            buffer.putInt(id.length);
+            digest.update(buffer.array(), 0, buffer.position());
+            digest.update(id);
+            buffer.clear();
+            buffer.putDouble(poi.lat).putDouble(poi.lng).putDouble(poi.score).putDouble(poi.consumingBudget);
+            digest.update(buffer.array(), 0, buffer.position());
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String readBody(HttpExchange exchange, int maxBytes) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > maxBytes) {
+                    throw new RequestTooLargeException("Request body exceeds " + maxBytes + " bytes");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid Content-Length " + contentLength);
+            }
+        }
+        // Chunked bodies carry no length, so the limit is enforced while reading as well
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        InputStream inputStream = exchange.getRequestBody();
+        for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer)) {
+            if (body.size() + read > maxBytes) {
+                throw new RequestTooLargeException("Request body exceeds " + maxBytes + " bytes");
+            }
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> error = new LinkedHashMap<String, Object>();
+        error.put("error", message);
+        return error;
+    }
+
+    static class UnknownCatalogueException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        UnknownCatalogueException(String message) {
+            super(message);
+        }
+    }
+
+    static class RequestTooLargeException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        RequestTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        new SolverService(port).start();
+    }
+}
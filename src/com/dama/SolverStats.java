@@ -0,0 +1,247 @@
+package com.dama;
+
+import java.util.Arrays;
+
+/**
+ * Instrumentation of a solver run: wall time, calls, move evaluations and accepted moves per operator, and the
+ * solution score after every local search iteration. Operator calls and scores are also emitted as Flight Recorder
+ * events when the runtime supports them, so they show up in any recording with the "Route Solver" category enabled.
+ *
+ * Evaluations count candidate moves priced by an operator and acceptances the moves it carried out. For tsp every
+ * optimized route is one evaluation and every reordered route one acceptance; for disturb every route is one
+ * evaluation and every removed POI one acceptance.
+ *
+ * With recordCalls every operator call is kept as well, in call order with its wall time, moves and the score after
+ * it, which is what solve traces store.
+ */
+public class SolverStats {
+
+    public enum Operator {
+        CONSTRUCT,
+        SWAP,
+        TSP,
+        MOVE,
+        INSERT,
+        REPLACE,
+        DISTURB
+    }
+
+    static final boolean FLIGHT_RECORDER_AVAILABLE = isFlightRecorderAvailable();
+
+    long[] operatorNanos;
+    long[] operatorCalls;
+    long[] evaluations;
+    long[] acceptances;
+    long runNanos;
+
+    // Score trace, one entry per local search iteration
+    int traceSize;
+    int[] traceAlgLoops;
+    int[] traceLSLoops;
+    long[] traceNanos;
+    double[] traceScores;
+
+    // Operator call log, only kept with recordCalls
+    boolean recordCalls;
+    int callCount;
+    byte[] callOperators;
+    long[] callNanos;
+    long[] callEvaluations;
+    long[] callAcceptances;
+    double[] callScores;
+
+    // Flight Recorder event of the operator currently running, null if the runtime has no Flight Recorder
+    OperatorEvent operatorEvent;
+
+    SolverStats() {
+        int operatorCount = Operator.values().length;
+        this.operatorNanos = new long[operatorCount];
+        this.operatorCalls = new long[operatorCount];
+        this.evaluations = new long[operatorCount];
+        this.acceptances = new long[operatorCount];
+        this.traceAlgLoops = new int[16];
+        this.traceLSLoops = new int[16];
+        this.traceNanos = new long[16];
+        this.traceScores = new double[16];
+        this.callOperators = new byte[16];
+        this.callNanos = new long[16];
+        this.callEvaluations = new long[16];
+        this.callAcceptances = new long[16];
+        this.callScores = new double[16];
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    void operatorStarted() {
+        if (FLIGHT_RECORDER_AVAILABLE) {
+            this.operatorEvent = new OperatorEvent();
+            this.operatorEvent.begin();
+        }
+    }
+
+    void operatorFinished(Operator operator, long nanos, long evaluations, long acceptances, double score) {
+        int o = operator.ordinal();
+        this.operatorNanos[o] += nanos;
+        this.operatorCalls[o]++;
+        this.evaluations[o] += evaluations;
+        this.acceptances[o] += acceptances;
+        if (this.recordCalls) {
+            recordCall(operator, nanos, evaluations, acceptances, score);
+        }
+
+        if (FLIGHT_RECORDER_AVAILABLE) {
+            OperatorEvent event = this.operatorEvent;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operator = operator.name();
+                event.evaluations = evaluations;
+                event.acceptances = acceptances;
+                event.score = score;
+                event.commit();
+            }
+            this.operatorEvent = null;
+        }
+    }
+
+    void recordCall(Operator operator, long nanos, long evaluations, long acceptances, double score) {
+        if (this.callCount == this.callOperators.length) {
+            int capacity = this.callCount * 2;
+            this.callOperators = Arrays.copyOf(this.callOperators, capacity);
+            this.callNanos = Arrays.copyOf(this.callNanos, capacity);
+            this.callEvaluations = Arrays.copyOf(this.callEvaluations, capacity);
+            this.callAcceptances = Arrays.copyOf(this.callAcceptances, capacity);
+            this.callScores = Arrays.copyOf(this.callScores, capacity);
+        }
+        this.callOperators[this.callCount] = (byte) operator.ordinal();
+        this.callNanos[this.callCount] = nanos;
+        this.callEvaluations[this.callCount] = evaluations;
+        this.callAcceptances[this.callCount] = acceptances;
+        this.callScores[this.callCount] = score;
+        this.callCount++;
+    }
+
+    void traceScore(int algLoop, int lsLoop, long nanos, double score) {
+        if (this.traceSize == this.traceScores.length) {
+            int capacity = this.traceSize * 2;
+            this.traceAlgLoops = Arrays.copyOf(this.traceAlgLoops, capacity);
+            this.traceLSLoops = Arrays.copyOf(this.traceLSLoops, capacity);
+            this.traceNanos = Arrays.copyOf(this.traceNanos, capacity);
+            this.traceScores = Arrays.copyOf(this.traceScores, capacity);
+        }
+        this.traceAlgLoops[this.traceSize] = algLoop;
+        this.traceLSLoops[this.traceSize] = lsLoop;
+        this.traceNanos[this.traceSize] = nanos;
+        this.traceScores[this.traceSize] = score;
+        this.traceSize++;
+
+        if (FLIGHT_RECORDER_AVAILABLE) {
+            ScoreEvent event = new ScoreEvent();
+            if (event.shouldCommit()) {
+                event.algLoop = algLoop;
+                event.lsLoop = lsLoop;
+                event.score = score;
+                event.commit();
+            }
+        }
+    }
+
+    // Adds the operator counters of another run, e.g. of a parallel trajectory; the score trace is kept
+    void addOperatorCounters(SolverStats stats) {
+        for (int o = 0; o < this.operatorNanos.length; o++) {
+            this.operatorNanos[o] += stats.operatorNanos[o];
+            this.operatorCalls[o] += stats.operatorCalls[o];
+            this.evaluations[o] += stats.evaluations[o];
+            this.acceptances[o] += stats.acceptances[o];
+        }
+    }
+
+    public long getOperatorNanos(Operator operator) {
+        return this.operatorNanos[operator.ordinal()];
+    }
+
+    public long getOperatorCalls(Operator operator) {
+        return this.operatorCalls[operator.ordinal()];
+    }
+
+    public long getEvaluations(Operator operator) {
+        return this.evaluations[operator.ordinal()];
+    }
+
+    public long getAcceptances(Operator operator) {
+        return this.acceptances[operator.ordinal()];
+    }
+
+    // Wall time of the whole run
+    public long getRunNanos() {
+        return this.runNanos;
+    }
+
+    public int getTraceSize() {
+        return this.traceSize;
+    }
+
+    public int getTraceAlgLoop(int i) {
+        return this.traceAlgLoops[i];
+    }
+
+    public int getTraceLSLoop(int i) {
+        return this.traceLSLoops[i];
+    }
+
+    // Time since the start of the run
+    public long getTraceNanos(int i) {
+        return this.traceNanos[i];
+    }
+
+    public double getTraceScore(int i) {
+        return this.traceScores[i];
+    }
+
+    // Number of operator calls in the call log, 0 unless calls were recorded
+    public int getCallCount() {
+        return this.callCount;
+    }
+
+    public Operator getCallOperator(int i) {
+        return Operator.values()[this.callOperators[i]];
+    }
+
+    public long getCallNanos(int i) {
+        return this.callNanos[i];
+    }
+
+    public long getCallEvaluations(int i) {
+        return this.callEvaluations[i];
+    }
+
+    public long getCallAcceptances(int i) {
+        return this.callAcceptances[i];
+    }
+
+    // Solution score after the call
+    public double getCallScore(int i) {
+        return this.callScores[i];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Run %.1f ms, %d local search iterations", this.runNanos / 1e6, this.traceSize));
+        for (Operator operator : Operator.values()) {
+            int o = operator.ordinal();
+            builder.append(String.format("%n  %-9s %9.1f ms %7d calls %11d evaluations %8d acceptances",
+                                         operator.name().toLowerCase(), this.operatorNanos[o] / 1e6,
+                                         this.operatorCalls[o], this.evaluations[o], this.acceptances[o]));
+        }
+        return builder.toString();
+    }
+}
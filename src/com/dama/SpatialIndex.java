@@ -0,0 +1,308 @@
+package com.dama;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * KD-tree over the catalogue POIs that enumerates the currently available POIs lazily, nearest first.
+ *
+ * POIs are stored as unit vectors on the sphere, so Euclidean (chord) distances are monotone in the haversine
+ * distance. The tree itself never changes; POIs are switched on and off as they move between the available and
+ * assigned lists, and every node counts its available POIs so that empty subtrees are skipped.
+ * Queries are best-first searches ordered by travel time, which keeps the step between walking and public
+ * transport speed intact. Equal travel times are returned in POI index order.
+ */
+public class SpatialIndex {
+
+    static final int LEAF_SIZE = 8;
+    static final double EARTH_RADIUS = 6373 * 1000;
+    static final double TRANSPORT_DISTANCE = 1500;
+    static final double TRANSPORT_SPEED = 200.0;
+    // Bounds are relaxed by this relative amount, so rounding never lets a node overtake one of its points
+    static final double BOUND_SLACK = 1e-9;
+
+    // Shared, read-only tree
+    ArrayList<Poi> pois;
+    double[] points;
+    int[] order;
+    int nodeCount;
+    int[] nodeFrom;
+    int[] nodeTo;
+    int[] nodeRight;
+    int[] nodeParent;
+    double[] nodeBounds;
+    int[] poiLeaves;
+
+    // Per-solver membership
+    boolean[] available;
+    int[] availableCounts;
+
+    // Best-first query state: heap of nodes (encoded as -node-1) and POI indices keyed by travel time
+    double queryLat;
+    double queryLng;
+    double queryX;
+    double queryY;
+    double queryZ;
+    double walkingSpeed;
+    double[] heapKeys;
+    int[] heapItems;
+    int heapSize;
+
+    // pois holds the indexed catalogue; POIs that are not part of it (START, FINISH) may follow at the end
+    SpatialIndex(ArrayList<Poi> pois, int catalogueSize) {
+        this.pois = pois;
+        this.points = new double[pois.size() * 3];
+        for (int i = 0; i < catalogueSize; i++) {
+            Poi poi = pois.get(i);
+            double radLat = Poi.toRadians(poi.lat);
+            double radLng = Poi.toRadians(poi.lng);
+            this.points[3 * i] = Math.cos(radLat) * Math.cos(radLng);
+            this.points[3 * i + 1] = Math.cos(radLat) * Math.sin(radLng);
+            this.points[3 * i + 2] = Math.sin(radLat);
+        }
+
+        Integer[] sortOrder = new Integer[catalogueSize];
+        for (int i = 0; i < catalogueSize; i++) {
+            sortOrder[i] = i;
+        }
+        int maxNodes = 4 * (catalogueSize / LEAF_SIZE + 2);
+        this.nodeFrom = new int[maxNodes];
+        this.nodeTo = new int[maxNodes];
+        this.nodeRight = new int[maxNodes];
+        this.nodeParent = new int[maxNodes];
+        this.nodeBounds = new double[maxNodes * 6];
+        this.poiLeaves = new int[pois.size()];
+        Arrays.fill(this.poiLeaves, -1);
+        build(sortOrder, 0, catalogueSize, -1);
+
+        this.order = new int[catalogueSize];
+        for (int i = 0; i < catalogueSize; i++) {
+            this.order[i] = sortOrder[i];
+        }
+        for (int node = 0; node < this.nodeCount; node++) {
+            if (this.nodeRight[node] < 0) {
+                for (int i = this.nodeFrom[node]; i < this.nodeTo[node]; i++) {
+                    this.poiLeaves[this.order[i]] = node;
+                }
+            }
+        }
+        initQueryState();
+    }
+
+    // Shares the tree of another index, with no POI available
+    SpatialIndex(SpatialIndex shared) {
+        this.pois = shared.pois;
+        this.points = shared.points;
+        this.order = shared.order;
+        this.nodeCount = shared.nodeCount;
+        this.nodeFrom = shared.nodeFrom;
+        this.nodeTo = shared.nodeTo;
+        this.nodeRight = shared.nodeRight;
+        this.nodeParent = shared.nodeParent;
+        this.nodeBounds = shared.nodeBounds;
+        this.poiLeaves = shared.poiLeaves;
+        initQueryState();
+    }
+
+    private void initQueryState() {
+        this.available = new boolean[this.poiLeaves.length];
+        this.availableCounts = new int[this.nodeFrom.length];
+        this.heapKeys = new double[this.nodeCount + this.order.length + 1];
+        this.heapItems = new int[this.nodeCount + this.order.length + 1];
+    }
+
+    private int build(Integer[] sortOrder, int from, int to, int parent) {
+        int node = this.nodeCount++;
+        this.nodeFrom[node] = from;
+        this.nodeTo[node] = to;
+        this.nodeParent[node] = parent;
+        this.nodeRight[node] = -1;
+
+        double[] bounds = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                                       -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = from; i < to; i++) {
+            for (int d = 0; d < 3; d++) {
+                double value = this.points[3 * sortOrder[i] + d];
+                bounds[d] = Math.min(bounds[d], value);
+                bounds[d + 3] = Math.max(bounds[d + 3], value);
+            }
+        }
+        System.arraycopy(bounds, 0, this.nodeBounds, node * 6, 6);
+
+        if (to - from > LEAF_SIZE) {
+            // Split at the median of the widest dimension
+            int widest = 0;
+            for (int d = 1; d < 3; d++) {
+                if (bounds[d + 3] - bounds[d] > bounds[widest + 3] - bounds[widest]) {
+                    widest = d;
+                }
+            }
+            final int dimension = widest;
+            Arrays.sort(sortOrder, from, to, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(points[3 * o1 + dimension], points[3 * o2 + dimension]);
+                }
+            });
+            int middle = (from + to) >>> 1;
+            build(sortOrder, from, middle, node);
+            this.nodeRight[node] = build(sortOrder, middle, to, node);
+        }
+        return node;
+    }
+
+    // Makes exactly the given POIs available
+    public void reset(ArrayList<Poi> availablePois) {
+        Arrays.fill(this.available, false);
+        Arrays.fill(this.availableCounts, 0);
+        for (Poi availablePoi : availablePois) {
+            add(availablePoi);
+        }
+    }
+
+    public void add(Poi poi) {
+        if (!this.available[poi.index]) {
+            this.available[poi.index] = true;
+            updateCounts(poi.index, 1);
+        }
+    }
+
+    public void remove(Poi poi) {
+        if (this.available[poi.index]) {
+            this.available[poi.index] = false;
+            updateCounts(poi.index, -1);
+        }
+    }
+
+    public boolean isAvailable(int index) {
+        return this.available[index];
+    }
+
+    private void updateCounts(int index, int delta) {
+        for (int node = this.poiLeaves[index]; node >= 0; node = this.nodeParent[node]) {
+            this.availableCounts[node] += delta;
+        }
+    }
+
+    // Starts enumerating available POIs by travel time from the given point, see nextNearest()
+    public void startQuery(double lat, double lng, double walkingSpeed) {
+        double radLat = Poi.toRadians(lat);
+        double radLng = Poi.toRadians(lng);
+        this.queryLat = lat;
+        this.queryLng = lng;
+        this.queryX = Math.cos(radLat) * Math.cos(radLng);
+        this.queryY = Math.cos(radLat) * Math.sin(radLng);
+        this.queryZ = Math.sin(radLat);
+        this.walkingSpeed = walkingSpeed;
+        this.heapSize = 0;
+        if (this.nodeCount > 0 && this.availableCounts[0] > 0) {
+            push(nodeBound(0), -1);
+        }
+    }
+
+    // Next available POI of the current query, or null when all have been returned.
+    // The index must not change between startQuery() and the last call to nextNearest().
+    public Poi nextNearest() {
+        while (this.heapSize > 0) {
+            int item = this.heapItems[0];
+            pop();
+            if (item >= 0) {
+                return this.pois.get(item);
+            }
+
+            int node = -item - 1;
+            if (this.nodeRight[node] >= 0) {
+                int left = node + 1;
+                int right = this.nodeRight[node];
+                if (this.availableCounts[left] > 0) push(nodeBound(left), -left - 1);
+                if (this.availableCounts[right] > 0) push(nodeBound(right), -right - 1);
+            } else {
+                for (int i = this.nodeFrom[node]; i < this.nodeTo[node]; i++) {
+                    int index = this.order[i];
+                    if (this.available[index]) {
+                        push(this.pois.get(index).distanceFrom(this.queryLat, this.queryLng, this.walkingSpeed), index);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Lower bound of the travel time from the query point to any POI inside the node
+    private double nodeBound(int node) {
+        int offset = node * 6;
+        double minSquare = 0.0;
+        double maxSquare = 0.0;
+        for (int d = 0; d < 3; d++) {
+            double low = this.nodeBounds[offset + d];
+            double high = this.nodeBounds[offset + d + 3];
+            double q = d == 0 ? this.queryX : (d == 1 ? this.queryY : this.queryZ);
+            double nearest = q < low ? low - q : (q > high ? q - high : 0.0);
+            double farthest = Math.max(Math.abs(q - low), Math.abs(q - high));
+            minSquare += nearest * nearest;
+            maxSquare += farthest * farthest;
+        }
+        double minDistance = chordToDistance(Math.sqrt(minSquare));
+        double maxDistance = chordToDistance(Math.sqrt(maxSquare));
+
+        double bound = Double.MAX_VALUE;
+        if (minDistance <= TRANSPORT_DISTANCE) {
+            bound = minDistance / this.walkingSpeed;
+        }
+        if (maxDistance > TRANSPORT_DISTANCE) {
+            bound = Math.min(bound, Math.max(minDistance, TRANSPORT_DISTANCE) / TRANSPORT_SPEED);
+        }
+        return bound * (1 - BOUND_SLACK);
+    }
+
+    private static double chordToDistance(double chord) {
+        return EARTH_RADIUS * 2 * Math.asin(Math.min(1.0, chord / 2));
+    }
+
+    // Heap order: smaller key first, then nodes before POIs, then lower POI index
+    private boolean before(int a, int b) {
+        if (this.heapKeys[a] != this.heapKeys[b]) {
+            return this.heapKeys[a] < this.heapKeys[b];
+        }
+        return this.heapItems[a] < this.heapItems[b];
+    }
+
+    private void push(double key, int item) {
+        int i = this.heapSize++;
+        this.heapKeys[i] = key;
+        this.heapItems[i] = item;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(i, parent)) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void pop() {
+        this.heapSize--;
+        this.heapKeys[0] = this.heapKeys[this.heapSize];
+        this.heapItems[0] = this.heapItems[this.heapSize];
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < this.heapSize && before(left, smallest)) smallest = left;
+            if (right < this.heapSize && before(right, smallest)) smallest = right;
+            if (smallest == i) break;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double key = this.heapKeys[a];
+        this.heapKeys[a] = this.heapKeys[b];
+        this.heapKeys[b] = key;
+        int item = this.heapItems[a];
+        this.heapItems[a] = this.heapItems[b];
+        this.heapItems[b] = item;
+    }
+}
@@ -0,0 +1,492 @@
+package com.dama;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Exchanges POIs between routes using cached move evaluations.
+ *
+ * For every assigned POI the engine keeps its position and removal gain, and for every (POI, route) pair
+ * the three cheapest insertion edges of the route. Removing a POI only invalidates the two edges next to it,
+ * so the cheapest replace insertion is found among the cached edges plus the one edge that closes the gap,
+ * in constant time. Cached entries are stamped with the route's modification count and recomputed lazily,
+ * so after a swap only the entries of the two changed routes are refreshed.
+ *
+ * With an evaluation pool, all stale entries are refreshed up front and the POI pairs are then evaluated
+ * read-only in parallel. The swap applied is the one the sequential scan would find, so results do not depend
+ * on the number of workers. Routes with opening hours are always scanned sequentially. DONT_LOOK_BITS passes
+ * evaluate only a few partners per POI and are always sequential.
+ */
+public class SwapEngine {
+
+    public enum Mode {
+        // Restart the scan after every accepted swap, as the original operator did
+        FIRST_IMPROVEMENT,
+        // Apply the swap with the largest budget saving found in a full scan
+        BEST_IMPROVEMENT,
+        // Only try partners near each POI's nearest neighbours, and look at a POI again only once an edge next to
+        // it changed
+        DONT_LOOK_BITS
+    }
+
+    // Cached insertion edges per (POI, route); removal of a POI excludes at most two of them
+    static final int CACHED_EDGES = 3;
+    // Smallest budget saving of an accepted swap
+    static final double MIN_SAVING = 1e-9;
+    // Nearest neighbours that propose swap partners in DONT_LOOK_BITS mode, unless the solver restricts candidates
+    static final int NEIGHBOR_COUNT = 10;
+
+    TopSolver topSolver;
+    Mode mode;
+    int poiCount;
+    int routeCount;
+
+    // Route state per slot of topSolver.routes
+    Route[] slotRoutes;
+    int[] slotModificationCounts;
+    int[] slotEpochs;
+    int epoch;
+
+    // Per POI state, valid for POIs on a refreshed route
+    int[] poiSlots;
+    int[] poiPositions;
+    double[] removalGains;
+    boolean[] dontLookBits;
+    // Partner candidates already tried for the current POI of a don't-look-bits pass
+    int[] candidateStamps;
+    int candidateStamp;
+
+    // Cheapest insertion edges per (POI, slot), ordered by cost and then position
+    double[] insertionCosts;
+    int[] insertionPositions;
+    int[] insertionEpochs;
+
+    // Result of the last sequential evaluate() call
+    SwapMove move;
+
+    // Evaluation of one swap, kept per worker when pairs are evaluated in parallel
+    static class SwapMove {
+        double gainI;
+        double costI;
+        int insertPositionI;
+        double gainJ;
+        double costJ;
+        int insertPositionJ;
+
+        // Result of the last findCheapestReplace() call
+        double replaceCost;
+        int replacePosition;
+    }
+
+    SwapEngine(TopSolver topSolver, Mode mode) {
+        this.topSolver = topSolver;
+        this.mode = mode;
+        this.poiCount = topSolver.distanceMatrix.getSize();
+        this.poiSlots = new int[this.poiCount];
+        this.poiPositions = new int[this.poiCount];
+        this.removalGains = new double[this.poiCount];
+        this.dontLookBits = new boolean[this.poiCount];
+        this.candidateStamps = new int[this.poiCount];
+        this.move = new SwapMove();
+        resize(topSolver.routes.size());
+    }
+
+    private void resize(int routeCount) {
+        this.routeCount = routeCount;
+        this.slotRoutes = new Route[routeCount];
+        this.slotModificationCounts = new int[routeCount];
+        this.slotEpochs = new int[routeCount];
+        this.insertionCosts = new double[this.poiCount * routeCount * CACHED_EDGES];
+        this.insertionPositions = new int[this.poiCount * routeCount * CACHED_EDGES];
+        this.insertionEpochs = new int[this.poiCount * routeCount];
+    }
+
+    public void swap() {
+        if (this.topSolver.routes.size() != this.routeCount) {
+            resize(this.topSolver.routes.size());
+        }
+        for (int slot = 0; slot < this.routeCount; slot++) {
+            refresh(slot);
+        }
+
+        if (this.mode == Mode.BEST_IMPROVEMENT) {
+            swapBestImprovement();
+        } else if (this.mode == Mode.DONT_LOOK_BITS) {
+            swapDontLookBits();
+        } else {
+            swapFirstImprovement();
+        }
+    }
+
+    private void swapFirstImprovement() {
+        ArrayList<Poi> assignedPois = this.topSolver.assignedPois;
+        int n = assignedPois.size();
+        if (isParallel((long) n * n)) {
+            // Same pair as the sequential scan below: the first one in (i, j) order
+            int pair;
+            while ((pair = findFirstPair(0, n * n, false)) != ParallelScan.NONE) {
+                if (this.topSolver.deadlineReached()) return;
+                applyPair(assignedPois.get(pair / n), assignedPois.get(pair % n));
+            }
+            return;
+        }
+
+        boolean swap = true;
+        while (swap) {
+            swap = false;
+            for (int i = 0; i < assignedPois.size() && !swap; i++) {
+                if (this.topSolver.deadlineReached()) return;
+                Poi poiI = assignedPois.get(i);
+                for (Poi poiJ : assignedPois) {
+                    if (this.poiSlots[poiI.index] != this.poiSlots[poiJ.index] && evaluate(poiI, poiJ)) {
+                        apply(poiI, poiJ);
+                        swap = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void swapBestImprovement() {
+        ArrayList<Poi> assignedPois = this.topSolver.assignedPois;
+        int n = assignedPois.size();
+        if (isParallel((long) n * n)) {
+            int pair;
+            while ((pair = findFirstPair(0, n * n, true)) != ParallelScan.NONE) {
+                if (this.topSolver.deadlineReached()) return;
+                applyPair(assignedPois.get(pair / n), assignedPois.get(pair % n));
+            }
+            return;
+        }
+
+        while (true) {
+            Poi bestPoiI = null;
+            Poi bestPoiJ = null;
+            double bestSaving = 0.0;
+            for (int i = 0; i < assignedPois.size(); i++) {
+                if (this.topSolver.deadlineReached()) return;
+                Poi poiI = assignedPois.get(i);
+                for (int j = i + 1; j < assignedPois.size(); j++) {
+                    Poi poiJ = assignedPois.get(j);
+                    if (this.poiSlots[poiI.index] != this.poiSlots[poiJ.index] && evaluate(poiI, poiJ)) {
+                        double saving = this.move.gainI + this.move.gainJ - this.move.costI - this.move.costJ;
+                        if (saving > bestSaving) {
+                            bestSaving = saving;
+                            bestPoiI = poiI;
+                            bestPoiJ = poiJ;
+                        }
+                    }
+                }
+            }
+            if (bestPoiI == null) {
+                return;
+            }
+            evaluate(bestPoiI, bestPoiJ);
+            apply(bestPoiI, bestPoiJ);
+        }
+    }
+
+    // Work list of POIs whose bits are off. Partners are limited to the assigned POIs next to poiI's nearest
+    // neighbours on other routes, and a swap only switches on the POIs next to the four changed edges of each
+    // route, so a pass costs O(n k) evaluations instead of O(n^2).
+    private void swapDontLookBits() {
+        ArrayList<Poi> assignedPois = this.topSolver.assignedPois;
+        ArrayDeque<Poi> activePois = new ArrayDeque<Poi>(assignedPois.size());
+        for (Poi assignedPoi : assignedPois) {
+            this.dontLookBits[assignedPoi.index] = false;
+            activePois.add(assignedPoi);
+        }
+
+        while (!activePois.isEmpty()) {
+            Poi poiI = activePois.poll();
+            if (this.dontLookBits[poiI.index] || this.topSolver.poiRoutes[poiI.index] == null) {
+                continue;
+            }
+            if (this.topSolver.deadlineReached()) return;
+            Poi partner = findNeighborPartner(poiI);
+            if (partner == null) {
+                this.dontLookBits[poiI.index] = true;
+                continue;
+            }
+
+            int slotI = this.poiSlots[poiI.index];
+            int slotJ = this.poiSlots[partner.index];
+            int positionI = this.poiPositions[poiI.index];
+            int positionJ = this.poiPositions[partner.index];
+            // POIs around the gaps, before the routes change
+            wakeUp(this.slotRoutes[slotI], positionI - 1, positionI + 1, activePois);
+            wakeUp(this.slotRoutes[slotJ], positionJ - 1, positionJ + 1, activePois);
+            apply(poiI, partner);
+            // The swapped POIs and their new neighbours
+            wakeUp(this.slotRoutes[slotI], this.poiPositions[partner.index] - 1,
+                   this.poiPositions[partner.index] + 1, activePois);
+            wakeUp(this.slotRoutes[slotJ], this.poiPositions[poiI.index] - 1,
+                   this.poiPositions[poiI.index] + 1, activePois);
+        }
+    }
+
+    // First accepted swap partner of poiI among its nearest neighbours on other routes and their predecessors
+    // and successors there, in neighbour rank order; null if there is none
+    private Poi findNeighborPartner(Poi poiI) {
+        NeighborLists neighborLists = this.topSolver.neighborLists;
+        if (neighborLists == null) {
+            if (this.topSolver.swapNeighborLists == null) {
+                this.topSolver.swapNeighborLists = new NeighborLists(this.topSolver.distanceMatrix, NEIGHBOR_COUNT);
+            }
+            neighborLists = this.topSolver.swapNeighborLists;
+        }
+        int slotI = this.poiSlots[poiI.index];
+        this.candidateStamp++;
+        for (int rank = 0; rank < neighborLists.getNeighborCount(); rank++) {
+            int neighbor = neighborLists.getNeighbor(poiI.index, rank);
+            if (neighbor < 0) {
+                break;
+            }
+            if (this.topSolver.poiRoutes[neighbor] == null || this.poiSlots[neighbor] == slotI) {
+                continue;
+            }
+            Route route = this.slotRoutes[this.poiSlots[neighbor]];
+            int position = this.poiPositions[neighbor];
+            for (int p = Math.max(1, position - 1); p <= Math.min(route.size() - 2, position + 1); p++) {
+                int candidate = route.stops[p];
+                if (this.candidateStamps[candidate] == this.candidateStamp) {
+                    continue;
+                }
+                this.candidateStamps[candidate] = this.candidateStamp;
+                Poi poiJ = this.topSolver.pois.get(candidate);
+                if (evaluate(poiI, poiJ)) {
+                    return poiJ;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Switches the bits of the POIs at positions [from, to] of the route off and queues them
+    private void wakeUp(Route route, int from, int to, ArrayDeque<Poi> activePois) {
+        for (int p = Math.max(1, from); p <= Math.min(route.size() - 2, to); p++) {
+            int index = route.stops[p];
+            if (this.dontLookBits[index]) {
+                this.dontLookBits[index] = false;
+                activePois.add(this.topSolver.pois.get(index));
+            }
+        }
+    }
+
+    // Parallel evaluation needs a pool, a neighbourhood large enough to pay for the tasks and cached edges
+    // for every route, which routes with opening hours do not use
+    private boolean isParallel(long candidates) {
+        return this.topSolver.evaluationPool != null && !this.topSolver.timeWindows &&
+               candidates >= ParallelScan.MIN_PARALLEL_CANDIDATES && candidates <= Integer.MAX_VALUE;
+    }
+
+    // Scans the pairs i*n+j of assigned POIs in [from, to) on the evaluation pool, for the first accepted swap
+    // or the one with the largest saving among pairs with i < j
+    private int findFirstPair(int from, int to, final boolean best) {
+        prepare();
+        final ArrayList<Poi> assignedPois = this.topSolver.assignedPois;
+        final int n = assignedPois.size();
+        final int[] poiSlots = this.poiSlots;
+        ParallelScan<SwapMove> scan = new ParallelScan<SwapMove>(this.topSolver.evaluationPool) {
+            @Override
+            SwapMove createWorker() {
+                return new SwapMove();
+            }
+
+            @Override
+            double evaluate(SwapMove worker, int pair) {
+                int i = pair / n;
+                int j = pair % n;
+                Poi poiI = assignedPois.get(i);
+                Poi poiJ = assignedPois.get(j);
+                if ((best && j <= i) || poiSlots[poiI.index] == poiSlots[poiJ.index] ||
+                        !SwapEngine.this.evaluate(poiI, poiJ, worker)) {
+                    return Double.NaN;
+                }
+                return worker.gainI + worker.gainJ - worker.costI - worker.costJ;
+            }
+
+            @Override
+            boolean cancelled() {
+                return topSolver.deadlineReached();
+            }
+        };
+        int pair = best ? scan.findBest(from, to) : scan.findFirst(from, to);
+        this.topSolver.evaluationCount += scan.getEvaluations();
+        return pair;
+    }
+
+    // Computes the cached insertion edges of every assigned POI for every other route up front, so that the
+    // parallel evaluation only reads them. Each task owns the entries of its POIs.
+    private void prepare() {
+        final ArrayList<Poi> assignedPois = this.topSolver.assignedPois;
+        ParallelScan<Void> scan = new ParallelScan<Void>(this.topSolver.evaluationPool) {
+            @Override
+            Void createWorker() {
+                return null;
+            }
+
+            @Override
+            double evaluate(Void worker, int p) {
+                Poi poi = assignedPois.get(p);
+                for (int slot = 0; slot < routeCount; slot++) {
+                    int entry = poi.index * routeCount + slot;
+                    if (slot != poiSlots[poi.index] && insertionEpochs[entry] != slotEpochs[slot]) {
+                        computeCheapestInsertions(slotRoutes[slot], entry, poi);
+                        insertionEpochs[entry] = slotEpochs[slot];
+                    }
+                }
+                return Double.NaN;
+            }
+        };
+        scan.findFirst(0, assignedPois.size());
+    }
+
+    private void applyPair(Poi poiI, Poi poiJ) {
+        evaluate(poiI, poiJ);
+        apply(poiI, poiJ);
+    }
+
+    // Evaluates exchanging poiI and poiJ between their routes. Returns true if the swap is feasible and
+    // accepted by the original criterion, leaving gains, costs and positions in this.move.
+    boolean evaluate(Poi poiI, Poi poiJ) {
+        this.topSolver.evaluationCount++;
+        return evaluate(poiI, poiJ, this.move);
+    }
+
+    private boolean evaluate(Poi poiI, Poi poiJ, SwapMove move) {
+        int slotI = this.poiSlots[poiI.index];
+        int slotJ = this.poiSlots[poiJ.index];
+        Route routeI = this.slotRoutes[slotI];
+        Route routeJ = this.slotRoutes[slotJ];
+        double availableBudget = this.topSolver.availableBudget;
+
+        move.gainI = this.removalGains[poiI.index];
+        move.gainJ = this.removalGains[poiJ.index];
+
+        findCheapestReplace(routeI, slotI, this.poiPositions[poiI.index], poiJ, move);
+        move.costI = move.replaceCost;
+        move.insertPositionI = move.replacePosition;
+        if (routeI.consumedBudget - move.gainI + move.costI > availableBudget) {
+            return false;
+        }
+
+        findCheapestReplace(routeJ, slotJ, this.poiPositions[poiJ.index], poiI, move);
+        move.costJ = move.replaceCost;
+        move.insertPositionJ = move.replacePosition;
+        if (routeJ.consumedBudget - move.gainJ + move.costJ > availableBudget) {
+            return false;
+        }
+
+        // If the travel time can be reduced in each tour, or if the time saved in one tour
+        // is longer than the extra time needed in the other tour, the swap is carried out.
+        // Both cases save budget overall; savings within rounding noise would let a pair swap back and forth.
+        return move.gainI + move.gainJ - move.costI - move.costJ > MIN_SAVING;
+    }
+
+    private void apply(Poi poiI, Poi poiJ) {
+        int slotI = this.poiSlots[poiI.index];
+        int slotJ = this.poiSlots[poiJ.index];
+        Route routeI = this.slotRoutes[slotI];
+        Route routeJ = this.slotRoutes[slotJ];
+
+        routeI.removePoi(poiI, this.move.gainI);
+        routeJ.removePoi(poiJ, this.move.gainJ);
+        routeI.insertPoi(poiJ, this.move.insertPositionI, this.move.costI);
+        routeJ.insertPoi(poiI, this.move.insertPositionJ, this.move.costJ);
+        this.topSolver.acceptanceCount++;
+
+        refresh(slotI);
+        refresh(slotJ);
+    }
+
+    // Cheapest insertion of insertPoi into the route with the POI at removePosition taken out.
+    // Positions refer to the shortened route and ties go to the lower position, as in Route.findCheapestReplace.
+    private void findCheapestReplace(Route route, int slot, int removePosition, Poi insertPoi, SwapMove move) {
+        if (route.timeWindows) {
+            // Cached edges ignore opening hours, scan the route with its constant-time feasibility tests instead
+            route.findCheapestReplace(route.getPoi(removePosition), insertPoi);
+            move.replaceCost = route.insertCost;
+            move.replacePosition = route.insertPosition;
+            return;
+        }
+        int entry = insertPoi.index * this.routeCount + slot;
+        if (this.insertionEpochs[entry] != this.slotEpochs[slot]) {
+            computeCheapestInsertions(route, entry, insertPoi);
+            this.insertionEpochs[entry] = this.slotEpochs[slot];
+        }
+
+        // Best cached edge that survives the removal, i.e. is not adjacent to the removed POI
+        double cost = Double.MAX_VALUE;
+        int position = 0;
+        int offset = entry * CACHED_EDGES;
+        for (int e = 0; e < CACHED_EDGES; e++) {
+            int edgePosition = this.insertionPositions[offset + e];
+            if (edgePosition > 0 && edgePosition != removePosition && edgePosition != removePosition + 1) {
+                cost = this.insertionCosts[offset + e];
+                position = edgePosition < removePosition ? edgePosition : edgePosition - 1;
+                break;
+            }
+        }
+
+        // The edge closing the gap lands at removePosition in the shortened route
+        int previous = route.stops[removePosition - 1];
+        int next = route.stops[removePosition + 1];
+        DistanceMatrix distanceMatrix = route.distanceMatrix;
+        double gapCost = distanceMatrix.get(previous, insertPoi.index) +
+                         distanceMatrix.get(insertPoi.index, next) -
+                         distanceMatrix.get(previous, next) +
+                         insertPoi.consumingBudget;
+        if (gapCost < cost || (gapCost == cost && removePosition < position)) {
+            cost = gapCost;
+            position = removePosition;
+        }
+
+        move.replaceCost = cost;
+        move.replacePosition = position;
+    }
+
+    private void computeCheapestInsertions(Route route, int entry, Poi insertPoi) {
+        int offset = entry * CACHED_EDGES;
+        Arrays.fill(this.insertionCosts, offset, offset + CACHED_EDGES, Double.MAX_VALUE);
+        Arrays.fill(this.insertionPositions, offset, offset + CACHED_EDGES, 0);
+
+        for (int k = 1; k < route.size(); k++) {
+            double cost = route.getInsertionCost(insertPoi, k);
+            // Keep the list sorted by cost, with earlier positions first on equal cost
+            int e = CACHED_EDGES;
+            while (e > 0 && cost < this.insertionCosts[offset + e - 1]) {
+                e--;
+            }
+            if (e < CACHED_EDGES) {
+                for (int m = CACHED_EDGES - 1; m > e; m--) {
+                    this.insertionCosts[offset + m] = this.insertionCosts[offset + m - 1];
+                    this.insertionPositions[offset + m] = this.insertionPositions[offset + m - 1];
+                }
+                this.insertionCosts[offset + e] = cost;
+                this.insertionPositions[offset + e] = k;
+            }
+        }
+    }
+
+    // Re-reads positions and removal gains of a route if it changed since the last refresh
+    private void refresh(int slot) {
+        Route route = this.topSolver.routes.get(slot);
+        if (this.slotRoutes[slot] == route && this.slotModificationCounts[slot] == route.modificationCount) {
+            return;
+        }
+        this.slotRoutes[slot] = route;
+        this.slotModificationCounts[slot] = route.modificationCount;
+        this.slotEpochs[slot] = ++this.epoch;
+
+        for (int p = 1; p < route.size() - 1; p++) {
+            int index = route.stops[p];
+            this.poiSlots[index] = slot;
+            this.poiPositions[index] = p;
+            this.removalGains[index] = route.getDelitionGain(p);
+        }
+    }
+}
@@ -1,25 +1,99 @@
 package com.dama;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 /**
  * Created by pero on 22/01/16.
  */
 public class TopSolver {
 
+    private static final Logger LOGGER = Logger.getLogger(TopSolver.class.getName());
+
     int routeCount;
     double availableBudget;
     double walkingSpeed;
+    TravelTimeProvider travelTimeProvider;
     ArrayList<Poi> pois;
     Poi startPoi;
     Poi finishPoi;
     ArrayList<Poi> availablePois;
     ArrayList<Poi> assignedPois;
+    // Position of every available or assigned POI in its list, so that assignPoi() and releasePoi() take O(1)
+    int[] listPositions;
     ArrayList<Route> routes;
+    DistanceMatrix distanceMatrix;
+    // Per-solver POI state indexed by matrix index, so that POIs and the distance matrix stay read-only
+    Route[] poiRoutes;
+    int[] poiPositions;
+    double[] distanceStartEnd;
+    // POIs removed from the itinerary by resolve(), by matrix index; null until the first update
+    boolean[] removedPois;
+    // Catalogue POIs by id, built on the first resolve()
+    HashMap<String, Poi> poisById;
+    // Source of randomized perturbations, null for the deterministic disturb schedule
+    Random random;
+    SwapEngine.Mode swapMode;
+    SwapEngine swapEngine;
+    // Candidate restriction for insert, replace and move, null for exhaustive search
+    NeighborLists neighborLists;
+    // Swap partner candidates of SwapEngine.Mode.DONT_LOOK_BITS when neighborLists is not set
+    NeighborLists swapNeighborLists;
+    // Available POIs, enumerated by travel time from a route's centre of gravity
+    SpatialIndex availableIndex;
+    // Insert and replace candidates from the neighbour lists, ordered by candidateKeys, see startAppropriatenessQuery()
+    ArrayList<Poi> candidatePois;
+    int candidateCursor;
+    double[] candidateKeys;
+    int[] candidateStamps;
+    int candidateStamp;
+    RouteOptimizer routeOptimizer;
+    // Pool for evaluating swap and move candidates in parallel, null for sequential evaluation
+    ForkJoinPool evaluationPool;
+    // Constructions built by construct(): the deterministic one and randomized ones from constructionSeed + number
+    int constructionCount;
+    long constructionSeed;
+    // Opening hours (TOPTW): on if any catalogue POI has time windows. Routes leave START at startTime and must
+    // reach FINISH within the budget after it, waiting included.
+    boolean timeWindows;
+    double startTime;
+    // Anytime mode: wall-clock limit of a run, 0 for none, and the deadline of the current run
+    long timeLimitNanos;
+    boolean hasDeadline;
+    long runStart;
+    long deadline;
+    // Instrumentation of the current run, null unless enabled. The move counters are always maintained, they
+    // cost a field increment per evaluated move; operators are only timed with instrumentation enabled.
+    boolean collectStats;
+    // Keep every operator call in the statistics as well, for solve traces
+    boolean recordCalls;
+    SolverStats stats;
+    // Adaptive decisions depend on counted evaluations only, never on measured time
+    boolean deterministic;
+    // Operator statistics of the last runAlns(), null after other runs
+    AlnsStats alnsStats;
+    long evaluationCount;
+    long acceptanceCount;
+    long operatorEvaluations;
+    long operatorAcceptances;
+    SolutionListener solutionListener;
+    double reportedScore;
     double solutionScore;
+    // Best solution as matrix indices per route; POI ids are only materialized once the search returns
+    int[][] solutionStops;
     ArrayList<ArrayList<String>> solutionRoutes;
 
     TopSolver(int routeCount,
@@ -30,27 +104,279 @@ public class TopSolver {
               double startLng,
               double finishLat,
               double finishLng) {
+        this(routeCount, availableBudget,
+             PoiCatalogue.forRequest(pois, walkingSpeed, startLat, startLng, finishLat, finishLng, availableBudget),
+             startLat, startLng, finishLat, finishLng);
+    }
 
+    // Distance matrices of the given POI set are reused across solver runs through distanceMatrixCache (may be null).
+    // The cached matrix covers all POIs, so that it can serve requests with any start, finish and budget.
+    TopSolver(int routeCount,
+              double availableBudget,
+              double walkingSpeed,
+              ArrayList<Poi> pois,
+              double startLat,
+              double startLng,
+              double finishLat,
+              double finishLng,
+              DistanceMatrixCache distanceMatrixCache) {
+        this(routeCount, availableBudget, new PoiCatalogue(pois, walkingSpeed, distanceMatrixCache),
+             startLat, startLng, finishLat, finishLng);
+    }
+
+    // Reuses an already computed distance matrix over the given POIs, in list order
+    TopSolver(int routeCount,
+              double availableBudget,
+              double walkingSpeed,
+              ArrayList<Poi> pois,
+              double startLat,
+              double startLng,
+              double finishLat,
+              double finishLng,
+              DistanceMatrix catalogueMatrix) {
+        this(routeCount, availableBudget, new PoiCatalogue(pois, walkingSpeed, catalogueMatrix),
+             startLat, startLng, finishLat, finishLng);
+    }
+
+    // Solves one request over a shared catalogue, which is only read. Only the START and FINISH distances
+    // are computed per request.
+    TopSolver(int routeCount,
+              double availableBudget,
+              PoiCatalogue catalogue,
+              double startLat,
+              double startLng,
+              double finishLat,
+              double finishLng) {
         this.routeCount = routeCount;
         this.availableBudget = availableBudget;
-        this.walkingSpeed = walkingSpeed;
-        this.pois = pois;
+        this.walkingSpeed = catalogue.walkingSpeed;
+        this.travelTimeProvider = catalogue.travelTimeProvider;
         this.startPoi = new Poi("START", startLat, startLng, 0.0, 0.0);
         this.finishPoi = new Poi("FINISH", finishLat, finishLng, 0.0, 0.0);
+        this.startPoi.index = catalogue.size();
+        this.finishPoi.index = catalogue.size() + 1;
+        this.pois = new ArrayList<Poi>(catalogue.size() + 2);
+        this.pois.addAll(catalogue.pois);
         this.pois.add(this.startPoi);
         this.pois.add(this.finishPoi);
         this.availablePois = new ArrayList<Poi>();
         this.assignedPois = new ArrayList<Poi>();
         this.routes = new ArrayList<Route>();
-        computeDistancesBetweenPois(this.pois);
+        computeEndpointDistances(catalogue.distanceMatrix);
+        this.poiRoutes = new Route[this.distanceMatrix.getSize()];
+        this.poiPositions = new int[this.distanceMatrix.getSize()];
+        this.listPositions = new int[this.distanceMatrix.getSize()];
+        this.distanceStartEnd = new double[this.distanceMatrix.getSize()];
+        this.swapMode = SwapEngine.Mode.FIRST_IMPROVEMENT;
+        this.routeOptimizer = new ClassicTwoOptOptimizer();
+        this.availableIndex = new SpatialIndex(catalogue.spatialIndex);
+        this.constructionCount = 1;
+        this.timeWindows = catalogue.timeWindows;
+        updateFinishWindow();
+    }
+
+    // Creates an independent trajectory over the same POIs and distance matrix, both of which are only read
+    TopSolver(TopSolver prototype, Random random) {
+        this.routeCount = prototype.routeCount;
+        this.availableBudget = prototype.availableBudget;
+        this.walkingSpeed = prototype.walkingSpeed;
+        this.travelTimeProvider = prototype.travelTimeProvider;
+        this.pois = prototype.pois;
+        this.startPoi = prototype.startPoi;
+        this.finishPoi = prototype.finishPoi;
+        this.distanceMatrix = prototype.distanceMatrix;
+        this.availablePois = new ArrayList<Poi>();
+        this.assignedPois = new ArrayList<Poi>();
+        this.routes = new ArrayList<Route>();
+        this.poiRoutes = new Route[this.distanceMatrix.getSize()];
+        this.poiPositions = new int[this.distanceMatrix.getSize()];
+        this.listPositions = new int[this.distanceMatrix.getSize()];
+        this.distanceStartEnd = new double[this.distanceMatrix.getSize()];
+        this.removedPois = prototype.removedPois;
+        this.poisById = prototype.poisById;
+        this.random = random;
+        this.swapMode = prototype.swapMode;
+        this.neighborLists = prototype.neighborLists;
+        this.swapNeighborLists = prototype.swapNeighborLists;
+        this.routeOptimizer = prototype.routeOptimizer;
+        this.evaluationPool = prototype.evaluationPool;
+        this.constructionCount = prototype.constructionCount;
+        this.constructionSeed = prototype.constructionSeed;
+        this.availableIndex = new SpatialIndex(prototype.availableIndex);
+        this.timeWindows = prototype.timeWindows;
+        this.startTime = prototype.startTime;
+        this.timeLimitNanos = prototype.timeLimitNanos;
+        this.hasDeadline = prototype.hasDeadline;
+        this.runStart = prototype.runStart;
+        this.deadline = prototype.deadline;
+        this.collectStats = prototype.collectStats;
+        this.recordCalls = prototype.recordCalls;
+        this.deterministic = prototype.deterministic;
+    }
+
+    public void setSwapMode(SwapEngine.Mode swapMode) {
+        this.swapMode = swapMode;
+        // Built here rather than by the first swap, so that all trajectories of a multi-start run share them
+        if (swapMode == SwapEngine.Mode.DONT_LOOK_BITS && this.swapNeighborLists == null) {
+            this.swapNeighborLists = new NeighborLists(this.distanceMatrix, SwapEngine.NEIGHBOR_COUNT);
+        }
+    }
+
+    // Intra-route optimizer applied by tsp(), shared by all trajectories of a multi-start run
+    public void setRouteOptimizer(RouteOptimizer routeOptimizer) {
+        this.routeOptimizer = routeOptimizer;
+    }
+
+    // Evaluates the candidate moves of swap and move on the given pool, e.g. ForkJoinPool.commonPool(), while a
+    // single thread applies them. The chosen moves, and so the results, are those of the sequential search.
+    // Null restores sequential evaluation.
+    public void setEvaluationPool(ForkJoinPool evaluationPool) {
+        this.evaluationPool = evaluationPool;
+    }
+
+    // Builds constructionCount initial solutions in parallel, on the evaluation pool or else the common pool, and
+    // starts the search from the best one. Construction 0 is deterministic, the others are randomized from
+    // seed + construction number. A count of 1 restores the single deterministic construction.
+    public void setConstructionCount(int constructionCount, long seed) {
+        if (constructionCount < 1) {
+            throw new IllegalArgumentException("Construction count must be positive, got " + constructionCount);
+        }
+        this.constructionCount = constructionCount;
+        this.constructionSeed = seed;
+    }
+
+    // Restricts insert and replace to the k nearest neighbours of the route's stops, and move to POIs with a stop
+    // of the target route among their k nearest neighbours.
+    // A count of 0 restores the exhaustive search.
+    public void setNeighborCount(int neighborCount) {
+        if (neighborCount == 0) {
+            this.neighborLists = null;
+        } else if (this.neighborLists == null || this.neighborLists.getNeighborCount() != neighborCount) {
+            this.neighborLists = new NeighborLists(this.distanceMatrix, neighborCount);
+        }
+    }
+
+    // Limits run() and runMultiStart() to the given wall-clock time, on top of their loop limits. The operators
+    // check the deadline between moves, and the best solution found until then is returned. 0 disables the limit.
+    public void setTimeLimit(long timeLimit, TimeUnit unit) {
+        this.timeLimitNanos = unit.toNanos(timeLimit);
+    }
+
+    // Time at which routes leave START, on the clock of the POI time windows, e.g. minutes since midnight
+    public void setStartTime(double startTime) {
+        this.startTime = startTime;
+        updateFinishWindow();
+    }
+
+    // FINISH has to be reached within the budget, which with opening hours includes waiting times
+    private void updateFinishWindow() {
+        if (this.timeWindows) {
+            this.finishPoi.setTimeWindows(new double[]{this.startTime, this.startTime + this.availableBudget});
+        }
+    }
+
+    // Listener notified of every improved solution, from the thread running the search
+    public void setSolutionListener(SolutionListener solutionListener) {
+        this.solutionListener = solutionListener;
+    }
+
+    // Times every operator call, counts its evaluated and accepted moves and traces the score after every local
+    // search iteration, see getStats(). The operator calls and scores are also emitted as Flight Recorder events.
+    public void setCollectStats(boolean collectStats) {
+        this.collectStats = collectStats;
+    }
+
+    // Statistics of the last run, null if it was not instrumented
+    public SolverStats getStats() {
+        return this.stats;
     }
 
     public ArrayList<ArrayList<String>> run(int maxAlgLoop, int maxLSLoop) {
+        startClock();
+        ArrayList<ArrayList<String>> solutionRoutes = search(maxAlgLoop, maxLSLoop);
+        finishRun();
+        return solutionRoutes;
+    }
 
-        this.solutionScore = 0.0;
-        this.solutionRoutes = new ArrayList<ArrayList<String>>();
+    // Warm start after a live change of the itinerary. The previous routes, without removed and no longer reachable
+    // POIs, are cut back to the budget and re-optimized instead of constructing a solution from scratch. When the
+    // start moves, only the START row of the distance matrix is recomputed. Candidates are limited to this solver's
+    // catalogue, so POIs pruned for the original request by the pruning constructor stay out.
+    public ArrayList<ArrayList<String>> resolve(ArrayList<ArrayList<String>> previousRoutes, SolutionUpdate update,
+                                                int maxAlgLoop, int maxLSLoop) {
+        startClock();
+        applyUpdate(update);
+        startSearch();
+        warmStart(previousRoutes);
+        ArrayList<ArrayList<String>> solutionRoutes = improve(maxAlgLoop, maxLSLoop);
+        finishRun();
+        return solutionRoutes;
+    }
+
+    // Adaptive large neighbourhood search instead of the fixed disturb schedule of run(): construction and one local
+    // search descent, then up to maxIterations destroy and repair steps of AlnsEngine. With a time limit,
+    // maxIterations may be Integer.MAX_VALUE to search until the deadline. The same seed repeats the operator
+    // choices; their adaptive weights follow measured CPU time unless the solver is deterministic
+    // (SolverConfig.setDeterministic(), always the case for recorded solve traces), which makes them follow move
+    // evaluations and the whole run repeat exactly.
+    public ArrayList<ArrayList<String>> runAlns(int maxIterations, int maxLSLoop, long seed) {
+        startClock();
+        startSearch();
+        construct();
+        improve(1, maxLSLoop);
+        if (!deadlineReached() && this.solutionStops.length > 0) {
+            // Continue from the best solution of the descent, with empty routes up to routeCount for the repairs
+            restoreStops(this.solutionStops);
+            while (this.routes.size() < this.routeCount) {
+                Route route = new Route(this);
+                route.routeId = Integer.toString(this.routes.size());
+                this.routes.add(route);
+            }
+            AlnsEngine alnsEngine = new AlnsEngine(this, new Random(seed));
+            alnsEngine.run(maxIterations);
+            this.alnsStats = alnsEngine.stats;
+            LOGGER.fine(this.alnsStats.toString());
+        }
+        ArrayList<ArrayList<String>> solutionRoutes = finishSearch();
+        finishRun();
+        return solutionRoutes;
+    }
+
+    // Operator statistics of the last runAlns(), null if the last run was not an ALNS run
+    public AlnsStats getAlnsStats() {
+        return this.alnsStats;
+    }
 
+    private void finishRun() {
+        if (this.stats != null) {
+            this.stats.runNanos = System.nanoTime() - this.runStart;
+            LOGGER.fine(this.stats.toString());
+        }
+    }
+
+    private ArrayList<ArrayList<String>> search(int maxAlgLoop, int maxLSLoop) {
+        startSearch();
         construct();
+        if (this.random != null) {
+            // Randomized trajectories start from their own perturbation of the greedy solution
+            disturb(0.7,false);
+        }
+        return improve(maxAlgLoop, maxLSLoop);
+    }
+
+    private void startSearch() {
+        this.alnsStats = null;
+        this.solutionScore = 0.0;
+        this.solutionStops = new int[0][];
+        this.reportedScore = 0.0;
+        this.stats = this.collectStats ? new SolverStats() : null;
+        if (this.stats != null) {
+            this.stats.recordCalls = this.recordCalls;
+        }
+    }
+
+    // Iterated local search from the current routes
+    private ArrayList<ArrayList<String>> improve(int maxAlgLoop, int maxLSLoop) {
         int algLoop = 0;
         int disturbCount = 0;
 
@@ -58,41 +384,45 @@ public class TopSolver {
             algLoop++;
             int lsLoop = 0;
             double solutionScore = 0.0;
-            ArrayList<ArrayList<String>> solutionRoutes = new ArrayList<ArrayList<String>>();
+            int[][] solutionStops = new int[0][];
             Boolean solutionImproved = true;
 
             while (solutionImproved && (lsLoop < maxLSLoop)) {
                 lsLoop++;
                 solutionImproved = false;
 
-                swap();
-                tsp();
-                swap();
-                move();
-                insert();
-                replace();
+                runOperator(SolverStats.Operator.SWAP);
+                runOperator(SolverStats.Operator.TSP);
+                runOperator(SolverStats.Operator.SWAP);
+                runOperator(SolverStats.Operator.MOVE);
+                runOperator(SolverStats.Operator.INSERT);
+                runOperator(SolverStats.Operator.REPLACE);
 
                 double newSolutionScore = computeSolutionScore();
+                if (this.stats != null) {
+                    this.stats.traceScore(algLoop, lsLoop, System.nanoTime() - this.runStart, newSolutionScore);
+                }
                 if (newSolutionScore > solutionScore) {
-                    solutionRoutes.clear();
-                    for (Route route : this.routes) {
-                        ArrayList<String> routePois = new ArrayList<String>();
-                        for (Poi routePoi : route.pois) {
-                            routePois.add(routePoi.poiId);
-                        }
-                        solutionRoutes.add(routePois);
-                    }
+                    solutionStops = snapshotStops();
                     solutionScore = newSolutionScore;
                     solutionImproved = true;
+                    reportSolution(solutionScore, solutionStops);
+                }
+                if (deadlineReached()) {
+                    break;
                 }
             }
 
-            if (solutionScore > this.solutionScore) {
-                this.solutionScore = solutionScore;
-                this.solutionRoutes.clear();
-                for (ArrayList<String> routePoiIds : solutionRoutes) {
-                    this.solutionRoutes.add(routePoiIds);
+            if (deadlineReached()) {
+                // The operators stopped early, keep the best solution of this local search and return
+                if (solutionScore > this.solutionScore) {
+                    keepSolution(solutionScore, solutionStops);
                 }
+                return finishSearch();
+            }
+
+            if (solutionScore > this.solutionScore) {
+                keepSolution(solutionScore, solutionStops);
             } else if (solutionScore == this.solutionScore) {
                 if (disturbCount == 0) {
                     disturb(0.7,false);
@@ -101,7 +431,7 @@ public class TopSolver {
                     disturb(0.7,true);
                     disturbCount++;
                 } else {
-                    return this.solutionRoutes;
+                    return finishSearch();
                 }
             }
 
@@ -112,236 +442,337 @@ public class TopSolver {
 
         }
 
+        return finishSearch();
+    }
+
+    void keepSolution(double solutionScore, int[][] solutionStops) {
+        this.solutionScore = solutionScore;
+        this.solutionStops = solutionStops;
+    }
+
+    // Materializes the POI ids of the best solution
+    private ArrayList<ArrayList<String>> finishSearch() {
+        this.solutionRoutes = toPoiIds(this.solutionStops);
+        return this.solutionRoutes;
+    }
+
+    // Matrix indices of the current routes, in fresh arrays that are never modified afterwards
+    int[][] snapshotStops() {
+        int[][] solutionStops = new int[this.routes.size()][];
+        for (int r = 0; r < solutionStops.length; r++) {
+            Route route = this.routes.get(r);
+            solutionStops[r] = Arrays.copyOf(route.stops, route.size());
+        }
+        return solutionStops;
+    }
+
+    // Puts the routes back to a snapshot taken by snapshotStops() from the same routes
+    void restoreStops(int[][] solutionStops) {
+        ArrayList<Poi> reachablePois = new ArrayList<Poi>(this.assignedPois.size() + this.availablePois.size());
+        reachablePois.addAll(this.assignedPois);
+        reachablePois.addAll(this.availablePois);
+        for (int r = 0; r < solutionStops.length; r++) {
+            this.routes.get(r).assignStops(solutionStops[r]);
+        }
+
+        this.assignedPois = new ArrayList<Poi>();
+        for (Route route : this.routes) {
+            for (int position = 1; position < route.size() - 1; position++) {
+                this.assignedPois.add(route.getPoi(position));
+            }
+        }
+        this.availablePois = new ArrayList<Poi>();
+        for (Poi reachablePoi : reachablePois) {
+            if (this.poiRoutes[reachablePoi.index] == null) {
+                this.availablePois.add(reachablePoi);
+            }
+        }
+        resetAvailability();
+    }
+
+    private ArrayList<ArrayList<String>> toPoiIds(int[][] solutionStops) {
+        ArrayList<ArrayList<String>> solutionRoutes = new ArrayList<ArrayList<String>>(solutionStops.length);
+        for (int[] stops : solutionStops) {
+            ArrayList<String> routePois = new ArrayList<String>(stops.length);
+            for (int stop : stops) {
+                routePois.add(this.pois.get(stop).poiId);
+            }
+            solutionRoutes.add(routePois);
+        }
+        return solutionRoutes;
+    }
+
+    void reportSolution(double solutionScore, int[][] solutionStops) {
+        if (this.solutionListener != null && solutionScore > this.reportedScore) {
+            this.reportedScore = solutionScore;
+            this.solutionListener.solutionImproved(solutionScore, toPoiIds(solutionStops));
+        }
+    }
+
+    private void startClock() {
+        this.hasDeadline = this.timeLimitNanos > 0;
+        this.runStart = System.nanoTime();
+        this.deadline = this.runStart + this.timeLimitNanos;
+    }
+
+    boolean deadlineReached() {
+        return this.hasDeadline && System.nanoTime() - this.deadline >= 0;
+    }
+
+    public ArrayList<ArrayList<String>> runMultiStart(int maxAlgLoop, int maxLSLoop, int trajectoryCount, long seed)
+            throws InterruptedException {
+        int threadCount = Math.max(1, Math.min(trajectoryCount, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            return runMultiStart(maxAlgLoop, maxLSLoop, trajectoryCount, seed, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Runs trajectoryCount independent searches on the executor and keeps the best solution.
+    // The first trajectory follows the deterministic schedule of run(), the others disturb randomly,
+    // each from its own seed. Ties are resolved in favour of the lower trajectory number.
+    // With a time limit all trajectories share one deadline, and those still queued when it passes are skipped.
+    public ArrayList<ArrayList<String>> runMultiStart(final int maxAlgLoop,
+                                                     final int maxLSLoop,
+                                                     int trajectoryCount,
+                                                     long seed,
+                                                     ExecutorService executor) throws InterruptedException {
+        startClock();
+        // Trajectories report to the listener through a filter, so that it only sees improvements of the overall best
+        SolutionListener trajectoryListener = null;
+        if (this.solutionListener != null) {
+            trajectoryListener = new SolutionListener() {
+                double bestScore = 0.0;
+
+                @Override
+                public synchronized void solutionImproved(double score, ArrayList<ArrayList<String>> routes) {
+                    if (score > this.bestScore) {
+                        this.bestScore = score;
+                        solutionListener.solutionImproved(score, routes);
+                    }
+                }
+            };
+        }
+
+        ArrayList<Future<TopSolver>> futures = new ArrayList<Future<TopSolver>>();
+        for (int t = 0; t < trajectoryCount; t++) {
+            final TopSolver trajectory = new TopSolver(this, t == 0 ? null : new Random(seed + t));
+            trajectory.solutionListener = trajectoryListener;
+            futures.add(executor.submit(new Callable<TopSolver>() {
+                @Override
+                public TopSolver call() {
+                    if (trajectory.random != null && trajectory.deadlineReached()) {
+                        return null;
+                    }
+                    trajectory.search(maxAlgLoop, maxLSLoop);
+                    return trajectory;
+                }
+            }));
+        }
+
+        TopSolver bestTrajectory = null;
+        ArrayList<TopSolver> finishedTrajectories = new ArrayList<TopSolver>();
+        try {
+            for (Future<TopSolver> future : futures) {
+                TopSolver trajectory = future.get();
+                if (trajectory == null) {
+                    continue;
+                }
+                finishedTrajectories.add(trajectory);
+                if (bestTrajectory == null || trajectory.solutionScore > bestTrajectory.solutionScore) {
+                    bestTrajectory = trajectory;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Trajectory failed", e.getCause());
+        } finally {
+            for (Future<TopSolver> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        if (bestTrajectory != null) {
+            this.routes = bestTrajectory.routes;
+            this.poiRoutes = bestTrajectory.poiRoutes;
+            this.poiPositions = bestTrajectory.poiPositions;
+            this.distanceStartEnd = bestTrajectory.distanceStartEnd;
+            this.availablePois = bestTrajectory.availablePois;
+            this.assignedPois = bestTrajectory.assignedPois;
+            this.listPositions = bestTrajectory.listPositions;
+            this.availableIndex = bestTrajectory.availableIndex;
+            this.solutionScore = bestTrajectory.solutionScore;
+            this.solutionStops = bestTrajectory.solutionStops;
+            this.solutionRoutes = bestTrajectory.solutionRoutes;
+        }
+        if (this.collectStats) {
+            // Operator counters of all trajectories, score trace and call log of the best one
+            this.stats = bestTrajectory != null ? bestTrajectory.stats : new SolverStats();
+            for (TopSolver trajectory : finishedTrajectories) {
+                if (trajectory != bestTrajectory) {
+                    this.stats.addOperatorCounters(trajectory.stats);
+                }
+            }
+            this.stats.runNanos = System.nanoTime() - this.runStart;
+            LOGGER.fine(this.stats.toString());
+        }
         return this.solutionRoutes;
     }
 
-    // Greedy construction heuristic creates initial solution
-    private void construct() {
+    // Regret insertion into routeCount routes creates the initial solution. With several constructions, randomized
+    // ones are built besides the deterministic one on the evaluation pool, and the best of them is kept.
+    void construct() {
+        long started = operatorStarted();
+        this.routes = new ArrayList<Route>();
+        this.availablePois = new ArrayList<Poi>();
+        this.assignedPois = new ArrayList<Poi>();
+        Arrays.fill(this.poiRoutes, null);
         // Compute distances to start and finish POI and filter reachable POIs
         ArrayList<Poi> reachablePois = new ArrayList<Poi>();
         for (Poi poi : this.pois) {
             if (poi.poiId != this.startPoi.poiId && poi.poiId != this.finishPoi.poiId) {
-                poi.distanceStartEnd = poi.getDistanceFromPoi(this.startPoi.poiId) +
-                                       poi.getDistanceFromPoi(this.finishPoi.poiId);
-                if (poi.distanceStartEnd + poi.consumingBudget <= this.availableBudget) {
-                    this.availablePois.add(poi);
+                this.distanceStartEnd[poi.index] = this.distanceMatrix.get(this.startPoi.index, poi.index) +
+                                       this.distanceMatrix.get(poi.index, this.finishPoi.index);
+                if (this.distanceStartEnd[poi.index] + poi.consumingBudget <= this.availableBudget &&
+                        !isRemoved(poi) && fitsTimeWindows(poi)) {
                     reachablePois.add(poi);
                 }
             }
         }
 
-        // Sort available POIs by distances to start and end POI, and take first routeCount POIs to intialize routes
-        ArrayList<Poi> routeInitPois = (ArrayList<Poi>) this.availablePois.clone();
-        Collections.sort(routeInitPois, new Comparator<Poi>() {
-            @Override
-            public int compare(Poi o1, Poi o2) {
-                if (o1.distanceStartEnd > o2.distanceStartEnd)
-                    return -1;
-                else if (o1.distanceStartEnd < o2.distanceStartEnd)
-                    return 1;
-                else
-                    return 0;
-            }
-        });
+        if (this.constructionCount > 1) {
+            constructInParallel(reachablePois);
+        } else {
+            new RegretConstruction(this, reachablePois, null).build();
+        }
 
-        // Making sure there is enough available POIs to initialize routeCount routes
-        int initRouteCount = this.routeCount;
-        if (this.routeCount > routeInitPois.size()) {
-            initRouteCount = routeInitPois.size();
-        }
-        routeInitPois = new ArrayList<Poi>(routeInitPois.subList(0, initRouteCount));
-
-        // Initialize routes
-        for (Poi initPoi : routeInitPois) {
-            Route newRoute = new Route(this.startPoi, this.finishPoi);
-            // Add init POI between start and finish POIs, i.e. at the position 1
-            newRoute.insertPoi(initPoi,1);
-            this.availablePois.remove(initPoi);
-            this.routes.add(newRoute);
-        }
-
-        // For each of available POIs find cheapest insertion position among all newly created routes
-        ArrayList<Poi> includedPois = new ArrayList<Poi>();
-        for (Poi insertPoi : this.availablePois) {
-            double cheapestCost = Double.MAX_VALUE;
-            Route cheapestRoute = null;
-            int insertPosition = 0;
-
-            for (Route route : this.routes) {
-                double[] r = route.findCheapestInsertion(insertPoi);
-                double routeInsertCost = r[0];
-                int routeInsertPosition = (int)r[1];
-
-                if ((route.consumedBudget + routeInsertCost <= this.availableBudget) &&
-                        (routeInsertCost < cheapestCost)) {
-                    cheapestCost = routeInsertCost;
-                    insertPosition = routeInsertPosition;
-                    cheapestRoute = route;
-                }
+        // Add assigned POIs to the corresponding list, the others stay available
+        for (Route route : this.routes) {
+            for (int position = 1; position < route.size() - 1; position++) {
+                this.assignedPois.add(route.getPoi(position));
             }
-
-            // If the cheapest cost is found in the budget
-            if (cheapestRoute != null) {
-                cheapestRoute.insertPoi(insertPoi,insertPosition,cheapestCost);
-                includedPois.add(insertPoi);
+        }
+        for (Poi reachablePoi : reachablePois) {
+            if (this.poiRoutes[reachablePoi.index] == null) {
+                this.availablePois.add(reachablePoi);
             }
         }
-        // Remove included POIs
-        this.availablePois.removeAll(includedPois);
+        resetAvailability();
+        operatorFinished(SolverStats.Operator.CONSTRUCT, started);
+    }
 
-        // Construct new routes from the remaining available POIs until all points are assigned to routes
-        while (this.availablePois.size() > 0) {
-            // Initialize new route with most distant available POI
-            ArrayList<Poi> sortedInitPois = (ArrayList<Poi>) this.availablePois.clone();
-            Collections.sort(sortedInitPois, new Comparator<Poi>() {
+    // Builds constructionCount constructions, each in a scratch solver of its own, and takes over the routes of
+    // the best one; ties go to the lower construction number, the deterministic construction being number 0
+    private void constructInParallel(final ArrayList<Poi> reachablePois) {
+        final TopSolver[] constructions = new TopSolver[this.constructionCount];
+        final ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (int c = 0; c < this.constructionCount; c++) {
+            final int construction = c;
+            final Random random = c == 0 ? null : new Random(this.constructionSeed + c);
+            tasks.add(new RecursiveAction() {
                 @Override
-                public int compare(Poi o1, Poi o2) {
-                    if (o1.distanceStartEnd > o2.distanceStartEnd)
-                        return -1;
-                    else if (o1.distanceStartEnd < o2.distanceStartEnd)
-                        return 1;
-                    else
-                        return 0;
+                protected void compute() {
+                    TopSolver scratch = new TopSolver(TopSolver.this, null);
+                    // Only read by the construction
+                    scratch.distanceStartEnd = distanceStartEnd;
+                    new RegretConstruction(scratch, reachablePois, random).build();
+                    constructions[construction] = scratch;
                 }
             });
-            Poi initPoi = sortedInitPois.get(0);
-            Route newRoute = new Route(this.startPoi, this.finishPoi);
-            // Add init POI between start and finish POIs, i.e. at the position 1
-            newRoute.insertPoi(initPoi,1);
-            this.availablePois.remove(initPoi);
-            this.routes.add(newRoute);
-
-            // Go through all the available POIs and find the cheapest place for insertion
-            ArrayList<Poi> includedPois1 = new ArrayList<Poi>();
-            for (Poi insertPoi : this.availablePois) {
-                double[] r = newRoute.findCheapestInsertion(insertPoi);
-                double insertCost = r[0];
-                int insertPosition = (int)r[1];
-                if (newRoute.consumedBudget + insertCost <= this.availableBudget) {
-                    newRoute.insertPoi(insertPoi,insertPosition,insertCost);
-                    includedPois1.add(insertPoi);
-                }
-            }
-            // Remove included POIs
-            this.availablePois.removeAll(includedPois1);
         }
-
-        ArrayList<Route> initRoutes = (ArrayList<Route>) this.routes.clone();
-        Collections.sort(initRoutes, new Comparator<Route>() {
+        ForkJoinPool pool = this.evaluationPool != null ? this.evaluationPool : ForkJoinPool.commonPool();
+        pool.invoke(new RecursiveAction() {
             @Override
-            public int compare(Route o1, Route o2) {
-                if (o1.score > o2.score)
-                    return -1;
-                else if (o1.score < o2.score)
-                    return 1;
-                else
-                    return 0;
+            protected void compute() {
+                invokeAll(tasks);
             }
         });
 
-        // Making sure there is more than routeCount routes
-        int routeCount = this.routeCount;
-        if (this.routeCount > initRoutes.size()) {
-            routeCount = initRoutes.size();
-        }
-
-        // Take first routeCount routes
-        this.routes = new ArrayList<Route>(initRoutes.subList(0,routeCount));
-
-        // Assign IDs to routes, and add assinged POIs to corresponding list
-        int routeCounter = 0;
-        for (Route route : this.routes) {
-            route.routeId = Integer.toString(routeCounter);
-            routeCounter++;
-            for (Poi assignedPoi : route.pois) {
-                if (assignedPoi.poiId != this.startPoi.poiId && assignedPoi.poiId != this.finishPoi.poiId) {
-                    this.assignedPois.add(assignedPoi);
-                }
+        TopSolver bestConstruction = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (TopSolver construction : constructions) {
+            this.evaluationCount += construction.evaluationCount;
+            this.acceptanceCount += construction.acceptanceCount;
+            double score = construction.computeSolutionScore();
+            if (score > bestScore) {
+                bestScore = score;
+                bestConstruction = construction;
             }
         }
-        // Remove assigned POIs from reachable list
-        reachablePois.removeAll(this.assignedPois);
-        // Set route to nil for all remaining POIs
-        for (Poi reachablePoi : reachablePois) {
-            reachablePoi.route = null;
+        for (int[] stops : bestConstruction.snapshotStops()) {
+            Route route = new Route(this);
+            route.routeId = Integer.toString(this.routes.size());
+            route.assignStops(stops);
+            this.routes.add(route);
         }
-        this.availablePois = (ArrayList<Poi>) reachablePois.clone();
     }
 
 // Method swaps a location between two tours
 // This heuristic endeavours to exchange two locations between two tours
-    private void swap() {
-        boolean swap = true;
-        while (swap) {
-            swap = false;
-            for (Poi poiI : this.assignedPois) {
-                for (Poi poiJ : this.assignedPois) {
-
-                    Route routeI = poiI.route;
-                    Route routeJ = poiJ.route;
-                    if (routeI != routeJ) {
-
-                        double[] rI = routeI.findCheapestReplace(poiI,poiJ);
-                        double gainI = rI[0];
-                        double costI = rI[1];
-                        int insertPositionI = (int) rI[2];
-
-                        double[] rJ = routeJ.findCheapestReplace(poiJ,poiI);
-                        double gainJ = rJ[0];
-                        double costJ = rJ[1];
-                        int insertPositionJ = (int) rJ[2];
-
-                        if ((routeI.consumedBudget - gainI + costI <= this.availableBudget) &&
-                                (routeJ.consumedBudget - gainJ + costJ <= this.availableBudget )) {
-                            // If the travel time can be reduced in each tour, or if the time saved in one tour
-                            // is longer than the extra time needed in the other tour, the swap is carried out
-                            if ((gainI > costI && gainJ > costJ) ||
-                                    (gainI - costI > costJ - gainJ) ||
-                                    (gainJ - costJ > costI - gainI)) {
-                                routeI.removePoi(poiI,gainI);
-                                routeJ.removePoi(poiJ,gainJ);
-                                routeI.insertPoi(poiJ,insertPositionI,costI);
-                                routeJ.insertPoi(poiI,insertPositionJ,costJ);
-                                swap = true;
-                                break;
-                            }
-                        }
-
-                    }
-                }
-                if (swap) break;
-            }
+    void swap() {
+        if (this.swapEngine == null || this.swapEngine.mode != this.swapMode) {
+            this.swapEngine = new SwapEngine(this, this.swapMode);
         }
+        this.swapEngine.swap();
     }
 
-// A 2-opt heuristic for traveling salesman problem
+// Intra-route optimization, by default a 2-opt heuristic for traveling salesman problem
 // https://en.wikipedia.org/wiki/2-opt
-    private void tsp() {
+    void tsp() {
         for (Route route : this.routes) {
-            route.tsp();
+            if (deadlineReached()) return;
+            int modificationCount = route.modificationCount;
+            this.routeOptimizer.optimize(route);
+            this.evaluationCount++;
+            if (route.modificationCount != modificationCount) {
+                this.acceptanceCount++;
+            }
         }
     }
 
 // Move a location from one tour to another
 // Methods tries to group together the available time left.
-    private void move() {
+    void move() {
         ArrayList<Route> shortenedRoutes = new ArrayList<Route>();
         boolean moveMade = true;
 
         while (moveMade) {
             moveMade = false;
+            long candidates = (long) this.assignedPois.size() * this.routes.size();
+            if (this.evaluationPool != null && candidates >= ParallelScan.MIN_PARALLEL_CANDIDATES &&
+                    candidates <= Integer.MAX_VALUE) {
+                int move = findFirstMove(shortenedRoutes);
+                if (deadlineReached() || move == ParallelScan.NONE) return;
+                Poi movingPoi = this.assignedPois.get(move / this.routes.size());
+                Route newRoute = this.routes.get(move % this.routes.size());
+                Route oldRoute = this.poiRoutes[movingPoi.index];
+                newRoute.findCheapestInsertion(movingPoi);
+                oldRoute.removePoi(movingPoi);
+                newRoute.insertPoi(movingPoi, newRoute.insertPosition, newRoute.insertCost);
+                this.acceptanceCount++;
+                if (!shortenedRoutes.contains(oldRoute)) shortenedRoutes.add(oldRoute);
+                moveMade = true;
+                continue;
+            }
             for (Poi movingPoi : this.assignedPois) {
+                if (deadlineReached()) return;
                 for (Route newRoute : this.routes) {
-                    Route oldRoute = movingPoi.route;
-                    if ((newRoute != oldRoute) && !shortenedRoutes.contains(newRoute)) {
+                    Route oldRoute = this.poiRoutes[movingPoi.index];
+                    if ((newRoute != oldRoute) && !shortenedRoutes.contains(newRoute) && isNearRoute(movingPoi, newRoute)) {
 
-                        double[] r = newRoute.findCheapestInsertion(movingPoi);
-                        double insertCost = r[0];
-                        int insertPosition = (int) r[1];
+                        newRoute.findCheapestInsertion(movingPoi);
+                        this.evaluationCount++;
+                        double insertCost = newRoute.insertCost;
+                        int insertPosition = newRoute.insertPosition;
 
-                        if (newRoute.consumedBudget + insertCost <= this.availableBudget) {
+                        if (newRoute.consumedBudget + insertCost <= this.availableBudget && oldRoute.canRemove(movingPoi)) {
                             oldRoute.removePoi(movingPoi);
                             newRoute.insertPoi(movingPoi, insertPosition, insertCost);
+                            this.acceptanceCount++;
                             if (!shortenedRoutes.contains(oldRoute)) shortenedRoutes.add(oldRoute);
                             moveMade = true;
                             break;
@@ -354,24 +785,60 @@ public class TopSolver {
         }
     }
 
+    // First (POI, route) pair in the order of the sequential move scan that can be moved, evaluated in parallel
+    private int findFirstMove(final ArrayList<Route> shortenedRoutes) {
+        final int routeCount = this.routes.size();
+        ParallelScan<Void> scan = new ParallelScan<Void>(this.evaluationPool) {
+            @Override
+            Void createWorker() {
+                return null;
+            }
+
+            @Override
+            double evaluate(Void worker, int candidate) {
+                Poi movingPoi = assignedPois.get(candidate / routeCount);
+                Route newRoute = routes.get(candidate % routeCount);
+                Route oldRoute = poiRoutes[movingPoi.index];
+                if (newRoute == oldRoute || shortenedRoutes.contains(newRoute) || !isNearRoute(movingPoi, newRoute)) {
+                    return Double.NaN;
+                }
+                double insertCost = newRoute.getCheapestInsertionCost(movingPoi);
+                if (newRoute.consumedBudget + insertCost <= availableBudget && oldRoute.canRemove(movingPoi)) {
+                    return 0.0;
+                }
+                return Double.NaN;
+            }
+
+            @Override
+            boolean cancelled() {
+                return deadlineReached();
+            }
+        };
+        int move = scan.findFirst(0, this.assignedPois.size() * routeCount);
+        this.evaluationCount += scan.getEvaluations();
+        return move;
+    }
+
 // Method attempts to insert new locations in the tours in
 // the position where the location consumes the least travel time.
-    private void insert() {
+    void insert() {
         for (Route route : this.routes) {
             boolean insertion = true;
             while (insertion) {
                 insertion = false;
-                ArrayList<Poi> sortedAvailablePois = sortByAppropriateness(route);
-                for (Poi insertPoi : sortedAvailablePois) {
+                startAppropriatenessQuery(route);
+                for (Poi insertPoi = nextAppropriatePoi(); insertPoi != null; insertPoi = nextAppropriatePoi()) {
+                    if (deadlineReached()) return;
 
-                    double[] r = route.findCheapestInsertion(insertPoi);
-                    double insertCost = r[0];
-                    int insertPosition = (int) r[1];
+                    route.findCheapestInsertion(insertPoi);
+                    this.evaluationCount++;
+                    double insertCost = route.insertCost;
+                    int insertPosition = route.insertPosition;
 
                     if (route.consumedBudget + insertCost <= this.availableBudget) {
                         route.insertPoi(insertPoi,insertPosition,insertCost);
-                        this.availablePois.remove(insertPoi);
-                        this.assignedPois.add(insertPoi);
+                        assignPoi(insertPoi);
+                        this.acceptanceCount++;
                         insertion = true;
                         break;
                     }
@@ -381,42 +848,45 @@ public class TopSolver {
     }
 
 // Method seeks to replace an included location by a non-included location with a higher score.
-    private void replace() {
+    void replace() {
         for (Route route : this.routes) {
             boolean replacement = true;
             while (replacement) {
                 replacement = false;
-                ArrayList<Poi> sortedAvailablePois = sortByAppropriateness(route);
-                for (Poi insertPoi : sortedAvailablePois) {
+                startAppropriatenessQuery(route);
+                for (Poi insertPoi = nextAppropriatePoi(); insertPoi != null; insertPoi = nextAppropriatePoi()) {
+                    if (deadlineReached()) return;
 
                     // First check if there is enough budget to insert POI
-                    double[] r = route.findCheapestInsertion(insertPoi);
-                    double insertCost = r[0];
-                    int insertPosition = (int)r[1];
+                    route.findCheapestInsertion(insertPoi);
+                    this.evaluationCount++;
+                    double insertCost = route.insertCost;
+                    int insertPosition = route.insertPosition;
                     if (route.consumedBudget + insertCost <= this.availableBudget) {
                         route.insertPoi(insertPoi, insertPosition, insertCost);
-                        this.availablePois.remove(insertPoi);
-                        this.assignedPois.add(insertPoi);
+                        assignPoi(insertPoi);
+                        this.acceptanceCount++;
                         replacement = true;
                         break;
                     }
 
                     // If no avialable budget, try to find it by removing pois with lower scores
-                    for (Poi removePoi : new ArrayList<Poi>(route.pois.subList(1,route.pois.size()-1))) {
+                    for (int position = 1; position < route.size() - 1; position++) {
+                        Poi removePoi = route.getPoi(position);
                         if (removePoi.score < insertPoi.score) {
 
-                            double[] r1 = route.findCheapestReplace(removePoi, insertPoi);
-                            double removeGainReplace = r1[0];
-                            double insertCostReplace = r1[1];
-                            int insertPositionReplace = (int) r1[2];
+                            route.findCheapestReplace(removePoi, insertPoi);
+                            this.evaluationCount++;
+                            double removeGainReplace = route.removeGain;
+                            double insertCostReplace = route.insertCost;
+                            int insertPositionReplace = route.insertPosition;
 
                             if (route.consumedBudget - removeGainReplace + insertCostReplace <= this.availableBudget) {
                                 route.removePoi(removePoi,removeGainReplace);
-                                this.availablePois.add(removePoi);
-                                this.assignedPois.remove(removePoi);
+                                releasePoi(removePoi);
                                 route.insertPoi(insertPoi, insertPositionReplace, insertCostReplace);
-                                this.availablePois.remove(insertPoi);
-                                this.assignedPois.add(insertPoi);
+                                assignPoi(insertPoi);
+                                this.acceptanceCount++;
                                 replacement = true;
                                 break;
                             }
@@ -430,48 +900,372 @@ public class TopSolver {
         }
     }
 
-    private void disturb(double percentage, boolean fromStart) {
+    void disturb(double percentage, boolean fromStart) {
+        long started = operatorStarted();
         for (Route route : this.routes) {
-            for (Poi removedPoi : route.disturb(percentage,fromStart)) {
-                removedPoi.route = null;
-                this.availablePois.add(removedPoi);
-                this.assignedPois.remove(removedPoi);
+            ArrayList<Poi> removedPois;
+            if (this.random == null) {
+                removedPois = route.disturb(percentage,fromStart);
+            } else {
+                removedPois = route.disturb(percentage,this.random);
+            }
+            if (!route.isTimeFeasible()) {
+                // Removals can delay later visits past their opening hours
+                removedPois.addAll(route.removeLateVisits());
+            }
+            for (Poi removedPoi : removedPois) {
+                this.poiRoutes[removedPoi.index] = null;
+                releasePoi(removedPoi);
+            }
+            this.evaluationCount++;
+            this.acceptanceCount += removedPois.size();
+        }
+        operatorFinished(SolverStats.Operator.DISTURB, started);
+    }
+
+    // Runs one local search operator, timed and counted if instrumentation is enabled
+    void runOperator(SolverStats.Operator operator) {
+        long started = operatorStarted();
+        switch (operator) {
+            case SWAP:
+                swap();
+                break;
+            case TSP:
+                tsp();
+                break;
+            case MOVE:
+                move();
+                break;
+            case INSERT:
+                insert();
+                break;
+            case REPLACE:
+                replace();
+                break;
+            default:
+                throw new IllegalArgumentException("Not a local search operator: " + operator);
+        }
+        operatorFinished(operator, started);
+    }
+
+    // Start time of an instrumented operator call, 0 if instrumentation is disabled. Operators never nest.
+    private long operatorStarted() {
+        if (this.stats == null) {
+            return 0L;
+        }
+        this.operatorEvaluations = this.evaluationCount;
+        this.operatorAcceptances = this.acceptanceCount;
+        this.stats.operatorStarted();
+        return System.nanoTime();
+    }
+
+    private void operatorFinished(SolverStats.Operator operator, long started) {
+        if (this.stats == null) {
+            return;
+        }
+        this.stats.operatorFinished(operator, System.nanoTime() - started,
+                                    this.evaluationCount - this.operatorEvaluations,
+                                    this.acceptanceCount - this.operatorAcceptances,
+                                    computeSolutionScore());
+    }
+
+    private void applyUpdate(SolutionUpdate update) {
+        if (update.budgetChanged) {
+            this.availableBudget = update.availableBudget;
+            updateFinishWindow();
+        }
+        if (this.removedPois == null) {
+            this.removedPois = new boolean[this.distanceMatrix.getSize()];
+        }
+        for (String poiId : update.removedPoiIds) {
+            Poi removedPoi = findPoi(poiId);
+            if (removedPoi != null) {
+                this.removedPois[removedPoi.index] = true;
+            }
+        }
+
+        if (update.startChanged) {
+            Poi startPoi = new Poi("START", update.startLat, update.startLng, 0.0, 0.0);
+            startPoi.index = this.startPoi.index;
+            // The POI list may still be shared with the trajectories of an earlier multi-start run
+            this.pois = new ArrayList<Poi>(this.pois);
+            this.pois.set(startPoi.index, startPoi);
+            this.startPoi = startPoi;
+
+            EndpointDistanceMatrix endpointMatrix = (EndpointDistanceMatrix) this.distanceMatrix;
+            DistanceMatrixBuilder builder = new DistanceMatrixBuilder(this.travelTimeProvider);
+            double[] startDistances = builder.buildRow(this.pois, startPoi);
+            double[] toStartDistances = builder.isSymmetric() ? startDistances : builder.buildColumn(this.pois, startPoi);
+            double[] finishDistances = endpointMatrix.finishDistances.clone();
+            double[] toFinishDistances = endpointMatrix.toFinishDistances == endpointMatrix.finishDistances ?
+                                         finishDistances : endpointMatrix.toFinishDistances.clone();
+            finishDistances[startPoi.index] = toStartDistances[this.finishPoi.index];
+            toFinishDistances[startPoi.index] = startDistances[this.finishPoi.index];
+            // Neighbour lists keep the old START, which only affects how candidates are restricted
+            this.distanceMatrix = new EndpointDistanceMatrix(endpointMatrix.catalogueMatrix, startDistances,
+                                                             toStartDistances, finishDistances, toFinishDistances);
+        }
+    }
+
+    // Rebuilds routes and POI lists from the POI ids of a previous solution, under the current start and budget
+    private void warmStart(ArrayList<ArrayList<String>> previousRoutes) {
+        ArrayList<Poi> reachablePois = new ArrayList<Poi>();
+        boolean[] reachable = new boolean[this.distanceMatrix.getSize()];
+        for (int index = 0; index < this.startPoi.index; index++) {
+            Poi poi = this.pois.get(index);
+            this.poiRoutes[index] = null;
+            this.distanceStartEnd[index] = this.distanceMatrix.get(this.startPoi.index, index) +
+                                           this.distanceMatrix.get(index, this.finishPoi.index);
+            if (this.distanceStartEnd[index] + poi.consumingBudget <= this.availableBudget && !isRemoved(poi) &&
+                    fitsTimeWindows(poi)) {
+                reachable[index] = true;
+                reachablePois.add(poi);
+            }
+        }
+
+        // Previous routes keep their visiting order
+        this.routes = new ArrayList<Route>();
+        for (ArrayList<String> previousRoute : previousRoutes) {
+            if (this.routes.size() == this.routeCount) {
+                break;
+            }
+            Route route = new Route(this);
+            for (String poiId : previousRoute) {
+                Poi poi = findPoi(poiId);
+                if (poi != null && reachable[poi.index] && this.poiRoutes[poi.index] == null) {
+                    route.insertPoi(poi, route.size() - 1);
+                }
+            }
+            cutToBudget(route);
+            this.routes.add(route);
+        }
+
+        // Missing routes start from the most distant unassigned POI, as in construct()
+        while (this.routes.size() < this.routeCount) {
+            Poi initPoi = null;
+            for (Poi reachablePoi : reachablePois) {
+                if (this.poiRoutes[reachablePoi.index] == null && (initPoi == null ||
+                        this.distanceStartEnd[reachablePoi.index] > this.distanceStartEnd[initPoi.index])) {
+                    initPoi = reachablePoi;
+                }
+            }
+            if (initPoi == null) {
+                break;
+            }
+            Route route = new Route(this);
+            route.insertPoi(initPoi, 1);
+            this.routes.add(route);
+        }
+
+        this.assignedPois = new ArrayList<Poi>();
+        for (int r = 0; r < this.routes.size(); r++) {
+            Route route = this.routes.get(r);
+            route.routeId = Integer.toString(r);
+            for (int position = 1; position < route.size() - 1; position++) {
+                this.assignedPois.add(route.getPoi(position));
             }
         }
+        this.availablePois = new ArrayList<Poi>();
+        for (Poi reachablePoi : reachablePois) {
+            if (this.poiRoutes[reachablePoi.index] == null) {
+                this.availablePois.add(reachablePoi);
+            }
+        }
+        resetAvailability();
+    }
+
+    // Drops the POIs with the lowest score per freed budget until the route fits into the budget and opening hours
+    private void cutToBudget(Route route) {
+        while ((route.consumedBudget > this.availableBudget || !route.isTimeFeasible()) && route.size() > 2) {
+            int worstPosition = 1;
+            double worstRatio = Double.MAX_VALUE;
+            for (int position = 1; position < route.size() - 1; position++) {
+                double gain = route.getDelitionGain(position);
+                double ratio = gain > 0.0 ? route.getPoi(position).score / gain : Double.MAX_VALUE;
+                if (ratio < worstRatio) {
+                    worstRatio = ratio;
+                    worstPosition = position;
+                }
+            }
+            route.removePoi(route.getPoi(worstPosition));
+        }
     }
 
-    private ArrayList<Poi> sortByAppropriateness(Route route) {
-        double[] cog = route.computeRouteCOG();
-        HashMap<String,Double> apprDict = new HashMap<String,Double>();
-        for (Poi availablePoi : this.availablePois) {
-            apprDict.put(availablePoi.poiId, availablePoi.distanceFrom(cog[0],cog[1],this.walkingSpeed));
+    // Whether the POI can be visited between START and FINISH within its opening hours; true without time windows
+    private boolean fitsTimeWindows(Poi poi) {
+        if (!this.timeWindows) {
+            return true;
         }
+        double start = poi.earliestStart(this.startTime + this.distanceMatrix.get(this.startPoi.index, poi.index));
+        return start != Double.POSITIVE_INFINITY &&
+               this.finishPoi.earliestStart(start + poi.consumingBudget +
+                                            this.distanceMatrix.get(poi.index, this.finishPoi.index)) != Double.POSITIVE_INFINITY;
+    }
+
+    private boolean isRemoved(Poi poi) {
+        return this.removedPois != null && this.removedPois[poi.index];
+    }
 
-        ArrayList<Poi> sortedArray = (ArrayList<Poi>) this.availablePois.clone();
-        Collections.sort(sortedArray, new Comparator<Poi>() {
+    private Poi findPoi(String poiId) {
+        if (this.poisById == null) {
+            this.poisById = new HashMap<String, Poi>();
+            for (int index = 0; index < this.startPoi.index; index++) {
+                this.poisById.put(this.pois.get(index).poiId, this.pois.get(index));
+            }
+        }
+        return this.poisById.get(poiId);
+    }
+
+    // True if one of the POI's nearest neighbours is on the route; START and FINISH are on every route
+    private boolean isNearRoute(Poi poi, Route route) {
+        if (this.neighborLists == null) {
+            return true;
+        }
+        for (int rank = 0; rank < this.neighborLists.getNeighborCount(); rank++) {
+            int neighbor = this.neighborLists.getNeighbor(poi.index, rank);
+            if (neighbor < 0) {
+                break;
+            }
+            if (neighbor == this.startPoi.index || neighbor == this.finishPoi.index ||
+                    this.poiRoutes[neighbor] == route) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Available POIs closest to the route's centre of gravity are the most appropriate ones to add. With
+    // neighbour lists only the available neighbours of the route's stops are candidates, START and FINISH
+    // included, so the query never walks the whole index.
+    private void startAppropriatenessQuery(Route route) {
+        route.computeRouteCOG();
+        if (this.neighborLists == null) {
+            this.availableIndex.startQuery(route.cogLat, route.cogLng, this.walkingSpeed);
+            return;
+        }
+        if (this.candidateStamps == null) {
+            this.candidateStamps = new int[this.distanceMatrix.getSize()];
+            this.candidateKeys = new double[this.distanceMatrix.getSize()];
+            this.candidatePois = new ArrayList<Poi>();
+        }
+        this.candidateStamp++;
+        this.candidatePois.clear();
+        this.candidateCursor = 0;
+        for (int position = 0; position < route.size(); position++) {
+            int stop = route.getPoi(position).index;
+            for (int rank = 0; rank < this.neighborLists.getNeighborCount(); rank++) {
+                int neighbor = this.neighborLists.getNeighbor(stop, rank);
+                if (neighbor < 0) {
+                    break;
+                }
+                if (neighbor == this.startPoi.index || neighbor == this.finishPoi.index ||
+                        this.candidateStamps[neighbor] == this.candidateStamp) {
+                    continue;
+                }
+                this.candidateStamps[neighbor] = this.candidateStamp;
+                if (this.poiRoutes[neighbor] == null && this.availableIndex.isAvailable(neighbor)) {
+                    Poi candidate = this.pois.get(neighbor);
+                    this.candidateKeys[neighbor] = candidate.distanceFrom(route.cogLat, route.cogLng, this.walkingSpeed);
+                    this.candidatePois.add(candidate);
+                }
+            }
+        }
+        // Same order as the index query: travel time from the centre of gravity, then POI index
+        Collections.sort(this.candidatePois, new Comparator<Poi>() {
             @Override
             public int compare(Poi o1, Poi o2) {
-                if (apprDict.get(o1.poiId) > apprDict.get(o2.poiId))
-                    return -1;
-                else if (apprDict.get(o1.poiId) < apprDict.get(o2.poiId))
-                    return 1;
-                else
-                    return 0;
+                int order = Double.compare(candidateKeys[o1.index], candidateKeys[o2.index]);
+                return order != 0 ? order : Integer.compare(o1.index, o2.index);
             }
         });
+    }
 
-        return sortedArray;
+    // Next candidate of the query started by startAppropriatenessQuery(), or null when all have been returned
+    private Poi nextAppropriatePoi() {
+        if (this.neighborLists == null) {
+            return this.availableIndex.nextNearest();
+        }
+        return this.candidateCursor < this.candidatePois.size() ? this.candidatePois.get(this.candidateCursor++) : null;
     }
 
-    private void computeDistancesBetweenPois(ArrayList<Poi> pois) {
-        for (Poi poiI : pois) {
-            for (Poi poiJ : pois) {
-                poiI.setDistanceFromPoi(poiJ.poiId, poiJ.lat, poiJ.lng, this.walkingSpeed);
-            }
+    void assignPoi(Poi poi) {
+        removeFromList(this.availablePois, poi);
+        this.availableIndex.remove(poi);
+        addToList(this.assignedPois, poi);
+    }
+
+    void releasePoi(Poi poi) {
+        removeFromList(this.assignedPois, poi);
+        addToList(this.availablePois, poi);
+        this.availableIndex.add(poi);
+    }
+
+    // Makes the availability index and the list positions match availablePois and assignedPois after they were
+    // rebuilt
+    void resetAvailability() {
+        this.availableIndex.reset(this.availablePois);
+        for (int position = 0; position < this.availablePois.size(); position++) {
+            this.listPositions[this.availablePois.get(position).index] = position;
         }
+        for (int position = 0; position < this.assignedPois.size(); position++) {
+            this.listPositions[this.assignedPois.get(position).index] = position;
+        }
+    }
+
+    private void addToList(ArrayList<Poi> list, Poi poi) {
+        this.listPositions[poi.index] = list.size();
+        list.add(poi);
+    }
+
+    // Moves the last POI of the list into the gap, so the list order is not kept. POIs not in the list are ignored.
+    private void removeFromList(ArrayList<Poi> list, Poi poi) {
+        int position = this.listPositions[poi.index];
+        if (position >= list.size() || list.get(position) != poi) {
+            return;
+        }
+        Poi last = list.remove(list.size() - 1);
+        if (last != poi) {
+            list.set(position, last);
+            this.listPositions[last.index] = position;
+        }
+    }
+
+    // Builds (or loads) the catalogue distance matrix, rows and columns in list order
+    static DistanceMatrix computeCatalogueMatrix(ArrayList<Poi> pois, double walkingSpeed,
+                                                 DistanceMatrixCache distanceMatrixCache) {
+        DistanceMatrixBuilder builder = new DistanceMatrixBuilder(walkingSpeed);
+        if (distanceMatrixCache != null) {
+            return distanceMatrixCache.getOrBuild(pois, walkingSpeed, builder);
+        }
+        return builder.build(pois);
+    }
+
+    static void indexPois(ArrayList<Poi> pois) {
+        for (int i = 0; i < pois.size(); i++) {
+            pois.get(i).index = i;
+        }
+    }
+
+    // Only the START and FINISH distances are computed per request
+    private void computeEndpointDistances(DistanceMatrix catalogueMatrix) {
+        DistanceMatrixBuilder builder = new DistanceMatrixBuilder(this.travelTimeProvider);
+        double[] startDistances = builder.buildRow(this.pois, this.startPoi);
+        double[] finishDistances = builder.buildRow(this.pois, this.finishPoi);
+        if (builder.isSymmetric()) {
+            this.distanceMatrix = new EndpointDistanceMatrix(catalogueMatrix, startDistances, finishDistances);
+        } else {
+            this.distanceMatrix = new EndpointDistanceMatrix(catalogueMatrix,
+                                                             startDistances, builder.buildColumn(this.pois, this.startPoi),
+                                                             finishDistances, builder.buildColumn(this.pois, this.finishPoi));
+        }
+        LOGGER.fine("Distance matrix for " + this.pois.size() + " POIs occupies " + this.distanceMatrix.getMemorySize() + " bytes");
+    }
+
+    public long getDistanceMatrixMemorySize() {
+        return this.distanceMatrix.getMemorySize();
     }
 
-    private double computeSolutionScore() {
+    double computeSolutionScore() {
         double solutionScore = 0.0;
         for (Route route : this.routes) {
             solutionScore += route.score;
@@ -0,0 +1,13 @@
+package com.dama;
+
+/**
+ * Source of the travel times between POIs, in budget units. Solvers read it once per catalogue to fill the distance
+ * matrix and once per request for the START and FINISH rows, so implementations may be slow but must be thread safe.
+ */
+public interface TravelTimeProvider {
+
+    double travelTime(Poi fromPoi, Poi toPoi);
+
+    // True if travelTime(a, b) == travelTime(b, a) for all POIs, which lets matrices be filled one pair at a time
+    boolean isSymmetric();
+}
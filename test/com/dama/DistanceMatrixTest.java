@@ -0,0 +1,106 @@
+package com.dama;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DistanceMatrixTest {
+
+    static final double WALKING_SPEED = 65.0;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    static ArrayList<Poi> randomPois(int poiCount, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Poi> pois = new ArrayList<Poi>(poiCount);
+        for (int i = 0; i < poiCount; i++) {
+            pois.add(new Poi("p" + i, 41.35 + random.nextDouble() * 0.08, 2.1 + random.nextDouble() * 0.08,
+                             random.nextDouble(), 5 + random.nextInt(20)));
+        }
+        TopSolver.indexPois(pois);
+        return pois;
+    }
+
+    // Travel time as the per-POI distance dictionary computed it, Poi.setDistanceFromPoi() with this POI as origin
+    static double dictionaryDistance(Poi from, Poi to) {
+        double dlon = Math.toRadians(to.lng) - Math.toRadians(from.lng);
+        double dlat = Math.toRadians(to.lat) - Math.toRadians(from.lat);
+        double a = Math.pow(Math.sin(dlat/2),2) +
+                   Math.cos(Math.toRadians(from.lat)) * Math.cos(Math.toRadians(to.lat)) * Math.pow(Math.sin(dlon/2),2);
+        double d = 6373 * 2 * Math.atan2(Math.sqrt(a),Math.sqrt(1-a)) * 1000;
+        return d > 1500 ? d / 200.0 : d / WALKING_SPEED;
+    }
+
+    static void assertSameDistances(ArrayList<Poi> pois, DistanceMatrix distanceMatrix) {
+        assertEquals(pois.size(), distanceMatrix.getSize());
+        for (Poi from : pois) {
+            for (Poi to : pois) {
+                assertEquals(from.poiId + " -> " + to.poiId, dictionaryDistance(from, to),
+                             distanceMatrix.get(from.index, to.index), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void matrixMatchesDistanceDictionary() {
+        ArrayList<Poi> pois = randomPois(150, 1L);
+        assertSameDistances(pois, new DistanceMatrixBuilder(WALKING_SPEED).build(pois));
+    }
+
+    @Test
+    public void parallelBuildMatchesSequentialBuild() {
+        ArrayList<Poi> pois = randomPois(3 * DistanceMatrixBuilder.ROW_BLOCK_SIZE + 7, 2L);
+        DistanceMatrix sequential = new DistanceMatrixBuilder(WALKING_SPEED, new ForkJoinPool(1)).build(pois);
+        DistanceMatrix parallel = new DistanceMatrixBuilder(WALKING_SPEED, new ForkJoinPool(4)).build(pois);
+        for (int i = 0; i < pois.size(); i++) {
+            for (int j = 0; j < pois.size(); j++) {
+                assertEquals(sequential.get(i, j), parallel.get(i, j), 0.0);
+                assertEquals(sequential.get(i, j), sequential.get(j, i), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void cachedMatrixMatchesBuiltMatrix() throws Exception {
+        ArrayList<Poi> pois = randomPois(80, 3L);
+        DistanceMatrixCache distanceMatrixCache = new DistanceMatrixCache(this.temporaryFolder.getRoot());
+        DistanceMatrixBuilder builder = new DistanceMatrixBuilder(WALKING_SPEED);
+        DistanceMatrix built = distanceMatrixCache.getOrBuild(pois, WALKING_SPEED, builder);
+        DistanceMatrix loaded = distanceMatrixCache.getOrBuild(pois, WALKING_SPEED, builder);
+        assertTrue(built instanceof DenseDistanceMatrix);
+        assertTrue(loaded instanceof MappedDistanceMatrix);
+        assertSameDistances(pois, loaded);
+    }
+
+    @Test
+    public void boundedCacheDeletesLeastRecentlyUsedFiles() throws Exception {
+        File directory = this.temporaryFolder.getRoot();
+        DistanceMatrixCache distanceMatrixCache = new DistanceMatrixCache(directory, 2);
+        DistanceMatrixBuilder builder = new DistanceMatrixBuilder(WALKING_SPEED);
+        ArrayList<Poi> first = randomPois(20, 4L);
+        ArrayList<Poi> second = randomPois(20, 5L);
+        ArrayList<Poi> third = randomPois(20, 6L);
+        distanceMatrixCache.getOrBuild(first, WALKING_SPEED, builder);
+        distanceMatrixCache.getOrBuild(second, WALKING_SPEED, builder);
+        // Make the first matrix the most recently used one, file times may have a coarse resolution
+        for (File file : directory.listFiles()) {
+            file.setLastModified(System.currentTimeMillis() - 60000);
+        }
+        assertTrue(distanceMatrixCache.getOrBuild(first, WALKING_SPEED, builder) instanceof MappedDistanceMatrix);
+        distanceMatrixCache.getOrBuild(third, WALKING_SPEED, builder);
+
+        assertEquals(2, directory.listFiles().length);
+        assertTrue(distanceMatrixCache.getOrBuild(first, WALKING_SPEED, builder) instanceof MappedDistanceMatrix);
+        assertTrue(distanceMatrixCache.getOrBuild(third, WALKING_SPEED, builder) instanceof MappedDistanceMatrix);
+        assertTrue(distanceMatrixCache.getOrBuild(second, WALKING_SPEED, builder) instanceof DenseDistanceMatrix);
+    }
+}
@@ -0,0 +1,42 @@
+package com.dama;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class PoiCatalogueTest {
+
+    static void assertIndexed(PoiCatalogue catalogue) {
+        for (int i = 0; i < catalogue.size(); i++) {
+            assertEquals(i, catalogue.pois.get(i).index);
+        }
+    }
+
+    @Test
+    public void cataloguesOverSharedPoisKeepTheirOwnIndices() {
+        ArrayList<Poi> pois = DistanceMatrixTest.randomPois(200, 8L);
+        ArrayList<Poi> shuffled = new ArrayList<Poi>(pois);
+        Collections.shuffle(shuffled, new Random(8L));
+
+        PoiCatalogue catalogue = new PoiCatalogue(pois, DistanceMatrixTest.WALKING_SPEED);
+        PoiCatalogue shuffledCatalogue = new PoiCatalogue(shuffled, DistanceMatrixTest.WALKING_SPEED);
+        PoiCatalogue requestCatalogue = PoiCatalogue.forRequest(shuffled, DistanceMatrixTest.WALKING_SPEED,
+                                                                RouteTest.START_LAT, RouteTest.START_LNG,
+                                                                RouteTest.START_LAT, RouteTest.START_LNG, 60);
+
+        assertIndexed(catalogue);
+        assertIndexed(shuffledCatalogue);
+        assertIndexed(requestCatalogue);
+        for (int i = 0; i < pois.size(); i++) {
+            assertEquals(i, pois.get(i).index);
+            assertNotSame(pois.get(i), catalogue.pois.get(i));
+        }
+        DistanceMatrixTest.assertSameDistances(pois, catalogue.distanceMatrix);
+        DistanceMatrixTest.assertSameDistances(shuffledCatalogue.pois, shuffledCatalogue.distanceMatrix);
+    }
+}
@@ -0,0 +1,113 @@
+package com.dama;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PoiLoaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    // Enough POIs to cross the read buffer, with multi-byte ids
+    static ArrayList<Poi> randomPois(long seed) {
+        ArrayList<Poi> pois = DistanceMatrixTest.randomPois(5000, seed);
+        Random random = new Random(seed);
+        for (int i = 0; i < pois.size(); i += 7) {
+            Poi poi = pois.get(i);
+            pois.set(i, new Poi("café-" + poi.poiId, poi.lat, poi.lng, random.nextDouble() * 1e-3,
+                                random.nextInt(120)));
+        }
+        return pois;
+    }
+
+    static void assertSamePois(List<Poi> expected, List<Poi> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).poiId, actual.get(i).poiId);
+            assertEquals(expected.get(i).lat, actual.get(i).lat, 0.0);
+            assertEquals(expected.get(i).lng, actual.get(i).lng, 0.0);
+            assertEquals(expected.get(i).score, actual.get(i).score, 0.0);
+            assertEquals(expected.get(i).consumingBudget, actual.get(i).consumingBudget, 0.0);
+        }
+    }
+
+    File writeText(String name, List<Poi> pois, String delimiter) throws IOException {
+        File file = this.temporaryFolder.newFile(name);
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            writer.print("id" + delimiter + "lat" + delimiter + "lng" + delimiter + "score" + delimiter +
+                         "consumingBudget\r\n");
+            writer.print("# comment\n\n");
+            for (Poi poi : pois) {
+                writer.print(poi.poiId + delimiter + poi.lat + delimiter + poi.lng + delimiter + poi.score +
+                             delimiter + poi.consumingBudget + "\n");
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        ArrayList<Poi> pois = randomPois(11L);
+        File file = new File(this.temporaryFolder.getRoot(), "pois.bin");
+        PoiLoader.writeBinary(file, pois);
+        PoiLoader poiLoader = new PoiLoader();
+        assertSamePois(pois, poiLoader.load(file));
+        assertEquals(0, poiLoader.getInvalidCount());
+    }
+
+    @Test
+    public void textRoundTrip() throws IOException {
+        ArrayList<Poi> pois = randomPois(12L);
+        PoiLoader poiLoader = new PoiLoader();
+        assertSamePois(pois, poiLoader.load(writeText("pois.csv", pois, ",")));
+        assertSamePois(pois, poiLoader.load(writeText("pois.tsv", pois, "\t")));
+        assertEquals(0, poiLoader.getInvalidCount());
+    }
+
+    @Test
+    public void invalidRowsAreSkipped() throws IOException {
+        ArrayList<Poi> pois = randomPois(13L);
+        ArrayList<Poi> rows = new ArrayList<Poi>(pois);
+        rows.add(100, new Poi("north", 91.0, 2.0, 1.0, 1.0));
+        rows.add(200, new Poi("negative", 41.0, 2.0, -1.0, 1.0));
+        PoiLoader poiLoader = new PoiLoader();
+        assertSamePois(pois, poiLoader.load(writeText("pois.csv", rows, ",")));
+        assertEquals(2, poiLoader.getInvalidCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void strictLoadRejectsInvalidRows() throws IOException {
+        ArrayList<Poi> rows = randomPois(14L);
+        rows.add(new Poi("nan", 41.0, 2.0, Double.NaN, 1.0));
+        PoiLoader poiLoader = new PoiLoader();
+        poiLoader.setStrict(true);
+        poiLoader.load(writeText("pois.csv", rows, ","));
+    }
+
+    @Test
+    public void parseDoubleMatchesDoubleParseDouble() {
+        Random random = new Random(15L);
+        for (int i = 0; i < 100000; i++) {
+            double value = i % 2 == 0 ? (random.nextDouble() - 0.5) * 360.0
+                                      : Math.round(random.nextDouble() * 1e6) / Math.pow(10, random.nextInt(8));
+            String[] texts = {Double.toString(value), String.format(Locale.ROOT, "%.6f", value),
+                              String.format(Locale.ROOT, "%.3e", value)};
+            for (String text : texts) {
+                byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+                assertEquals(text, Double.parseDouble(text), PoiLoader.parseDouble(bytes, 0, bytes.length), 0.0);
+            }
+        }
+    }
+}
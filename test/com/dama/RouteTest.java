@@ -0,0 +1,139 @@
+package com.dama;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RouteTest {
+
+    static final double START_LAT = 41.37;
+    static final double START_LNG = 2.12;
+
+    static TopSolver newSolver(ArrayList<Poi> pois, double availableBudget, double startTime) {
+        PoiCatalogue catalogue = new PoiCatalogue(pois, DistanceMatrixTest.WALKING_SPEED);
+        TopSolver topSolver = new TopSolver(2, availableBudget, catalogue, START_LAT, START_LNG, START_LAT, START_LNG);
+        topSolver.setStartTime(startTime);
+        return topSolver;
+    }
+
+    // Random opening hours between 9:00 and 21:00 for every other POI, in minutes since midnight
+    static ArrayList<Poi> poisWithTimeWindows(int poiCount, long seed) {
+        ArrayList<Poi> pois = DistanceMatrixTest.randomPois(poiCount, seed);
+        Random random = new Random(seed);
+        for (int i = 0; i < pois.size(); i += 2) {
+            double open = 540 + random.nextInt(300);
+            pois.get(i).setTimeWindows(new double[]{open, open + 60 + random.nextInt(180)});
+        }
+        return pois;
+    }
+
+    static Route routeOf(TopSolver topSolver, int length) {
+        Route route = new Route(topSolver);
+        for (int i = 0; i < length; i++) {
+            route.insertPoi(topSolver.pois.get(i), route.size() - 1);
+        }
+        return route;
+    }
+
+    static void assertConsistent(Route route) {
+        assertEquals(route.computeTotalConsumedBudget(), route.consumedBudget, 1e-9);
+        assertEquals(route.computeTotalScore(), route.score, 1e-9);
+        for (int position = 1; position < route.size() - 1; position++) {
+            assertEquals(position, route.getPosition(route.getPoi(position)));
+            assertTrue(route.poiRoutes[route.stops[position]] == route);
+        }
+    }
+
+    // The stops of the route with insertPoi at position and the POI at removePosition (-1 for none) taken out
+    static int[] edit(Route route, int removePosition, Poi insertPoi, int position) {
+        int[] stops = new int[route.size() + (insertPoi != null ? 1 : 0) - (removePosition >= 0 ? 1 : 0)];
+        int size = 0;
+        for (int i = 0; i < route.size(); i++) {
+            if (insertPoi != null && size == position) {
+                stops[size++] = insertPoi.index;
+            }
+            if (i != removePosition) {
+                stops[size++] = route.stops[i];
+            }
+        }
+        return stops;
+    }
+
+    @Test
+    public void editsKeepBudgetScoreAndPositions() {
+        TopSolver topSolver = newSolver(DistanceMatrixTest.randomPois(40, 4L), 600, 0);
+        Route route = routeOf(topSolver, 12);
+        assertConsistent(route);
+        route.insertPoi(topSolver.pois.get(20), 3);
+        route.removePoi(route.getPoi(5));
+        route.insertPoi(topSolver.pois.get(21), 1);
+        assertConsistent(route);
+        route.tsp();
+        assertConsistent(route);
+    }
+
+    @Test
+    public void disturbKeepsConsumedBudget() {
+        TopSolver topSolver = newSolver(DistanceMatrixTest.randomPois(40, 5L), 600, 0);
+        Route route = routeOf(topSolver, 12);
+        ArrayList<Poi> removedPois = route.disturb(0.5, true);
+        assertEquals(6, removedPois.size());
+        assertConsistent(route);
+        route.disturb(0.5, false);
+        assertConsistent(route);
+        route.disturb(0.5, new Random(1L));
+        assertConsistent(route);
+    }
+
+    @Test
+    public void insertionFeasibilityMatchesSimulation() {
+        for (long seed = 1; seed <= 20; seed++) {
+            TopSolver topSolver = newSolver(poisWithTimeWindows(30, seed), 900, 480);
+            Route route = new Route(topSolver);
+            for (int i = 0; i < 30; i++) {
+                Poi poi = topSolver.pois.get(i);
+                for (int position = 1; position < route.size(); position++) {
+                    int[] stops = edit(route, -1, poi, position);
+                    assertEquals("seed " + seed + ", POI " + i + " at " + position,
+                                 route.isTimeFeasible(stops, stops.length), route.canInsert(poi, position));
+                }
+                route.findCheapestInsertion(poi);
+                if (route.insertPosition > 0) {
+                    route.insertPoi(poi, route.insertPosition);
+                    assertTrue(route.isTimeFeasible());
+                }
+            }
+            assertConsistent(route);
+        }
+    }
+
+    @Test
+    public void replaceFeasibilityMatchesSimulation() {
+        for (long seed = 1; seed <= 20; seed++) {
+            TopSolver topSolver = newSolver(poisWithTimeWindows(30, seed), 900, 480);
+            Route route = new Route(topSolver);
+            for (int i = 0; i < 20; i++) {
+                Poi poi = topSolver.pois.get(i);
+                route.findCheapestInsertion(poi);
+                if (route.insertPosition > 0) {
+                    route.insertPoi(poi, route.insertPosition);
+                }
+            }
+            for (int i = 20; i < 30; i++) {
+                Poi poi = topSolver.pois.get(i);
+                for (int removePosition = 1; removePosition < route.size() - 1; removePosition++) {
+                    for (int position = 1; position < route.size() - 1; position++) {
+                        int[] stops = edit(route, removePosition, poi, position);
+                        assertEquals("seed " + seed + ", POI " + i + " for " + removePosition + " at " + position,
+                                     route.isTimeFeasible(stops, stops.length),
+                                     route.canReplace(removePosition, poi, position));
+                    }
+                }
+            }
+        }
+    }
+}
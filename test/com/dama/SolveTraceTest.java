@@ -0,0 +1,105 @@
+package com.dama;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SolveTraceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    static TopSolver newSolver() {
+        ArrayList<Poi> pois = RouteTest.poisWithTimeWindows(300, 9L);
+        PoiCatalogue catalogue = new PoiCatalogue(pois, DistanceMatrixTest.WALKING_SPEED);
+        TopSolver topSolver = new TopSolver(3, 300, catalogue, RouteTest.START_LAT, RouteTest.START_LNG,
+                                            RouteTest.START_LAT, RouteTest.START_LNG);
+        topSolver.setStartTime(540);
+        return topSolver;
+    }
+
+    static SolverConfig alnsConfig() {
+        SolverConfig config = new SolverConfig(30, 5);
+        config.setAlgorithm(SolverConfig.Algorithm.ALNS);
+        config.setSeed(42L);
+        config.setSwapMode(SwapEngine.Mode.DONT_LOOK_BITS);
+        config.setOptimizer(SolverConfig.Optimizer.OR_OPT);
+        return config;
+    }
+
+    static void assertSameCalls(SolverStats expected, SolverStats actual) {
+        assertEquals(expected.getCallCount(), actual.getCallCount());
+        for (int i = 0; i < expected.getCallCount(); i++) {
+            assertEquals("call " + i, expected.getCallOperator(i), actual.getCallOperator(i));
+            assertEquals("call " + i, expected.getCallEvaluations(i), actual.getCallEvaluations(i));
+            assertEquals("call " + i, expected.getCallAcceptances(i), actual.getCallAcceptances(i));
+            assertEquals("call " + i, expected.getCallScore(i), actual.getCallScore(i), 0.0);
+        }
+    }
+
+    @Test
+    public void replayOfAWrittenTraceRepeatsTheSolve() throws Exception {
+        SolverConfig config = alnsConfig();
+        SolveTrace recorded = SolveTrace.record(newSolver(), config);
+        assertFalse(config.deterministic);
+        assertTrue(recorded.config.deterministic);
+        assertTrue(recorded.stats.getCallCount() > 0);
+
+        File file = new File(this.temporaryFolder.getRoot(), "solve.trace");
+        recorded.write(file);
+        SolveTrace trace = SolveTrace.read(file);
+        assertEquals(recorded.getPoiCount(), trace.getPoiCount());
+        for (int i = 0; i < trace.getPoiCount(); i++) {
+            assertEquals(recorded.pois.get(i).poiId, trace.pois.get(i).poiId);
+            assertArrayEquals(recorded.pois.get(i).timeWindows, trace.pois.get(i).timeWindows, 0.0);
+        }
+        assertEquals(recorded.config.algorithm, trace.config.algorithm);
+        assertEquals(recorded.config.seed, trace.config.seed);
+        assertEquals(recorded.solutionScore, trace.solutionScore, 0.0);
+        assertSameCalls(recorded.stats, trace.stats);
+
+        TopSolver topSolver = trace.newSolver(trace.newCatalogue(null));
+        topSolver.collectStats = true;
+        topSolver.recordCalls = true;
+        trace.config.solve(topSolver);
+        assertSameCalls(trace.stats, topSolver.getStats());
+        assertEquals(trace.solutionScore, topSolver.solutionScore, 0.0);
+        assertEquals(trace.solutionStops.length, topSolver.solutionStops.length);
+        for (int r = 0; r < trace.solutionStops.length; r++) {
+            assertArrayEquals(trace.solutionStops[r], topSolver.solutionStops[r]);
+        }
+    }
+
+    @Test
+    public void readKeepsTheRecordedConfiguration() throws Exception {
+        SolveTrace recorded = SolveTrace.record(newSolver(), alnsConfig());
+        recorded.config.deterministic = false;
+        File file = new File(this.temporaryFolder.getRoot(), "solve.trace");
+        recorded.write(file);
+        SolveTrace trace = SolveTrace.read(file);
+        assertFalse(trace.config.deterministic);
+        assertEquals(null, trace.config.traceFile);
+    }
+
+    @Test
+    public void traceFileCapturesTheSolve() throws Exception {
+        File file = new File(this.temporaryFolder.getRoot(), "captured.trace");
+        SolverConfig config = alnsConfig();
+        config.setTraceFile(file);
+        TopSolver topSolver = newSolver();
+        ArrayList<ArrayList<String>> solutionRoutes = config.solve(topSolver);
+
+        assertEquals(topSolver.solutionRoutes, solutionRoutes);
+        SolveTrace trace = SolveTrace.read(file);
+        assertEquals(topSolver.solutionScore, trace.solutionScore, 0.0);
+        assertEquals(topSolver.getStats().getCallCount(), trace.stats.getCallCount());
+    }
+}
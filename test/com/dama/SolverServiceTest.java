@@ -0,0 +1,188 @@
+package com.dama;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SolverServiceTest {
+
+    static final String REQUEST = "{\"catalogue\": \"test\", \"routeCount\": 2, \"availableBudget\": 300, " +
+                                  "\"startLat\": 41.37, \"startLng\": 2.12, \"finishLat\": 41.37, " +
+                                  "\"finishLng\": 2.12, \"maxAlgLoop\": 2, \"maxLSLoop\": 2}";
+
+    SolverService solverService;
+
+    @Before
+    public void startService() throws Exception {
+        this.solverService = new SolverService(new InetSocketAddress("127.0.0.1", 0), 1,
+                                               new ResultCache(10, TimeUnit.MINUTES.toNanos(1)));
+        this.solverService.registerCatalogue("test", new PoiCatalogue(DistanceMatrixTest.randomPois(100, 7L),
+                                                                      DistanceMatrixTest.WALKING_SPEED));
+        this.solverService.start();
+    }
+
+    @After
+    public void stopService() {
+        this.solverService.stop(0);
+    }
+
+    // Request over inline POIs, the last of them far out of reach
+    static String inlineRequest(int poiCount) {
+        StringBuilder pois = new StringBuilder();
+        for (Poi poi : DistanceMatrixTest.randomPois(poiCount - 1, 7L)) {
+            pois.append(Json.write(poiObject(poi))).append(',');
+        }
+        pois.append(Json.write(poiObject(new Poi("far", 48.85, 2.35, 100.0, 10.0))));
+        return REQUEST.replace("\"catalogue\": \"test\"", "\"pois\": [" + pois + "]");
+    }
+
+    static Map<String, Object> poiObject(Poi poi) {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        object.put("id", poi.poiId);
+        object.put("lat", poi.lat);
+        object.put("lng", poi.lng);
+        object.put("score", poi.score);
+        object.put("consumingBudget", poi.consumingBudget);
+        return object;
+    }
+
+    int post(String body) throws Exception {
+        URL url = new URL("http://127.0.0.1:" + this.solverService.getPort() + "/solve");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+
+    @Test
+    public void oversizedBodyIsRejected() throws Exception {
+        this.solverService.setMaxBodyBytes(REQUEST.length() - 1);
+        assertEquals(413, post(REQUEST));
+        this.solverService.setMaxBodyBytes(REQUEST.length());
+        assertEquals(200, post(REQUEST));
+    }
+
+    static String nestedArrays(int depth) {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            json.append('[');
+        }
+        for (int i = 0; i < depth; i++) {
+            json.append(']');
+        }
+        return json.toString();
+    }
+
+    @Test
+    public void deeplyNestedBodyIsRejected() throws Exception {
+        Json.parse(nestedArrays(Json.MAX_DEPTH));
+        assertEquals(400, post(nestedArrays(Json.MAX_DEPTH + 1)));
+        assertEquals(400, post(nestedArrays(1000000)));
+    }
+
+    @Test
+    public void inlinePoisBeyondTheLimitAreRejected() throws Exception {
+        String request = inlineRequest(50);
+        this.solverService.setMaxInlinePois(49);
+        assertEquals(413, post(request));
+        this.solverService.setMaxInlinePois(50);
+        assertEquals(200, post(request));
+    }
+
+    @Test
+    public void inlinePoisOutOfReachAreNotVisited() throws Exception {
+        Map<String, Object> response = this.solverService.solve((Map<?, ?>) Json.parse(inlineRequest(50)));
+        assertTrue((Double) response.get("score") > 0.0);
+        for (Object route : (List<?>) response.get("routes")) {
+            assertFalse(((List<?>) route).contains("far"));
+        }
+    }
+
+    @Test
+    public void repeatedRequestIsAnsweredFromTheCache() throws Exception {
+        Map<String, Object> first = this.solverService.solve((Map<?, ?>) Json.parse(REQUEST));
+        Map<String, Object> second = this.solverService.solve((Map<?, ?>) Json.parse(REQUEST));
+        assertFalse((Boolean) first.get("cached"));
+        assertTrue((Boolean) second.get("cached"));
+        assertEquals(first.get("routes"), second.get("routes"));
+        assertTrue(this.solverService.inFlight.isEmpty());
+    }
+
+    @Test
+    public void concurrentIdenticalRequestsShareOneSolve() throws Exception {
+        final Map<?, ?> request = (Map<?, ?>) Json.parse(REQUEST);
+        final List<Map<String, Object>> responses = Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+        Thread[] threads = new Thread[4];
+        // Holding the only permit keeps the first solve from running until every request has arrived
+        this.solverService.solvePermits.acquire();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        responses.add(solverService.solve(request));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        // The solving thread waits for the permit, the others for its result
+        while (this.solverService.inFlight.isEmpty() || !allWaiting(threads)) {
+            Thread.sleep(10);
+        }
+        this.solverService.solvePermits.release();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        }
+
+        assertEquals(threads.length, responses.size());
+        int solved = 0;
+        for (Map<String, Object> response : responses) {
+            assertFalse((Boolean) response.get("cached"));
+            if (!(Boolean) response.get("coalesced")) {
+                solved++;
+            }
+            assertEquals(responses.get(0).get("routes"), response.get("routes"));
+        }
+        assertEquals(1, solved);
+        assertTrue(this.solverService.inFlight.isEmpty());
+    }
+
+    static boolean allWaiting(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.getState() != Thread.State.WAITING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unboundedMatrixCacheIsRefused() {
+        this.solverService.setDistanceMatrixCache(new DistanceMatrixCache(new File("unused")));
+    }
+}
@@ -0,0 +1,58 @@
+package com.dama;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SwapEngineTest {
+
+    static double totalConsumedBudget(TopSolver topSolver) {
+        double consumedBudget = 0.0;
+        for (Route route : topSolver.routes) {
+            RouteTest.assertConsistent(route);
+            assertTrue(route.consumedBudget <= topSolver.availableBudget + 1e-9);
+            consumedBudget += route.consumedBudget;
+        }
+        return consumedBudget;
+    }
+
+    static TopSolver constructed(SwapEngine.Mode mode) {
+        PoiCatalogue catalogue = new PoiCatalogue(DistanceMatrixTest.randomPois(600, 6L),
+                                                  DistanceMatrixTest.WALKING_SPEED);
+        TopSolver topSolver = new TopSolver(4, 600, catalogue, RouteTest.START_LAT, RouteTest.START_LNG,
+                                            RouteTest.START_LAT, RouteTest.START_LNG);
+        topSolver.setSwapMode(mode);
+        topSolver.construct();
+        return topSolver;
+    }
+
+    @Test
+    public void swapsKeepPoisAndSaveBudget() {
+        for (SwapEngine.Mode mode : SwapEngine.Mode.values()) {
+            TopSolver topSolver = constructed(mode);
+            HashSet<Poi> assignedPois = new HashSet<Poi>(topSolver.assignedPois);
+            double consumedBudget = totalConsumedBudget(topSolver);
+            topSolver.swap();
+            assertEquals(mode.name(), assignedPois, new HashSet<Poi>(topSolver.assignedPois));
+            int routePoiCount = 0;
+            for (Route route : topSolver.routes) {
+                routePoiCount += route.size() - 2;
+            }
+            assertEquals(mode.name(), assignedPois.size(), routePoiCount);
+            assertTrue(mode.name(), totalConsumedBudget(topSolver) <= consumedBudget + 1e-9);
+        }
+    }
+
+    @Test
+    public void dontLookBitsPassIsSubquadratic() {
+        TopSolver topSolver = constructed(SwapEngine.Mode.DONT_LOOK_BITS);
+        int assignedCount = topSolver.assignedPois.size();
+        topSolver.evaluationCount = 0;
+        topSolver.swap();
+        long evaluations = topSolver.evaluationCount;
+        assertTrue(evaluations + " evaluations", evaluations < (long) assignedCount * assignedCount / 4);
+    }
+}
@@ -0,0 +1,70 @@
+package com.dama;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopSolverTest {
+
+    static final int NEIGHBOR_COUNT = 5;
+
+    @Test
+    public void insertTakesCandidatesFromNeighborRowsOfTheStops() {
+        TopSolver topSolver = SwapEngineTest.constructed(SwapEngine.Mode.FIRST_IMPROVEMENT);
+        topSolver.setNeighborCount(NEIGHBOR_COUNT);
+        topSolver.disturb(0.7, false);
+        ArrayList<HashSet<Poi>> disturbedRoutes = new ArrayList<HashSet<Poi>>();
+        for (Route route : topSolver.routes) {
+            disturbedRoutes.add(new HashSet<Poi>(route.getPois()));
+        }
+
+        topSolver.insert();
+        SwapEngineTest.totalConsumedBudget(topSolver);
+        for (int r = 0; r < topSolver.routes.size(); r++) {
+            Route route = topSolver.routes.get(r);
+            // Insert never removes stops, so the stop that made an inserted POI a candidate is still on the route
+            for (Poi poi : route.getPois()) {
+                if (!disturbedRoutes.get(r).contains(poi)) {
+                    assertTrue(poi.poiId + " is no neighbour of a stop", isNeighborOfStop(topSolver, poi, route));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void poiListsFollowTheRoutes() {
+        TopSolver topSolver = SwapEngineTest.constructed(SwapEngine.Mode.FIRST_IMPROVEMENT);
+        topSolver.runAlns(50, 5, 3L);
+        HashSet<Poi> routePois = new HashSet<Poi>();
+        for (Route route : topSolver.routes) {
+            routePois.addAll(route.getPois().subList(1, route.size() - 1));
+        }
+        assertEquals(routePois, new HashSet<Poi>(topSolver.assignedPois));
+        assertEquals(routePois.size(), topSolver.assignedPois.size());
+        for (int position = 0; position < topSolver.assignedPois.size(); position++) {
+            assertEquals(position, topSolver.listPositions[topSolver.assignedPois.get(position).index]);
+        }
+        for (int position = 0; position < topSolver.availablePois.size(); position++) {
+            Poi poi = topSolver.availablePois.get(position);
+            assertEquals(position, topSolver.listPositions[poi.index]);
+            assertTrue(topSolver.availableIndex.isAvailable(poi.index));
+            assertFalse(routePois.contains(poi));
+        }
+    }
+
+    static boolean isNeighborOfStop(TopSolver topSolver, Poi poi, Route route) {
+        for (Poi stop : route.getPois()) {
+            for (int rank = 0; rank < NEIGHBOR_COUNT; rank++) {
+                if (stop != poi && topSolver.neighborLists.getNeighbor(stop.index, rank) == poi.index) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}